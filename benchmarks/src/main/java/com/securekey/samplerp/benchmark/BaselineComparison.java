@@ -0,0 +1,164 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares a JMH JSON result file with a saved baseline and exits with
+ * status 1 when a benchmark got slower or allocates more per operation.
+ * <br/>
+ * Both files are produced with -prof gc -rf json so gc.alloc.rate.norm
+ * (bytes per operation) is available. A score regression counts only when
+ * it exceeds both the threshold and the combined error of the two runs.
+ * <br/>
+ * Usage: BaselineComparison baseline.json results.json
+ * <br/>
+ * A missing baseline exits with status 2, record one on the reference
+ * machine by keeping a results file there.
+ * <br/>
+ * Thresholds in percent may be overridden with -DmaxScoreRegression
+ * (default 10) and -DmaxAllocRegression (default 5).
+ */
+public class BaselineComparison {
+
+	private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+
+	/** Allocation differences below this many bytes/op are TLAB accounting noise */
+	private static final double ALLOC_SLACK_BYTES = 16;
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length != 2) {
+			System.err.println("Usage: BaselineComparison baseline.json results.json");
+			System.exit(2);
+		}
+
+		if (!new File(args[0]).isFile()) {
+			System.err.println("No baseline at " + args[0] + ", record one on the reference machine: copy " + args[1]
+					+ " there and commit it");
+			System.exit(2);
+		}
+
+		double maxScoreRegression = Double.parseDouble(System.getProperty("maxScoreRegression", "10")) / 100;
+		double maxAllocRegression = Double.parseDouble(System.getProperty("maxAllocRegression", "5")) / 100;
+
+		Map<String, JsonNode> baseline = read(new File(args[0]));
+		Map<String, JsonNode> results = read(new File(args[1]));
+
+		int regressions = 0;
+		System.out.println(String.format("%-80s %14s %14s %8s %12s %12s", "benchmark", "baseline", "current", "change",
+				"B/op before", "B/op now"));
+
+		for (Map.Entry<String, JsonNode> entry : results.entrySet()) {
+			JsonNode current = entry.getValue();
+			JsonNode before = baseline.get(entry.getKey());
+			String unit = current.path("primaryMetric").path("scoreUnit").asText();
+			double score = current.path("primaryMetric").path("score").asDouble();
+
+			if (before == null) {
+				System.out.println(String.format("%-80s %14s %14.3f %8s %12s %12.1f  new", entry.getKey(), "-", score, "",
+						"-", alloc(current)));
+				continue;
+			}
+
+			double baseScore = before.path("primaryMetric").path("score").asDouble();
+			double error = error(before) + error(current);
+			// throughput modes report ops/time, the others time/op
+			boolean higherIsBetter = "thrpt".equals(current.path("mode").asText());
+			double worse = higherIsBetter ? baseScore - score : score - baseScore;
+			double change = baseScore == 0 ? 0 : (score - baseScore) / baseScore;
+
+			double baseAlloc = alloc(before);
+			double allocNow = alloc(current);
+
+			StringBuilder verdict = new StringBuilder();
+			if (worse > error && worse > Math.abs(baseScore) * maxScoreRegression) {
+				verdict.append("  SLOWER");
+			}
+			if (!Double.isNaN(baseAlloc) && !Double.isNaN(allocNow) && allocNow - baseAlloc > ALLOC_SLACK_BYTES
+					&& allocNow > baseAlloc * (1 + maxAllocRegression)) {
+				verdict.append("  ALLOCATES MORE");
+			}
+			if (verdict.length() > 0) {
+				regressions++;
+			}
+
+			System.out.println(String.format("%-80s %14.3f %14.3f %+7.1f%% %12.1f %12.1f %s%s", entry.getKey(), baseScore,
+					score, change * 100, baseAlloc, allocNow, unit, verdict));
+		}
+
+		for (String name : baseline.keySet()) {
+			if (!results.containsKey(name)) {
+				System.out.println(String.format("%-80s missing from results", name));
+			}
+		}
+
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmark(s) regressed against " + args[0]);
+			System.exit(1);
+		}
+		System.out.println("No regression against " + args[0]);
+	}
+
+	/**
+	 * @return results keyed by benchmark name, mode and parameters
+	 */
+	private static Map<String, JsonNode> read(File file) throws IOException {
+
+		Map<String, JsonNode> results = new LinkedHashMap<String, JsonNode>();
+		for (JsonNode result : new ObjectMapper().readTree(file)) {
+			StringBuilder key = new StringBuilder(result.path("benchmark").asText());
+			key.append(" (").append(result.path("mode").asText()).append(')');
+			Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+			while (params.hasNext()) {
+				Map.Entry<String, JsonNode> param = params.next();
+				key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+			}
+			results.put(key.toString(), result);
+		}
+		return results;
+	}
+
+	private static double error(JsonNode result) {
+
+		double error = result.path("primaryMetric").path("scoreError").asDouble();
+		return Double.isNaN(error) ? 0 : error;
+	}
+
+	/**
+	 * @return bytes allocated per operation, NaN when run without -prof gc
+	 */
+	private static double alloc(JsonNode result) {
+
+		Iterator<Map.Entry<String, JsonNode>> metrics = result.path("secondaryMetrics").fields();
+		while (metrics.hasNext()) {
+			Map.Entry<String, JsonNode> metric = metrics.next();
+			// older JMH versions prefix secondary metric names with a middle dot
+			if (metric.getKey().endsWith(ALLOC_NORM)) {
+				return metric.getValue().path("score").asDouble();
+			}
+		}
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,104 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+
+import org.bouncycastle.util.io.pem.PemReader;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.securekey.samplerp.service.impl.CertificateServiceImpl;
+
+/**
+ * Signing material shared by the benchmarks.
+ * <br/>
+ * benchmark-cert.pem and benchmark-key.pem are a self-signed RSA 2048 pair
+ * generated for benchmarking only, they are not trusted anywhere.
+ */
+final class BenchmarkKeys {
+
+	static final String CERT_URL = "https://localhost/benchmark-cert.pem";
+
+	/** Claims of roughly the size briidge.Net puts in device JWTs */
+	static final String PAYLOAD = "{\"iss\":\"briidge.net\",\"aud\":\"samplerp\",\"iat\":1420070400,\"exp\":1420070700,"
+			+ "\"txnId\":\"3f2a9c1e-6b1d-4c55-9a3e-0d7c8b2f4e61\",\"deviceId\":\"a9d1e5c3b7f2468e\","
+			+ "\"userId\":\"benchmark-user\",\"status\":\"verified\"}";
+
+	private BenchmarkKeys() {
+	}
+
+	static String certificatePem() throws IOException {
+
+		return resource("/benchmark-cert.pem");
+	}
+
+	static RSAPublicKey publicKey() throws Exception {
+
+		return (RSAPublicKey) CertificateServiceImpl.parsePemCertificate(certificatePem()).getPublicKey();
+	}
+
+	static RSAPrivateKey privateKey() throws Exception {
+
+		PemReader reader = new PemReader(new StringReader(resource("/benchmark-key.pem")));
+		try {
+			byte[] pkcs8 = reader.readPemObject().getContent();
+			return (RSAPrivateKey) KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return compact RS256 JWS with an x5u header, as verifyJWT receives it
+	 */
+	static String signedJwt() throws Exception {
+
+		JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS256).x509CertURL(new URL(CERT_URL)).build();
+		JWSObject jws = new JWSObject(header, new Payload(PAYLOAD));
+		jws.sign(new RSASSASigner(privateKey()));
+		return jws.serialize();
+	}
+
+	private static String resource(String name) throws IOException {
+
+		InputStream in = BenchmarkKeys.class.getResourceAsStream(name);
+		if (in == null) {
+			throw new IOException("Missing resource " + name);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) != -1;) {
+				out.write(buffer, 0, n);
+			}
+			return out.toString("US-ASCII");
+		} finally {
+			in.close();
+		}
+	}
+}
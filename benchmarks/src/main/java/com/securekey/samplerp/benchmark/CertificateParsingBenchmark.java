@@ -0,0 +1,69 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.benchmark;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.securekey.samplerp.service.impl.CertificateServiceImpl;
+
+/**
+ * Work done on an x5u certificate cache miss once the PEM file is
+ * downloaded: PEM decoding, X.509 parsing and verifier construction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CertificateParsingBenchmark {
+
+	private String pem;
+
+	@Setup
+	public void setUp() throws Exception {
+
+		pem = BenchmarkKeys.certificatePem();
+	}
+
+	@Benchmark
+	public X509Certificate parsePemCertificate() throws CertificateException {
+
+		return CertificateServiceImpl.parsePemCertificate(pem);
+	}
+
+	@Benchmark
+	public JWSVerifier parseToVerifier() throws CertificateException {
+
+		return new RSASSAVerifier((RSAPublicKey) CertificateServiceImpl.parsePemCertificate(pem).getPublicKey());
+	}
+}
@@ -0,0 +1,117 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.beanutils.BeanUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.securekey.connect.beans.JsonObject;
+import com.securekey.connect.beans.client.DeviceInfo;
+import com.securekey.connect.beans.client.GetDeviceIdResponse;
+import com.securekey.connect.beans.client.GetProvisioningAuthorizationCodeResponse;
+import com.securekey.connect.beans.client.VerifyQuickCodeResponse;
+import com.securekey.samplerp.service.interceptor.ErrorResponses;
+
+/**
+ * Serialization of JsonObject responses returned by the @ResponseBody
+ * controller methods, with the default ObjectMapper that Spring MVC's
+ * MappingJackson2HttpMessageConverter uses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private JsonObject authorizationCode;
+
+	private JsonObject deviceId;
+
+	private JsonObject quickCode;
+
+	private JsonObject error;
+
+	@Setup
+	public void setUp() throws Exception {
+
+		authorizationCode = txnResponse(new GetProvisioningAuthorizationCodeResponse());
+		DeviceInfo deviceInfo = new DeviceInfo();
+		BeanUtils.setProperty(deviceInfo, "deviceId", "a9d1e5c3b7f2468e");
+		deviceId = txnResponse(new GetDeviceIdResponse());
+		BeanUtils.setProperty(deviceId, "deviceInfo", deviceInfo);
+		quickCode = txnResponse(new VerifyQuickCodeResponse());
+		BeanUtils.setProperty(quickCode, "verifiedQuickCode", Boolean.TRUE);
+		error = (JsonObject) ErrorResponses.create(VerifyQuickCodeResponse.class, ErrorResponses.TIMEOUT,
+				"briidge.Net call did not complete in time");
+
+		// fail in setup rather than measuring an exception path
+		mapper.writeValueAsBytes(authorizationCode);
+		mapper.writeValueAsBytes(deviceId);
+		mapper.writeValueAsBytes(quickCode);
+		mapper.writeValueAsBytes(error);
+	}
+
+	@Benchmark
+	public byte[] authorizationCode() throws JsonProcessingException {
+
+		return mapper.writeValueAsBytes(authorizationCode);
+	}
+
+	@Benchmark
+	public byte[] deviceId() throws JsonProcessingException {
+
+		return mapper.writeValueAsBytes(deviceId);
+	}
+
+	@Benchmark
+	public byte[] verifyQuickCode() throws JsonProcessingException {
+
+		return mapper.writeValueAsBytes(quickCode);
+	}
+
+	@Benchmark
+	public byte[] errorResponse() throws JsonProcessingException {
+
+		return mapper.writeValueAsBytes(error);
+	}
+
+	/**
+	 * Properties the SDK bean does not have are ignored by BeanUtils, so
+	 * this works across response types.
+	 */
+	private static <T extends JsonObject> T txnResponse(T response) throws Exception {
+
+		BeanUtils.setProperty(response, "txnId", "3f2a9c1e-6b1d-4c55-9a3e-0d7c8b2f4e61");
+		return response;
+	}
+}
@@ -0,0 +1,83 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.benchmark;
+
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+
+/**
+ * JWS stages of BriidgeController.verifyJWT, with the verifier already
+ * cached the way CertificateServiceImpl serves it on a cache hit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class JwsBenchmark {
+
+	private String jwt;
+
+	private JWSObject parsed;
+
+	private JWSVerifier verifier;
+
+	@Setup
+	public void setUp() throws Exception {
+
+		jwt = BenchmarkKeys.signedJwt();
+		parsed = JWSObject.parse(jwt);
+		verifier = new RSASSAVerifier(BenchmarkKeys.publicKey());
+		if (!parsed.verify(verifier)) {
+			throw new IllegalStateException("Benchmark JWT does not verify");
+		}
+	}
+
+	@Benchmark
+	public JWSObject parse() throws ParseException {
+
+		return JWSObject.parse(jwt);
+	}
+
+	@Benchmark
+	public boolean verify() throws JOSEException {
+
+		return parsed.verify(verifier);
+	}
+
+	@Benchmark
+	public boolean parseAndVerify() throws ParseException, JOSEException {
+
+		return JWSObject.parse(jwt).verify(verifier);
+	}
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.securekey.connect.beans.mgmt.AddUserRequest;
+import com.securekey.connect.beans.mgmt.PairingRequest;
+import com.securekey.connect.beans.mgmt.Phone;
+import com.securekey.connect.beans.mgmt.UpdateUserRequest;
+
+/**
+ * Request bean construction in BriidgeServiceImpl, which runs for every
+ * enrollment and bulk provisioning record before the Connect call.
+ * <br/>
+ * Lives in the service package to reach the package-private builders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class RequestBeansBenchmark {
+
+	/** Number of phone maps per user, each holding one type/number entry */
+	@Param({"0", "1", "4"})
+	public int phoneCount;
+
+	private List<Map<String, String>> phones;
+
+	private Date expiry;
+
+	@Setup
+	public void setUp() {
+
+		phones = new ArrayList<Map<String, String>>(phoneCount);
+		for (int i = 0; i < phoneCount; i++) {
+			phones.add(Collections.singletonMap(i % 2 == 0 ? "mobile" : "home", "+1416555" + (1000 + i)));
+		}
+		expiry = new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10));
+	}
+
+	@Benchmark
+	public Phone[] toPhones() {
+
+		return BriidgeServiceImpl.toPhones(phones);
+	}
+
+	@Benchmark
+	public AddUserRequest addUserRequest() {
+
+		return BriidgeServiceImpl.newAddUserRequest("benchmark-user", phones);
+	}
+
+	@Benchmark
+	public UpdateUserRequest updateUserRequest() {
+
+		return BriidgeServiceImpl.newUpdateUserRequest("benchmark-user", Boolean.TRUE, phones);
+	}
+
+	/**
+	 * Same arguments as BriidgeController.getPairingCode with a callback URL
+	 */
+	@Benchmark
+	public PairingRequest pairingRequest() {
+
+		return BriidgeServiceImpl.newPairingRequest("benchmark-user", "", "", null, expiry, Boolean.TRUE,
+				"httpPost", "https://rp.example.com/samplerp/notification.json");
+	}
+}
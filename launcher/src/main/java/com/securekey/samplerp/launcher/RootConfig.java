@@ -0,0 +1,141 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.launcher;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.PropertiesFactoryBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ImportResource;
+import org.springframework.core.io.ClassPathResource;
+
+import com.securekey.samplerp.batch.BatchJobs;
+import com.securekey.samplerp.concurrent.ConnectExecutorFactoryBean;
+import com.securekey.samplerp.http.OutboundHttpClient;
+import com.securekey.samplerp.jfr.FlightEventsInstaller;
+import com.securekey.samplerp.service.impl.CertificateServiceImpl;
+import com.securekey.samplerp.service.impl.DeviceOperationsServiceImpl;
+import com.securekey.samplerp.service.impl.EnrollmentServiceImpl;
+import com.securekey.samplerp.service.impl.PairingCampaignServiceImpl;
+import com.securekey.samplerp.service.impl.TransactionStateServiceImpl;
+import com.securekey.samplerp.service.impl.TransactionWatchServiceImpl;
+import com.securekey.samplerp.service.impl.UserProvisioningServiceImpl;
+import com.securekey.samplerp.tenant.TenantFilter;
+import com.securekey.samplerp.tenant.TenantRegistry;
+import com.securekey.samplerp.trace.TracingFilter;
+
+/**
+ * Root context of the embedded launcher, the explicit equivalent of
+ * securekey-context.xml: every bean the war finds by component scanning is
+ * declared here, the briidgeService proxy chain is imported unchanged.
+ * <br/>
+ * Deliberately not annotated with @Configuration. @Bean methods are then
+ * processed in lite mode, no CGLIB subclass is generated at startup (Spring
+ * 4.0's CGLIB can't define classes on JDK 17+ anyway) and beans reach each
+ * other through @Autowired fields only. A @Component / @Service added to the
+ * RP server needs its @Bean method here.
+ */
+@ImportResource("classpath:connect-service-context.xml")
+public class RootConfig {
+
+	@Bean
+	public PropertiesFactoryBean system() {
+
+		PropertiesFactoryBean system = new PropertiesFactoryBean();
+		system.setLocation(new ClassPathResource("system.properties"));
+		return system;
+	}
+
+	@Bean
+	public ConnectExecutorFactoryBean connectExecutor(
+			@Value("#{systemProperties['connectExecutor.mode'] ?: system['connectExecutor.mode'] ?: 'platform'}") String mode,
+			@Value("#{system['connectExecutor.corePoolSize'] ?: 20}") int corePoolSize,
+			@Value("#{system['connectExecutor.maxPoolSize'] ?: 100}") int maxPoolSize,
+			@Value("#{system['connectExecutor.queueCapacity'] ?: 500}") int queueCapacity) {
+
+		ConnectExecutorFactoryBean executor = new ConnectExecutorFactoryBean();
+		executor.setMode(mode);
+		executor.setThreadNamePrefix("connect-");
+		executor.setCorePoolSize(corePoolSize);
+		executor.setMaxPoolSize(maxPoolSize);
+		executor.setQueueCapacity(queueCapacity);
+		return executor;
+	}
+
+	@Bean
+	public OutboundHttpClient outboundHttpClient() {
+		return new OutboundHttpClient();
+	}
+
+	@Bean
+	public CertificateServiceImpl certificateService() {
+		return new CertificateServiceImpl();
+	}
+
+	@Bean
+	public EnrollmentServiceImpl enrollmentService() {
+		return new EnrollmentServiceImpl();
+	}
+
+	@Bean
+	public TransactionStateServiceImpl transactionStateService() {
+		return new TransactionStateServiceImpl();
+	}
+
+	@Bean
+	public TransactionWatchServiceImpl transactionWatchService() {
+		return new TransactionWatchServiceImpl();
+	}
+
+	@Bean
+	public DeviceOperationsServiceImpl deviceOperationsService() {
+		return new DeviceOperationsServiceImpl();
+	}
+
+	@Bean
+	public UserProvisioningServiceImpl userProvisioningService() {
+		return new UserProvisioningServiceImpl();
+	}
+
+	@Bean
+	public PairingCampaignServiceImpl pairingCampaignService() {
+		return new PairingCampaignServiceImpl();
+	}
+
+	@Bean
+	public BatchJobs batchJobs() {
+		return new BatchJobs();
+	}
+
+	@Bean
+	public TracingFilter tracingFilter() {
+		return new TracingFilter();
+	}
+
+	@Bean
+	public FlightEventsInstaller flightEventsInstaller() {
+		return new FlightEventsInstaller();
+	}
+
+	@Bean
+	public TenantRegistry tenantRegistry() {
+		return new TenantRegistry();
+	}
+
+	@Bean
+	public TenantFilter tenantFilter() {
+		return new TenantFilter();
+	}
+}
@@ -0,0 +1,135 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.launcher;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumSet;
+
+import javax.servlet.DispatcherType;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.ContextLoaderListener;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.filter.CharacterEncodingFilter;
+import org.springframework.web.filter.DelegatingFilterProxy;
+import org.springframework.web.servlet.DispatcherServlet;
+
+/**
+ * Runs the RP server on an embedded Jetty from an executable jar.
+ * <br/>
+ * By default the application is assembled from RootConfig and WebConfig:
+ * no web.xml parsing, no annotation or component scanning, no CGLIB. The
+ * servlet, filters and mappings mirror web.xml. With --war the given war is
+ * deployed the usual way instead, which StartupComparison uses as reference.
+ * <br/>
+ * Usage: java -jar samplerp-launcher.jar [--war samplerp.war]
+ * <br/>
+ * Options: -Dserver.host (0.0.0.0), -Dserver.port (8080), -Dserver.threads
+ * (200), -Dserver.contextPath (/samplerp) and -Dserver.exitAfterStart to
+ * stop once started, e.g. for an AppCDS training run.
+ */
+public class RpServerLauncher {
+
+	private static final Logger log = LoggerFactory.getLogger(RpServerLauncher.class);
+
+	public static void main(String[] args) throws Exception {
+
+		long mainStart = System.currentTimeMillis();
+		String war = args.length > 1 && "--war".equals(args[0]) ? args[1] : null;
+		String contextPath = System.getProperty("server.contextPath", "/samplerp");
+
+		QueuedThreadPool threads = new QueuedThreadPool(Integer.getInteger("server.threads", 200));
+		threads.setName("http");
+		Server server = new Server(threads);
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost(System.getProperty("server.host", "0.0.0.0"));
+		connector.setPort(Integer.getInteger("server.port", 8080));
+		server.addConnector(connector);
+		server.setHandler(war == null ? javaConfigContext(contextPath) : warContext(war, contextPath));
+		server.setStopAtShutdown(true);
+
+		server.start();
+
+		long ready = System.currentTimeMillis();
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		log.info(String.format("RP server (%s) listening on %s:%d%s, started in %d ms since JVM start, %d ms in main",
+				war == null ? "java config" : war, connector.getHost(), connector.getLocalPort(), contextPath,
+				ready - jvmStart, ready - mainStart));
+
+		if (Boolean.getBoolean("server.exitAfterStart")) {
+			server.stop();
+			System.exit(0);
+		}
+		server.join();
+	}
+
+	private static Handler javaConfigContext(String contextPath) {
+
+		ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		context.setContextPath(contextPath);
+		context.setBaseResource(Resource.newClassPathResource("/webapp"));
+		context.setWelcomeFiles(new String[] {"index.html"});
+
+		AnnotationConfigWebApplicationContext root = new AnnotationConfigWebApplicationContext();
+		root.register(RootConfig.class);
+		context.addEventListener(new ContextLoaderListener(root));
+
+		FilterHolder tracing = new FilterHolder(new DelegatingFilterProxy("tracingFilter", root));
+		tracing.setAsyncSupported(true);
+		context.addFilter(tracing, "/*", EnumSet.of(DispatcherType.REQUEST));
+
+		CharacterEncodingFilter encodingFilter = new CharacterEncodingFilter();
+		encodingFilter.setEncoding("UTF-8");
+		FilterHolder encoding = new FilterHolder(encodingFilter);
+		encoding.setAsyncSupported(true);
+		context.addFilter(encoding, "/*", EnumSet.of(DispatcherType.REQUEST));
+
+		FilterHolder tenant = new FilterHolder(new DelegatingFilterProxy("tenantFilter", root));
+		tenant.setAsyncSupported(true);
+		context.addFilter(tenant, "/*", EnumSet.of(DispatcherType.REQUEST));
+
+		AnnotationConfigWebApplicationContext web = new AnnotationConfigWebApplicationContext();
+		web.register(WebConfig.class);
+		ServletHolder dispatcher = new ServletHolder("dispatcher", new DispatcherServlet(web));
+		dispatcher.setInitOrder(1);
+		dispatcher.setAsyncSupported(true);
+		context.addServlet(dispatcher, "/forms/*");
+
+		ServletHolder staticContent = new ServletHolder("default", DefaultServlet.class);
+		staticContent.setInitParameter("dirAllowed", "false");
+		context.addServlet(staticContent, "/");
+
+		return context;
+	}
+
+	private static Handler warContext(String war, String contextPath) {
+
+		WebAppContext webapp = new WebAppContext(war, contextPath);
+		webapp.setThrowUnavailableOnStartupException(true);
+		return webapp;
+	}
+}
@@ -0,0 +1,163 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures startup of the RP server as a war deployment and as the Java
+ * configured launcher, optionally with an AppCDS archive, on the same
+ * embedded Jetty and JVM.
+ * <br/>
+ * Each run starts a fresh JVM and times it from process start until
+ * forms/stats/briidgeCalls.json answers, i.e. until the Spring contexts are
+ * up. -Dprobe=health/ready.json times it until the warm-up finished and the
+ * node would join the load balancer.
+ * <br/>
+ * Usage: StartupComparison samplerp.war [runs]
+ * <br/>
+ * Options: -Dcds.archive=samplerp.jsa adds an AppCDS run, the archive is
+ * created first when missing (JDK 13+). -DjvmArgs passes options to the
+ * measured JVMs, their output goes to samplerp-startup.log in java.io.tmpdir.
+ */
+public class StartupComparison {
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1 || !new File(args[0]).isFile()) {
+			System.err.println("Usage: StartupComparison samplerp.war [runs]");
+			System.exit(2);
+		}
+		String war = args[0];
+		String probe = System.getProperty("probe", "stats/briidgeCalls.json");
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		String jar = new File(StartupComparison.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+
+		List<String> jvmArgs = new ArrayList<String>();
+		String extra = System.getProperty("jvmArgs", "").trim();
+		if (!extra.isEmpty()) {
+			jvmArgs.addAll(Arrays.asList(extra.split("\\s+")));
+		}
+
+		System.out.println(String.format("Startup until %s answers, %d runs each, java %s", probe, runs,
+				System.getProperty("java.version")));
+		report("war", measure(jar, jvmArgs, Arrays.asList("--war", war), probe, runs));
+		report("java config", measure(jar, jvmArgs, Collections.<String> emptyList(), probe, runs));
+
+		String archive = System.getProperty("cds.archive");
+		if (archive != null) {
+			if (!new File(archive).isFile()) {
+				System.out.println("Creating AppCDS archive " + archive);
+				List<String> training = new ArrayList<String>(jvmArgs);
+				training.add("-XX:ArchiveClassesAtExit=" + archive);
+				training.add("-Dserver.exitAfterStart=true");
+				training.add("-Dserver.port=" + freePort());
+				Process process = start(jar, training, Collections.<String> emptyList());
+				if (process.waitFor() != 0 || !new File(archive).isFile()) {
+					throw new IllegalStateException("AppCDS archive " + archive + " was not created");
+				}
+			}
+			List<String> cds = new ArrayList<String>(jvmArgs);
+			cds.add("-XX:SharedArchiveFile=" + archive);
+			report("java config + AppCDS", measure(jar, cds, Collections.<String> emptyList(), probe, runs));
+		}
+	}
+
+	private static long[] measure(String jar, List<String> jvmArgs, List<String> args, String probe, int runs)
+			throws Exception {
+
+		long[] millis = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			int port = freePort();
+			List<String> options = new ArrayList<String>(jvmArgs);
+			options.add("-Dserver.host=127.0.0.1");
+			options.add("-Dserver.port=" + port);
+
+			long start = System.nanoTime();
+			Process process = start(jar, options, args);
+			try {
+				URL ready = new URL("http://127.0.0.1:" + port + "/samplerp/forms/" + probe);
+				long deadline = start + TimeUnit.SECONDS.toNanos(120);
+				while (!answers(ready)) {
+					if (System.nanoTime() > deadline || !process.isAlive()) {
+						throw new IllegalStateException("RP server did not start: " + args);
+					}
+					TimeUnit.MILLISECONDS.sleep(5);
+				}
+				millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			} finally {
+				process.destroy();
+				process.waitFor();
+			}
+		}
+		return millis;
+	}
+
+	private static Process start(String jar, List<String> jvmArgs, List<String> args) throws IOException {
+
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(jvmArgs);
+		command.add("-jar");
+		command.add(jar);
+		command.addAll(args);
+		return new ProcessBuilder(command).redirectErrorStream(true)
+				.redirectOutput(new File(System.getProperty("java.io.tmpdir"), "samplerp-startup.log")).start();
+	}
+
+	private static boolean answers(URL url) {
+
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setConnectTimeout(1000);
+			connection.setReadTimeout(5000);
+			try {
+				return connection.getResponseCode() == 200;
+			} finally {
+				connection.disconnect();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static int freePort() throws IOException {
+
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void report(String variant, long[] millis) {
+
+		long[] sorted = millis.clone();
+		Arrays.sort(sorted);
+		System.out.println(String.format("%-22s: min=%dms median=%dms max=%dms", variant, sorted[0],
+				sorted[sorted.length / 2], sorted[sorted.length - 1]));
+	}
+}
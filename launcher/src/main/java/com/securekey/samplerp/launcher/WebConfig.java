@@ -0,0 +1,142 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.launcher;
+
+import java.util.Collections;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.method.support.CompositeUriComponentsContributor;
+import org.springframework.web.multipart.commons.CommonsMultipartResolver;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurationSupport;
+import org.springframework.web.servlet.view.InternalResourceViewResolver;
+
+import com.securekey.samplerp.web.AsyncBriidgeController;
+import com.securekey.samplerp.web.BatchController;
+import com.securekey.samplerp.web.BriidgeController;
+import com.securekey.samplerp.web.HealthController;
+import com.securekey.samplerp.web.MetricsController;
+import com.securekey.samplerp.web.NotificationController;
+import com.securekey.samplerp.web.PairingCodeController;
+import com.securekey.samplerp.web.RequestMetricsInterceptor;
+import com.securekey.samplerp.web.StatsController;
+import com.securekey.samplerp.web.WatchController;
+
+/**
+ * Dispatcher context of the embedded launcher, the explicit equivalent of
+ * dispatcher-servlet.xml.
+ * <br/>
+ * Extends WebMvcConfigurationSupport instead of using @EnableWebMvc, which
+ * would bring a CGLIB enhanced @Configuration class; see RootConfig. As
+ * @Bean methods are not intercepted in lite mode, the interceptor instance
+ * is held in a field so handler mappings and MetricsController share it.
+ */
+public class WebConfig extends WebMvcConfigurationSupport {
+
+	private final RequestMetricsInterceptor requestMetricsInterceptor = new RequestMetricsInterceptor();
+
+	@Autowired @Qualifier("connectExecutor") private AsyncTaskExecutor connectExecutor;
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.setTaskExecutor(connectExecutor);
+		configurer.setDefaultTimeout(30000);
+	}
+
+	@Override
+	protected void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(requestMetricsInterceptor);
+	}
+
+	/**
+	 * In lite mode the default would read the argument resolvers of a fresh,
+	 * uninitialized handler adapter. The RP server doesn't build links with
+	 * MvcUriComponentsBuilder.
+	 */
+	@Bean
+	@Override
+	public CompositeUriComponentsContributor mvcUriComponentsContributor() {
+		return new CompositeUriComponentsContributor(Collections.emptyList());
+	}
+
+	@Bean
+	public RequestMetricsInterceptor requestMetricsInterceptor() {
+		return requestMetricsInterceptor;
+	}
+
+	@Bean
+	public InternalResourceViewResolver viewResolver() {
+
+		InternalResourceViewResolver viewResolver = new InternalResourceViewResolver();
+		viewResolver.setPrefix("/WEB-INF/forms/");
+		viewResolver.setSuffix(".jsp");
+		return viewResolver;
+	}
+
+	@Bean
+	public CommonsMultipartResolver multipartResolver() {
+		return new CommonsMultipartResolver();
+	}
+
+	@Bean
+	public BriidgeController briidgeController() {
+		return new BriidgeController();
+	}
+
+	@Bean
+	public AsyncBriidgeController asyncBriidgeController() {
+		return new AsyncBriidgeController();
+	}
+
+	@Bean
+	public WatchController watchController() {
+		return new WatchController();
+	}
+
+	@Bean
+	public NotificationController notificationController() {
+		return new NotificationController();
+	}
+
+	@Bean
+	public BatchController batchController() {
+		return new BatchController();
+	}
+
+	@Bean
+	public PairingCodeController pairingCodeController() {
+		return new PairingCodeController();
+	}
+
+	@Bean
+	public StatsController statsController() {
+		return new StatsController();
+	}
+
+	@Bean
+	public MetricsController metricsController() {
+		return new MetricsController();
+	}
+
+	@Bean
+	public HealthController healthController() {
+		return new HealthController();
+	}
+}
@@ -0,0 +1,77 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.loadtest;
+
+import java.io.File;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+/**
+ * Runs the RP server webapp (web.xml, Spring contexts and filters as
+ * deployed) on an embedded Jetty bound to the loopback interface, with the
+ * classes of the harness class path.
+ */
+public class EmbeddedRpServer {
+
+	private final Server server;
+
+	private final String baseUrl;
+
+	/**
+	 * @param webappDir directory holding WEB-INF/web.xml, normally src/main/webapp
+	 * @param port 0 for any free port
+	 * @param threads maximum container threads
+	 */
+	public EmbeddedRpServer(File webappDir, int port, int threads) throws Exception {
+
+		if (!new File(webappDir, "WEB-INF/web.xml").isFile()) {
+			throw new IllegalArgumentException("No WEB-INF/web.xml in " + webappDir.getAbsolutePath()
+					+ ", run from the RP server directory or set -Dwebapp");
+		}
+
+		QueuedThreadPool pool = new QueuedThreadPool(threads);
+		pool.setName("rp");
+		server = new Server(pool);
+
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("127.0.0.1");
+		connector.setPort(port);
+		server.addConnector(connector);
+
+		WebAppContext webapp = new WebAppContext(webappDir.getAbsolutePath(), "/samplerp");
+		// Spring and the RP classes come from the harness class path, there is no WEB-INF/lib
+		webapp.setParentLoaderPriority(true);
+		server.setHandler(webapp);
+
+		server.start();
+		if (!webapp.isAvailable()) {
+			server.stop();
+			throw new IllegalStateException("RP server webapp failed to start", webapp.getUnavailableException());
+		}
+		baseUrl = "http://127.0.0.1:" + connector.getLocalPort() + "/samplerp";
+	}
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	public void stop() throws Exception {
+		server.stop();
+	}
+}
@@ -0,0 +1,299 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Drives the BriidgeController endpoints over HTTP at a target request rate
+ * and reports throughput and latency percentiles per endpoint.
+ * <br/>
+ * Without -Dtarget the RP server is started in-process on an embedded Jetty
+ * with StubConnectServer in place of the Connect client, so capacity can be
+ * measured on a single box without network. With -Dtarget (e.g.
+ * http://host:8080/samplerp) an already running server is driven instead.
+ * <br/>
+ * Requests are offered open-loop and latency is measured from the intended
+ * start time, so a saturated server shows up as queueing latency instead of
+ * a silently lower offered rate.
+ * <br/>
+ * Usage: EndpointLoadTest [requestsPerSecond] [seconds]
+ * <br/>
+ * Options: -Dmix=endpoint=weight,... (default below), -Dclients (HTTP
+ * connections and sender threads, 200), -Dusers (distinct userIds, 1000),
+ * -DwarmupSeconds (5), -Dwebapp (src/main/webapp), -DserverThreads (200).
+ * Stub latency and error injection are set with the stub.* properties of
+ * StubConnectServer.
+ */
+public class EndpointLoadTest {
+
+	private static final String DEFAULT_MIX = "getDeviceId.json=30,verifyQuickcode.json=30,getPairingCode.json=20,"
+			+ "initMobileQuickcode.json=10,getProvisioningAuthorizationCode.json=10";
+
+	public static void main(String[] args) throws Exception {
+
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+		List<Endpoint> endpoints = Endpoint.parseMix(System.getProperty("mix", DEFAULT_MIX));
+
+		String target = System.getProperty("target");
+		EmbeddedRpServer server = target == null ? startServer() : null;
+		try {
+			drive(server == null ? target : server.getBaseUrl(), endpoints, rate, seconds);
+			if (server != null) {
+				System.out.println("stub Connect server: " + StubConnectServer.summary());
+			}
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+
+	/**
+	 * Starts the RP server on an embedded Jetty, with StubConnectServer in
+	 * place of the Connect client unless -DconnectClient.builder says otherwise
+	 */
+	static EmbeddedRpServer startServer() throws Exception {
+
+		if (System.getProperty("connectClient.builder") == null) {
+			System.setProperty("connectClient.builder", StubConnectServer.class.getName());
+		}
+		EmbeddedRpServer server = new EmbeddedRpServer(new File(System.getProperty("webapp", "src/main/webapp")), 0,
+				Integer.getInteger("serverThreads", 200));
+		System.out.println(String.format("Embedded RP server at %s, stub Connect latency %s errorRate %s exceptionRate %s",
+				server.getBaseUrl(), System.getProperty("stub.latency", "lognormal:80:400"),
+				System.getProperty("stub.errorRate", "0"), System.getProperty("stub.exceptionRate", "0")));
+		return server;
+	}
+
+	/**
+	 * Warms the server up, then offers rate requests per second for seconds
+	 * and prints the results per endpoint
+	 */
+	static void drive(String target, List<Endpoint> endpoints, int rate, int seconds) throws Exception {
+
+		int clients = Integer.getInteger("clients", 200);
+		int warmupSeconds = Integer.getInteger("warmupSeconds", 5);
+
+		PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+		connections.setMaxTotal(clients);
+		connections.setDefaultMaxPerRoute(clients);
+		RequestConfig timeouts = RequestConfig.custom().setConnectTimeout(5000).setSocketTimeout(60000).build();
+		CloseableHttpClient http = HttpClients.custom().setConnectionManager(connections)
+				.setDefaultRequestConfig(timeouts).build();
+		ExecutorService senders = Executors.newFixedThreadPool(clients);
+
+		try {
+			LoadRun runner = new LoadRun(http, senders, target, endpoints, Integer.getInteger("users", 1000));
+			if (warmupSeconds > 0) {
+				System.out.println(String.format("Warming up at %d req/s for %ds", rate, warmupSeconds));
+				runner.run(rate, warmupSeconds);
+			}
+
+			System.out.println(String.format("Offering %d req/s for %ds with %d clients, java %s",
+					rate, seconds, clients, System.getProperty("java.version")));
+			double elapsedSeconds = runner.run(rate, seconds);
+
+			int completed = 0;
+			int failed = 0;
+			for (Endpoint endpoint : endpoints) {
+				completed += endpoint.latencies.getCount();
+				failed += endpoint.failed.get();
+				System.out.println(String.format("%-40s: completed=%d failed=%d errorResponses=%d throughput=%.0f req/s %s",
+						endpoint.path, endpoint.latencies.getCount(), endpoint.failed.get(), endpoint.errorResponses.get(),
+						endpoint.latencies.getCount() / elapsedSeconds, endpoint.latencies.summary()));
+			}
+			System.out.println(String.format("%-40s: completed=%d failed=%d throughput=%.0f req/s", "total",
+					completed, failed, completed / elapsedSeconds));
+		} finally {
+			senders.shutdownNow();
+			http.close();
+		}
+	}
+
+	/**
+	 * One endpoint of the request mix with its results
+	 */
+	static class Endpoint {
+
+		final String path;
+
+		final int weight;
+
+		volatile LatencyRecorder latencies;
+
+		final AtomicInteger failed = new AtomicInteger();
+
+		final AtomicInteger errorResponses = new AtomicInteger();
+
+		Endpoint(String path, int weight) {
+			this.path = path;
+			this.weight = weight;
+		}
+
+		void reset(int capacity) {
+			latencies = new LatencyRecorder(capacity);
+			failed.set(0);
+			errorResponses.set(0);
+		}
+
+		static List<Endpoint> parseMix(String mix) {
+
+			List<Endpoint> endpoints = new ArrayList<Endpoint>();
+			for (String entry : mix.split(",")) {
+				String[] parts = entry.trim().split("=");
+				endpoints.add(new Endpoint(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 1));
+			}
+			return endpoints;
+		}
+	}
+
+	/**
+	 * Open-loop request generator over a fixed request mix
+	 */
+	static class LoadRun {
+
+		private final CloseableHttpClient http;
+
+		private final ExecutorService senders;
+
+		private final String baseUrl;
+
+		private final List<Endpoint> endpoints;
+
+		private final int users;
+
+		private final int totalWeight;
+
+		LoadRun(CloseableHttpClient http, ExecutorService senders, String baseUrl, List<Endpoint> endpoints, int users) {
+			this.http = http;
+			this.senders = senders;
+			this.baseUrl = baseUrl;
+			this.endpoints = endpoints;
+			this.users = users;
+			int weight = 0;
+			for (Endpoint endpoint : endpoints) {
+				weight += endpoint.weight;
+			}
+			this.totalWeight = weight;
+		}
+
+		/**
+		 * @return seconds from the first request to the last response
+		 */
+		double run(int rate, int seconds) throws InterruptedException {
+
+			final int total = rate * seconds;
+			for (Endpoint endpoint : endpoints) {
+				endpoint.reset(total);
+			}
+			final AtomicInteger submitted = new AtomicInteger();
+			final AtomicInteger finished = new AtomicInteger();
+			final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+			final long start = System.nanoTime();
+
+			ScheduledExecutorService generator = Executors.newSingleThreadScheduledExecutor();
+			generator.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					long due = Math.min(total, (System.nanoTime() - start) / intervalNanos + 1);
+					while (submitted.get() < due) {
+						final long intendedStart = start + submitted.getAndIncrement() * intervalNanos;
+						final Endpoint endpoint = pick();
+						senders.execute(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									send(endpoint, intendedStart);
+								} finally {
+									finished.incrementAndGet();
+								}
+							}
+						});
+					}
+				}
+			}, 0, 1, TimeUnit.MILLISECONDS);
+
+			while (submitted.get() < total) {
+				TimeUnit.MILLISECONDS.sleep(50);
+			}
+			generator.shutdown();
+
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(120);
+			while (finished.get() < total && System.nanoTime() < deadline) {
+				TimeUnit.MILLISECONDS.sleep(10);
+			}
+			return (System.nanoTime() - start) / 1e9;
+		}
+
+		private Endpoint pick() {
+
+			int ticket = ThreadLocalRandom.current().nextInt(totalWeight);
+			for (Endpoint endpoint : endpoints) {
+				ticket -= endpoint.weight;
+				if (ticket < 0) {
+					return endpoint;
+				}
+			}
+			return endpoints.get(endpoints.size() - 1);
+		}
+
+		private void send(Endpoint endpoint, long intendedStart) {
+
+			// extra parameters are ignored by endpoints that don't take them
+			HttpGet request = new HttpGet(baseUrl + "/forms/" + endpoint.path + "?txnId=" + UUID.randomUUID()
+					+ "&userId=load-" + ThreadLocalRandom.current().nextInt(users));
+			try {
+				CloseableHttpResponse response = http.execute(request);
+				try {
+					String body = EntityUtils.toString(response.getEntity());
+					if (response.getStatusLine().getStatusCode() != 200) {
+						endpoint.failed.incrementAndGet();
+						return;
+					}
+					if (body.contains("\"error\":\"") || body.startsWith("ERROR")) {
+						endpoint.errorResponses.incrementAndGet();
+					}
+					endpoint.latencies.record(System.nanoTime() - intendedStart);
+				} finally {
+					response.close();
+				}
+			} catch (IOException e) {
+				endpoint.failed.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.securekey.samplerp.concurrent.ConnectExecutorFactoryBean;
+import com.securekey.samplerp.concurrent.VirtualThreadTaskExecutor;
+
+/**
+ * Compares platform and virtual thread modes of the connect executor end to
+ * end.
+ * <br/>
+ * For each mode the RP server is started on an embedded Jetty with
+ * connectExecutor.mode set and StubConnectServer in place of the Connect
+ * client, then {@link EndpointLoadTest} drives the async endpoints, whose
+ * blocking Connect calls run on connectExecutor, through the same
+ * interceptors and servlet stack as a deployment.
+ * <br/>
+ * Usage: ExecutorModeComparison [requestsPerSecond] [seconds] [stubLatencyMillis]
+ * <br/>
+ * stubLatencyMillis sets a fixed stub.latency unless -Dstub.latency is
+ * given. Executor sizes come from system.properties, the other options are
+ * those of EndpointLoadTest, -Dmix defaults to the async endpoints below.
+ */
+public class ExecutorModeComparison {
+
+	private static final String DEFAULT_MIX = "async/getDeviceId.json=30,async/verifyQuickcode.json=30,"
+			+ "async/getPairingCode.json=20,async/initMobileQuickcode.json=10,async/getProvisioningAuthorizationCode.json=10";
+
+	public static void main(String[] args) throws Exception {
+
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		if (System.getProperty("stub.latency") == null) {
+			System.setProperty("stub.latency", "fixed:" + (args.length > 2 ? Long.parseLong(args[2]) : 100));
+		}
+		String mix = System.getProperty("mix", DEFAULT_MIX);
+
+		for (String mode : new String[] {ConnectExecutorFactoryBean.MODE_PLATFORM, ConnectExecutorFactoryBean.MODE_VIRTUAL}) {
+			if (ConnectExecutorFactoryBean.MODE_VIRTUAL.equals(mode) && !VirtualThreadTaskExecutor.isSupported()) {
+				System.out.println("virtual : skipped, requires Java 21");
+				continue;
+			}
+			System.out.println("connectExecutor.mode=" + mode);
+			run(mode, rate, seconds, mix);
+		}
+	}
+
+	private static void run(String mode, int rate, int seconds, String mix) throws Exception {
+
+		// read by the webapp's Spring contexts ahead of system.properties
+		System.setProperty("connectExecutor.mode", mode);
+		EmbeddedRpServer server = EndpointLoadTest.startServer();
+		try {
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			threads.resetPeakThreadCount();
+			EndpointLoadTest.drive(server.getBaseUrl(), EndpointLoadTest.Endpoint.parseMix(mix), rate, seconds);
+			System.out.println(String.format("%-8s: peakThreads=%d stub Connect server: %s",
+					mode, threads.getPeakThreadCount(), StubConnectServer.summary()));
+		} finally {
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.loadtest;
+
+import java.util.Random;
+
+/**
+ * Latency of a stubbed backend call, parsed from a specification in
+ * milliseconds:
+ * <ul>
+ * <li>fixed:100</li>
+ * <li>uniform:50:150</li>
+ * <li>exponential:80 (mean)</li>
+ * <li>lognormal:80:400 (median and 99th percentile, the usual long tail of
+ * a remote service)</li>
+ * </ul>
+ */
+public final class LatencyDistribution {
+
+	/** Standard normal quantile of the 99th percentile */
+	private static final double Z99 = 2.3263;
+
+	private final String spec;
+
+	private final String kind;
+
+	private final double a;
+
+	private final double b;
+
+	private LatencyDistribution(String spec, String kind, double a, double b) {
+		this.spec = spec;
+		this.kind = kind;
+		this.a = a;
+		this.b = b;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if spec is not one of the supported forms
+	 */
+	public static LatencyDistribution parse(String spec) {
+
+		String[] parts = spec.trim().split(":");
+		try {
+			if ("fixed".equals(parts[0]) && parts.length == 2) {
+				return new LatencyDistribution(spec, parts[0], Double.parseDouble(parts[1]), 0);
+			}
+			if ("exponential".equals(parts[0]) && parts.length == 2) {
+				return new LatencyDistribution(spec, parts[0], Double.parseDouble(parts[1]), 0);
+			}
+			if ("uniform".equals(parts[0]) && parts.length == 3) {
+				return new LatencyDistribution(spec, parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+			}
+			if ("lognormal".equals(parts[0]) && parts.length == 3) {
+				double median = Double.parseDouble(parts[1]);
+				double p99 = Double.parseDouble(parts[2]);
+				if (median <= 0 || p99 < median) {
+					throw new IllegalArgumentException("lognormal needs 0 < median <= p99: " + spec);
+				}
+				return new LatencyDistribution(spec, parts[0], Math.log(median), Math.log(p99 / median) / Z99);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid latency " + spec, e);
+		}
+		throw new IllegalArgumentException("Invalid latency " + spec
+				+ ", expected fixed:ms, uniform:min:max, exponential:mean or lognormal:median:p99");
+	}
+
+	/**
+	 * @return next latency in microseconds
+	 */
+	public long nextMicros(Random random) {
+
+		double millis;
+		if ("uniform".equals(kind)) {
+			millis = a + random.nextDouble() * (b - a);
+		} else if ("exponential".equals(kind)) {
+			millis = -a * Math.log(1 - random.nextDouble());
+		} else if ("lognormal".equals(kind)) {
+			millis = Math.exp(a + b * random.nextGaussian());
+		} else {
+			millis = a;
+		}
+		return Math.max(0, (long) (millis * 1000));
+	}
+
+	@Override
+	public String toString() {
+		return spec;
+	}
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects per request latencies of a single load test run
+ */
+public class LatencyRecorder {
+
+	private final long[] latenciesMicros;
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	public LatencyRecorder(int capacity) {
+		this.latenciesMicros = new long[capacity];
+	}
+
+	public void record(long latencyNanos) {
+		int index = count.getAndIncrement();
+		if (index < latenciesMicros.length) {
+			latenciesMicros[index] = latencyNanos / 1000;
+		}
+	}
+
+	public int getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return formatted p50, p90, p99, p99.9 and max latency in milliseconds
+	 */
+	public String summary() {
+
+		int n = Math.min(count.get(), latenciesMicros.length);
+		if (n == 0) {
+			return "no samples";
+		}
+		long[] sorted = Arrays.copyOf(latenciesMicros, n);
+		Arrays.sort(sorted);
+		return String.format("p50=%.1fms p90=%.1fms p99=%.1fms p99.9=%.1fms max=%.1fms",
+				percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+				percentile(sorted, 99.9), sorted[n - 1] / 1000.0);
+	}
+
+	private static double percentile(long[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1000.0;
+	}
+}
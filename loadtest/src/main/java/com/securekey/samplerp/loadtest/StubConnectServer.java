@@ -0,0 +1,135 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.loadtest;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import com.securekey.connect.core.ConnectClient;
+import com.securekey.samplerp.service.ConnectClientBuilder;
+import com.securekey.samplerp.service.interceptor.ErrorResponses;
+
+/**
+ * In-process stand-in for the briidge.Net Connect server.
+ * <br/>
+ * The Connect wire protocol is private to connect-client, so the stub takes
+ * over at the ConnectClient level: select it with
+ * connectClient.builder=com.securekey.samplerp.loadtest.StubConnectServer
+ * and every Connect call blocks the calling thread for a sampled latency,
+ * then answers with a successful response (txnId, deviceInfo, pairCode
+ * filled in), a briidge.Net error response or an IOException. Everything
+ * above the client (briidgeService interceptors, controllers, servlet
+ * stack) runs unchanged.
+ * <br/>
+ * Configured with JVM system properties:
+ * <ul>
+ * <li>stub.latency - LatencyDistribution of every call, default lognormal:80:400</li>
+ * <li>stub.latency.&lt;operation&gt; - per ConnectClient method, e.g. stub.latency.getVerifyPassCodeData</li>
+ * <li>stub.errorRate - fraction of calls answered with error set, default 0</li>
+ * <li>stub.error - error code of those responses, default stub_error</li>
+ * <li>stub.exceptionRate - fraction of calls failing with an IOException, default 0</li>
+ * <li>stub.unknownTxnId - transaction id answered with unknown_txn, default
+ * warmup, the made up id of the warm-up and client validation calls</li>
+ * </ul>
+ */
+public class StubConnectServer implements ConnectClientBuilder {
+
+	private static final AtomicLong calls = new AtomicLong();
+
+	private static final AtomicLong errors = new AtomicLong();
+
+	private static final AtomicLong exceptions = new AtomicLong();
+
+	@Override
+	public ConnectClient build(String configFile) {
+
+		final LatencyDistribution latency = LatencyDistribution.parse(System.getProperty("stub.latency", "lognormal:80:400"));
+		final double errorRate = Double.parseDouble(System.getProperty("stub.errorRate", "0"));
+		final double exceptionRate = Double.parseDouble(System.getProperty("stub.exceptionRate", "0"));
+		final String error = System.getProperty("stub.error", "stub_error");
+		final String unknownTxnId = System.getProperty("stub.unknownTxnId", "warmup");
+		final Map<String, LatencyDistribution> latencies = new ConcurrentHashMap<String, LatencyDistribution>();
+
+		for (Method method : ConnectClient.class.getMethods()) {
+			String spec = System.getProperty("stub.latency." + method.getName());
+			latencies.put(method.getName(), spec == null ? latency : LatencyDistribution.parse(spec));
+		}
+
+		return (ConnectClient) Proxy.newProxyInstance(ConnectClient.class.getClassLoader(),
+				new Class<?>[] {ConnectClient.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getDeclaringClass() == Object.class) {
+							return method.invoke(this, args);
+						}
+						calls.incrementAndGet();
+						Random random = ThreadLocalRandom.current();
+						TimeUnit.MICROSECONDS.sleep(latencies.get(method.getName()).nextMicros(random));
+
+						double outcome = random.nextDouble();
+						if (outcome < exceptionRate) {
+							exceptions.incrementAndGet();
+							throw new IOException("Stub Connect server injected failure of " + method.getName());
+						}
+						if (outcome < exceptionRate + errorRate) {
+							errors.incrementAndGet();
+							return ErrorResponses.create(method.getReturnType(), error, "Injected by the stub Connect server");
+						}
+						if (args != null && args.length > 0 && args[0] != null && PropertyUtils.isReadable(args[0], "txnId")
+								&& unknownTxnId.equals(PropertyUtils.getProperty(args[0], "txnId"))) {
+							return ErrorResponses.create(method.getReturnType(), "unknown_txn", "Unknown transaction");
+						}
+						return success(method.getReturnType());
+					}
+				});
+	}
+
+	/**
+	 * @return calls served, injected errors and injected exceptions
+	 */
+	public static String summary() {
+		return String.format("calls=%d errors=%d exceptions=%d", calls.get(), errors.get(), exceptions.get());
+	}
+
+	/**
+	 * Properties the response type doesn't have are skipped by BeanUtils
+	 */
+	private static Object success(Class<?> type) throws Exception {
+
+		Object response = type.newInstance();
+		BeanUtils.setProperty(response, "txnId", UUID.randomUUID().toString());
+		BeanUtils.setProperty(response, "pairCode", String.valueOf(10000000 + ThreadLocalRandom.current().nextInt(90000000)));
+		BeanUtils.setProperty(response, "verifiedQuickCode", Boolean.TRUE);
+		if (PropertyUtils.isWriteable(response, "deviceInfo")) {
+			Object deviceInfo = PropertyUtils.getPropertyType(response, "deviceInfo").newInstance();
+			BeanUtils.setProperty(deviceInfo, "deviceId", Long.toHexString(ThreadLocalRandom.current().nextLong()));
+			PropertyUtils.setProperty(response, "deviceInfo", deviceInfo);
+		}
+		return response;
+	}
+}
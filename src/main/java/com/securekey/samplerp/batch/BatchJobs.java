@@ -0,0 +1,145 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.securekey.samplerp.util.LruMap;
+
+/**
+ * Creates, runs and keeps track of batch jobs: running jobs and the most
+ * recently finished ones can be listed with their live progress. Only one
+ * run of a given job id may be active at a time, as runs share the
+ * checkpoint.
+ */
+@Component("batchJobs")
+public class BatchJobs {
+
+	@Value("#{system['batch.checkpointDir'] ?: systemProperties['java.io.tmpdir'] + '/samplerp-batch'}")
+	private File checkpointDir;
+
+	@Value("#{system['batch.checkpointIntervalMillis'] ?: 1000}")
+	private long checkpointIntervalMillis;
+
+	@Value("#{system['batch.retry.maxAttempts'] ?: 3}")
+	private int maxAttempts;
+
+	@Value("#{system['batch.retry.backoffMillis'] ?: 500}")
+	private long retryBackoffMillis;
+
+	@Value("#{system['batch.retry.circuitOpenBackoffMillis'] ?: system['circuitBreaker.openMillis'] ?: 30000}")
+	private long circuitOpenBackoffMillis;
+
+	@Value("#{system['batch.keepFinishedJobs'] ?: 50}")
+	private int keepFinishedJobs;
+
+	private final Map<String, BatchRunner<?>> running = new LinkedHashMap<String, BatchRunner<?>>();
+
+	private Map<String, BatchRunner<?>> finished;
+
+	@PostConstruct
+	public void init() {
+		finished = new LruMap<String, BatchRunner<?>>(keepFinishedJobs);
+	}
+
+	/**
+	 * @param jobId job identifier
+	 * @param parallelism records processed concurrently
+	 * @param maxInFlight records read ahead of completion
+	 * @param ratePerSecond ceiling on record attempts per second, 0 for none
+	 * 
+	 * @return runner retrying transient failures as configured
+	 */
+	public <R> BatchRunner<R> newRunner(String jobId, int parallelism, int maxInFlight, double ratePerSecond) {
+
+		BatchRunner<R> runner = new BatchRunner<R>(jobId, parallelism, maxInFlight);
+		runner.setMaxAttempts(maxAttempts);
+		runner.setRetryBackoffMillis(retryBackoffMillis);
+		runner.setCircuitOpenBackoffMillis(circuitOpenBackoffMillis);
+		if (ratePerSecond > 0) {
+			runner.setRateLimiter(new RateLimiter(ratePerSecond));
+		}
+		return runner;
+	}
+
+	/**
+	 * @param jobId job identifier, letters, digits, '_', '-' and '.' only
+	 * 
+	 * @return checkpoint of the job, empty for a new job
+	 * 
+	 * @throws IOException if an existing checkpoint can't be read
+	 */
+	public Checkpoint checkpoint(String jobId) throws IOException {
+		return new Checkpoint(checkpointDir, jobId, checkpointIntervalMillis);
+	}
+
+	/**
+	 * Runs the job, its summary is written to the sink as the last line.
+	 * 
+	 * @return job summary
+	 * 
+	 * @throws JobRunningException if a job with the same id is running
+	 * @throws IOException see {@link BatchRunner#run}
+	 * @throws InterruptedException see {@link BatchRunner#run}
+	 */
+	public <R> Map<String, Object> run(BatchRunner<R> runner, RecordReader<R> reader, RecordHandler<R> handler,
+			Checkpoint checkpoint, NdjsonResultSink sink) throws IOException, InterruptedException {
+
+		synchronized (this) {
+			if (running.containsKey(runner.getJobId())) {
+				throw new JobRunningException("Batch job " + runner.getJobId() + " is already running");
+			}
+			running.put(runner.getJobId(), runner);
+		}
+		try {
+			Map<String, Object> summary = runner.run(reader, handler, checkpoint, sink);
+			sink.write(Collections.<String, Object>singletonMap("summary", summary));
+			sink.flush();
+			return summary;
+		} finally {
+			synchronized (this) {
+				running.remove(runner.getJobId());
+				finished.put(runner.getJobId(), runner);
+			}
+		}
+	}
+
+	/**
+	 * @return progress of running jobs followed by recently finished ones
+	 */
+	public synchronized List<Map<String, Object>> getProgress() {
+
+		List<Map<String, Object>> progress = new ArrayList<Map<String, Object>>();
+		for (BatchRunner<?> runner : running.values()) {
+			progress.add(runner.getProgress());
+		}
+		for (BatchRunner<?> runner : finished.values()) {
+			progress.add(runner.getProgress());
+		}
+		return progress;
+	}
+}
@@ -0,0 +1,59 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+/**
+ * One input record of a batch job, numbered by its position in the input
+ * (blank lines and headers aside) so a resumed job can skip the records it
+ * already completed.
+ */
+public class BatchRecord<R> {
+
+	private final long number;
+
+	private final R value;
+
+	private final String invalidReason;
+
+	private BatchRecord(long number, R value, String invalidReason) {
+		this.number = number;
+		this.value = value;
+		this.invalidReason = invalidReason;
+	}
+
+	public static <R> BatchRecord<R> valid(long number, R value) {
+		return new BatchRecord<R>(number, value, null);
+	}
+
+	public static <R> BatchRecord<R> invalid(long number, String invalidReason) {
+		return new BatchRecord<R>(number, null, invalidReason);
+	}
+
+	public long getNumber() {
+		return number;
+	}
+
+	public R getValue() {
+		return value;
+	}
+
+	/**
+	 * @return why the input line could not be parsed, null for valid records
+	 */
+	public String getInvalidReason() {
+		return invalidReason;
+	}
+}
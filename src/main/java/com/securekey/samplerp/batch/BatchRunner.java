@@ -0,0 +1,380 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.service.interceptor.BulkheadInterceptor;
+import com.securekey.samplerp.service.interceptor.ErrorResponses;
+import com.securekey.samplerp.tenant.TenantContext;
+
+/**
+ * Runs a streamed batch job: records are read one at a time and processed
+ * by parallelism worker threads. Reading blocks while maxInFlight records
+ * are read but not yet completed, so memory use doesn't depend on the input
+ * size and a slow backend slows the reader down.
+ * <br/>
+ * Every attempt to process a record first takes a permit from the optional
+ * {@link RateLimiter}. Attempts that throw or end with a locally generated
+ * error (open circuit, timeout, busy, see {@link ErrorResponses}) are
+ * transient and retried with exponential backoff, up to maxAttempts. An
+ * open circuit is waited out (circuitOpenBackoffMillis) before retrying, as
+ * quicker retries would all be short circuited too. Errors set with
+ * {@link #setNotRetriedErrors} are left alone, e.g. a timed out call that
+ * may have gone through and must not be repeated.
+ * <br/>
+ * Results go to the {@link ResultSink} as records complete, the
+ * {@link Checkpoint} advances only past records whose result was written.
+ * A failing sink (e.g. a client gone away) stops the job, it can be resumed
+ * from its checkpoint.
+ */
+public class BatchRunner<R> {
+
+	public static final String STATUS_OK = "ok";
+
+	public static final String STATUS_ERROR = "error";
+
+	public static final String STATUS_INVALID = "invalid";
+
+	public static final String STATUS_SKIPPED = "skipped";
+
+	public static final String STATE_RUNNING = "running";
+
+	public static final String STATE_COMPLETED = "completed";
+
+	public static final String STATE_FAILED = "failed";
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private final String jobId;
+
+	private final int parallelism;
+
+	private final int maxInFlight;
+
+	private RateLimiter rateLimiter;
+
+	private int maxAttempts = 1;
+
+	private long retryBackoffMillis = 500;
+
+	private long circuitOpenBackoffMillis = 30000;
+
+	private Set<String> notRetriedErrors = Collections.emptySet();
+
+	private final AtomicLong succeeded = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	private final AtomicLong invalid = new AtomicLong();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	private final AtomicLong retries = new AtomicLong();
+
+	private final AtomicLong inFlightRecords = new AtomicLong();
+
+	private final RateMeter completedRate = new RateMeter();
+
+	private volatile String state = STATE_RUNNING;
+
+	private volatile long startedAt = System.currentTimeMillis();
+
+	private volatile long endedAt;
+
+	/**
+	 * @param jobId job identifier, used in logs and thread names
+	 * @param parallelism records processed concurrently
+	 * @param maxInFlight records read ahead of completion, at least parallelism
+	 */
+	public BatchRunner(String jobId, int parallelism, int maxInFlight) {
+		this.jobId = jobId;
+		this.parallelism = parallelism;
+		this.maxInFlight = Math.max(parallelism, maxInFlight);
+	}
+
+	/**
+	 * @param reader job input
+	 * @param handler processes each record
+	 * @param checkpoint job progress, records it covers are skipped
+	 * @param sink receives each record's result
+	 * 
+	 * @return job summary, see {@link #getProgress()}
+	 * 
+	 * @throws IOException if reading the input, writing a result or saving
+	 *      the checkpoint fails
+	 * @throws InterruptedException if interrupted while waiting for
+	 *      records to complete
+	 */
+	public Map<String, Object> run(RecordReader<R> reader, final RecordHandler<R> handler,
+			final Checkpoint checkpoint, final ResultSink sink) throws IOException, InterruptedException {
+
+		startedAt = System.currentTimeMillis();
+		long resumeAfter = checkpoint.getCompletedUpTo();
+		if (resumeAfter > 0) {
+			log.info("Batch job {} resuming after record {}", jobId, resumeAfter);
+		}
+
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+		final AtomicReference<IOException> sinkFailure = new AtomicReference<IOException>();
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new CustomizableThreadFactory("batch-" + jobId + "-"));
+		boolean completed = false;
+		try {
+			BatchRecord<R> record;
+			while (sinkFailure.get() == null && (record = reader.next()) != null) {
+				if (record.getNumber() <= resumeAfter) {
+					skipped.incrementAndGet();
+					continue;
+				}
+				inFlight.acquire();
+				inFlightRecords.incrementAndGet();
+				final BatchRecord<R> current = record;
+				workers.execute(BulkheadInterceptor.batch(TenantContext.wrap(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							Map<String, Object> result = process(current, handler);
+							sink.write(result);
+							checkpoint.completed(current.getNumber());
+						} catch (IOException e) {
+							sinkFailure.compareAndSet(null, e);
+						} catch (RuntimeException e) {
+							sinkFailure.compareAndSet(null, new IOException(e));
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							inFlightRecords.decrementAndGet();
+							inFlight.release();
+						}
+					}
+				})));
+			}
+			completed = sinkFailure.get() == null;
+		} finally {
+			workers.shutdown();
+			while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+				log.info("Batch job {} waiting for {} records in flight", jobId, inFlightRecords.get());
+			}
+			checkpoint.save();
+			endedAt = System.currentTimeMillis();
+			state = completed ? STATE_COMPLETED : STATE_FAILED;
+		}
+		if (sinkFailure.get() != null) {
+			log.warn("Batch job {} stopped after record {}: {}", jobId, checkpoint.getCompletedUpTo(),
+					sinkFailure.get().toString());
+			throw sinkFailure.get();
+		}
+		Map<String, Object> summary = getProgress();
+		summary.put("completedUpTo", checkpoint.getCompletedUpTo());
+		log.info("Batch job {} finished: {}", jobId, summary);
+		return summary;
+	}
+
+	private Map<String, Object> process(BatchRecord<R> record, RecordHandler<R> handler) throws InterruptedException {
+
+		Map<String, Object> result;
+		if (record.getInvalidReason() != null) {
+			result = new LinkedHashMap<String, Object>();
+			result.put("status", STATUS_INVALID);
+			result.put("errorDescription", record.getInvalidReason());
+			invalid.incrementAndGet();
+		} else {
+			int attempt = 0;
+			while (true) {
+				attempt++;
+				if (rateLimiter != null) {
+					rateLimiter.acquire();
+				}
+				boolean retryable;
+				String error = null;
+				try {
+					result = handler.process(record.getValue());
+					error = (String) result.get("error");
+					retryable = ErrorResponses.isLocal(error) && !notRetriedErrors.contains(error);
+				} catch (Exception e) {
+					log.debug("Batch job {} record {} attempt {} failed", jobId, record.getNumber(), attempt, e);
+					result = new LinkedHashMap<String, Object>();
+					result.put("status", STATUS_ERROR);
+					result.put("errorDescription", e.toString());
+					retryable = true;
+				}
+				if (!retryable || attempt >= maxAttempts) {
+					break;
+				}
+				retries.incrementAndGet();
+				Thread.sleep(ErrorResponses.CIRCUIT_OPEN.equals(error)
+						? circuitOpenBackoffMillis : retryBackoffMillis << Math.min(attempt - 1, 10));
+			}
+			if (attempt > 1) {
+				result.put("attempts", attempt);
+			}
+			Object status = result.get("status");
+			(STATUS_OK.equals(status) ? succeeded : STATUS_SKIPPED.equals(status) ? skipped : failed).incrementAndGet();
+		}
+		completedRate.mark();
+
+		Map<String, Object> numbered = new LinkedHashMap<String, Object>();
+		numbered.put("record", record.getNumber());
+		numbered.putAll(result);
+		return numbered;
+	}
+
+	/**
+	 * Adds status, and error details if any, of a briidge.Net response to a
+	 * record result.
+	 */
+	public static Map<String, Object> putOutcome(Map<String, Object> result, Response response) {
+
+		if (response.getError() == null) {
+			result.put("status", STATUS_OK);
+		} else {
+			result.put("status", STATUS_ERROR);
+			result.put("error", response.getError());
+			result.put("errorDescription", response.getErrorDescription());
+		}
+		return result;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	/**
+	 * @return state, counts of records processed so far, retries, overall
+	 *      and recent (last {@link RateMeter#SECONDS} seconds) throughput
+	 */
+	public Map<String, Object> getProgress() {
+
+		long elapsedMillis = (endedAt == 0 ? System.currentTimeMillis() : endedAt) - startedAt;
+		long processed = succeeded.get() + failed.get() + invalid.get();
+
+		Map<String, Object> progress = new LinkedHashMap<String, Object>();
+		progress.put("jobId", jobId);
+		progress.put("state", state);
+		progress.put("processed", processed);
+		progress.put("succeeded", succeeded.get());
+		progress.put("failed", failed.get());
+		progress.put("invalid", invalid.get());
+		progress.put("skipped", skipped.get());
+		progress.put("retries", retries.get());
+		progress.put("inFlight", inFlightRecords.get());
+		progress.put("recordsPerSecond", elapsedMillis == 0 ? 0d : processed * 1000d / elapsedMillis);
+		if (endedAt == 0) {
+			progress.put("recentRecordsPerSecond", completedRate.perSecond());
+		}
+		progress.put("elapsedMillis", elapsedMillis);
+		return progress;
+	}
+
+	/**
+	 * @param rateLimiter limits attempts per second, null for no limit
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * @param maxAttempts attempts per record including the first, transient
+	 *      failures are retried until this is reached
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	/**
+	 * @param retryBackoffMillis wait before the first retry, doubled for
+	 *      each further retry
+	 */
+	public void setRetryBackoffMillis(long retryBackoffMillis) {
+		this.retryBackoffMillis = retryBackoffMillis;
+	}
+
+	/**
+	 * @param circuitOpenBackoffMillis wait before retrying a call refused by
+	 *      an open circuit, typically the circuit's open time
+	 */
+	public void setCircuitOpenBackoffMillis(long circuitOpenBackoffMillis) {
+		this.circuitOpenBackoffMillis = circuitOpenBackoffMillis;
+	}
+
+	/**
+	 * @param errors locally generated errors not to retry, because the call
+	 *      may have taken effect, e.g. {@link ErrorResponses#TIMEOUT}
+	 */
+	public void setNotRetriedErrors(String... errors) {
+		this.notRetriedErrors = new HashSet<String>(Arrays.asList(errors));
+	}
+
+	/**
+	 * Counts events in one second buckets over a sliding window of the last
+	 * {@link #SECONDS} complete seconds (fewer right after the first event).
+	 */
+	static final class RateMeter {
+
+		static final int SECONDS = 10;
+
+		private final long[] second = new long[SECONDS + 1];
+
+		private final long[] count = new long[SECONDS + 1];
+
+		private long firstSecond;
+
+		synchronized void mark() {
+
+			long now = System.currentTimeMillis() / 1000;
+			if (firstSecond == 0) {
+				firstSecond = now;
+			}
+			int bucket = (int) (now % second.length);
+			if (second[bucket] != now) {
+				second[bucket] = now;
+				count[bucket] = 0;
+			}
+			count[bucket]++;
+		}
+
+		synchronized double perSecond() {
+
+			long now = System.currentTimeMillis() / 1000;
+			long total = 0;
+			for (int i = 0; i < second.length; i++) {
+				if (second[i] >= now - SECONDS && second[i] < now) {
+					total += count[i];
+				}
+			}
+			long seconds = Math.min(SECONDS, now - firstSecond);
+			return seconds <= 0 ? 0d : (double) total / seconds;
+		}
+	}
+}
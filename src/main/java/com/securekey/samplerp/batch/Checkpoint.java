@@ -0,0 +1,106 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Progress of a batch job persisted to a file: the highest record number
+ * up to which every record has completed. Records complete out of order,
+ * later ones are held until the gap below them closes. A job restarted
+ * after a crash skips every record up to the saved number; records
+ * completed past it are processed again.
+ * <br/>
+ * The file is replaced atomically, at most every saveIntervalMillis while
+ * the job runs and once when it ends.
+ */
+public class Checkpoint {
+
+	private static final Pattern JOB_ID = Pattern.compile("[A-Za-z0-9_.-]{1,100}");
+
+	private final File file;
+
+	private final long saveIntervalMillis;
+
+	private long completedUpTo;
+
+	private final TreeSet<Long> completedAhead = new TreeSet<Long>();
+
+	private long lastSaved;
+
+	/**
+	 * @param directory directory holding checkpoint files
+	 * @param jobId job identifier, letters, digits, '_', '-' and '.' only
+	 * @param saveIntervalMillis minimum interval between saves while running
+	 * 
+	 * @throws IOException if an existing checkpoint can't be read
+	 */
+	public Checkpoint(File directory, String jobId, long saveIntervalMillis) throws IOException {
+
+		if (!isValidJobId(jobId)) {
+			throw new IllegalArgumentException("Invalid job id " + jobId);
+		}
+		this.file = new File(directory, jobId + ".checkpoint");
+		this.saveIntervalMillis = saveIntervalMillis;
+		if (file.isFile()) {
+			completedUpTo = Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim());
+		}
+	}
+
+	public static boolean isValidJobId(String jobId) {
+		return jobId != null && JOB_ID.matcher(jobId).matches();
+	}
+
+	/**
+	 * @return records up to this number completed in an earlier run
+	 */
+	public synchronized long getCompletedUpTo() {
+		return completedUpTo;
+	}
+
+	public synchronized void completed(long record) throws IOException {
+
+		if (record == completedUpTo + 1) {
+			completedUpTo++;
+			while (!completedAhead.isEmpty() && completedAhead.first() == completedUpTo + 1) {
+				completedUpTo = completedAhead.pollFirst();
+			}
+		} else if (record > completedUpTo) {
+			completedAhead.add(record);
+		}
+		if (System.currentTimeMillis() - lastSaved >= saveIntervalMillis) {
+			save();
+		}
+	}
+
+	public synchronized void save() throws IOException {
+
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Can't create checkpoint directory " + parent);
+		}
+		File temp = new File(parent, file.getName() + ".tmp");
+		Files.write(temp.toPath(), Long.toString(completedUpTo).getBytes(StandardCharsets.UTF_8));
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		lastSaved = System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,62 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+/**
+ * Device operation record: verifyDevice, deverifyDevice, removeDevice or
+ * removeAllUserDevices for one user. deverify without a deviceId
+ * deverifies all devices of the user.
+ */
+public class DeviceRecord {
+
+	public static final String ACTION_VERIFY = "verify";
+
+	public static final String ACTION_DEVERIFY = "deverify";
+
+	public static final String ACTION_REMOVE = "remove";
+
+	public static final String ACTION_REMOVE_ALL = "removeAll";
+
+	private String userId;
+
+	private String deviceId;
+
+	private String action;
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public void setAction(String action) {
+		this.action = action;
+	}
+}
@@ -0,0 +1,68 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Reads {@link DeviceRecord}s. NDJSON lines use the record's property
+ * names, e.g. {"userId":"u1","deviceId":"d1","action":"deverify"}. CSV
+ * columns are userId,deviceId,action, e.g. u1,d1,remove or u1,,removeAll.
+ */
+public class DeviceRecordReader extends LineRecordReader<DeviceRecord> {
+
+	public DeviceRecordReader(InputStream in, String format) {
+		super(in, format, "userId");
+	}
+
+	@Override
+	protected DeviceRecord fromJson(String line) throws IOException {
+		return MAPPER.readValue(line, DeviceRecord.class);
+	}
+
+	@Override
+	protected DeviceRecord fromCsv(List<String> columns) {
+
+		if (columns.size() < 3) {
+			throw new IllegalArgumentException("Expected userId,deviceId,action");
+		}
+		DeviceRecord record = new DeviceRecord();
+		record.setUserId(columns.get(0).trim());
+		record.setDeviceId(isBlank(columns.get(1)) ? null : columns.get(1).trim());
+		record.setAction(columns.get(2).trim());
+		return record;
+	}
+
+	@Override
+	protected String validate(DeviceRecord record) {
+
+		if (isBlank(record.getUserId())) {
+			return "userId is required";
+		}
+		String action = record.getAction();
+		if (DeviceRecord.ACTION_VERIFY.equals(action) || DeviceRecord.ACTION_REMOVE.equals(action)) {
+			return isBlank(record.getDeviceId()) ? "deviceId is required for " + action : null;
+		}
+		if (DeviceRecord.ACTION_DEVERIFY.equals(action) || DeviceRecord.ACTION_REMOVE_ALL.equals(action)) {
+			return null;
+		}
+		return "Unknown action " + action;
+	}
+}
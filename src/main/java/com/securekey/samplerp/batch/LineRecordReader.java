@@ -0,0 +1,152 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads one record per line of NDJSON (a JSON object per line) or CSV
+ * input. Blank lines and a CSV header line (first column equal to
+ * csvHeader) don't count as records. Lines that don't parse become
+ * invalid records rather than failing the job.
+ */
+public abstract class LineRecordReader<R> implements RecordReader<R> {
+
+	public static final String FORMAT_NDJSON = "ndjson";
+
+	public static final String FORMAT_CSV = "csv";
+
+	protected static final ObjectMapper MAPPER = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private final BufferedReader in;
+
+	private final boolean csv;
+
+	private final String csvHeader;
+
+	private long number;
+
+	/**
+	 * @param in input, UTF-8
+	 * @param format {@link #FORMAT_NDJSON} or {@link #FORMAT_CSV}
+	 * @param csvHeader first column of an optional CSV header line
+	 */
+	protected LineRecordReader(InputStream in, String format, String csvHeader) {
+
+		if (!FORMAT_NDJSON.equals(format) && !FORMAT_CSV.equals(format)) {
+			throw new IllegalArgumentException("Unsupported format " + format);
+		}
+		this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		this.csv = FORMAT_CSV.equals(format);
+		this.csvHeader = csvHeader;
+	}
+
+	@Override
+	public BatchRecord<R> next() throws IOException {
+
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			if (csv) {
+				List<String> columns = splitCsv(line);
+				if (number == 0 && csvHeader.equalsIgnoreCase(columns.get(0).trim())) {
+					continue;
+				}
+				return parse(++number, columns);
+			}
+			return parse(++number, line);
+		}
+		return null;
+	}
+
+	private BatchRecord<R> parse(long record, String line) {
+
+		try {
+			return checked(record, fromJson(line));
+		} catch (Exception e) {
+			return BatchRecord.invalid(record, e.getMessage());
+		}
+	}
+
+	private BatchRecord<R> parse(long record, List<String> columns) {
+
+		try {
+			return checked(record, fromCsv(columns));
+		} catch (Exception e) {
+			return BatchRecord.invalid(record, e.getMessage());
+		}
+	}
+
+	private BatchRecord<R> checked(long record, R value) {
+
+		String invalidReason = validate(value);
+		return invalidReason == null ? BatchRecord.valid(record, value) : BatchRecord.<R>invalid(record, invalidReason);
+	}
+
+	protected abstract R fromJson(String line) throws IOException;
+
+	protected abstract R fromCsv(List<String> columns);
+
+	/**
+	 * @return why value can't be processed, null if it can
+	 */
+	protected abstract String validate(R value);
+
+	/**
+	 * Splits a CSV line on commas, double quoted columns may contain commas
+	 * and doubled quotes.
+	 */
+	static List<String> splitCsv(String line) {
+
+		List<String> columns = new ArrayList<String>();
+		StringBuilder column = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					column.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					column.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				columns.add(column.toString());
+				column.setLength(0);
+			} else {
+				column.append(c);
+			}
+		}
+		columns.add(column.toString());
+		return columns;
+	}
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes results as newline delimited JSON, flushing after every
+ * flushEvery results so clients see progress while the job runs.
+ */
+public class NdjsonResultSink implements ResultSink {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final OutputStream out;
+
+	private final int flushEvery;
+
+	private int unflushed;
+
+	public NdjsonResultSink(OutputStream out, int flushEvery) {
+		this.out = out;
+		this.flushEvery = flushEvery;
+	}
+
+	@Override
+	public synchronized void write(Map<String, Object> result) throws IOException {
+
+		out.write(MAPPER.writeValueAsBytes(result));
+		out.write('\n');
+		if (++unflushed >= flushEvery) {
+			flush();
+		}
+	}
+
+	public synchronized void flush() throws IOException {
+
+		unflushed = 0;
+		out.flush();
+	}
+}
@@ -0,0 +1,111 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+/**
+ * Settings of a pairing code campaign, passed on to every pairDevice call.
+ */
+public class PairingCampaign {
+
+	private String campaignId;
+
+	private int expiryMinutes = 7 * 24 * 60;
+
+	private String language;
+
+	private String context;
+
+	private Boolean verifyDevice = Boolean.TRUE;
+
+	private String notificationType;
+
+	private String notificationUrl;
+
+	private boolean addUsers = true;
+
+	public String getCampaignId() {
+		return campaignId;
+	}
+
+	public void setCampaignId(String campaignId) {
+		this.campaignId = campaignId;
+	}
+
+	/**
+	 * @return validity of the issued codes, one week by default
+	 */
+	public int getExpiryMinutes() {
+		return expiryMinutes;
+	}
+
+	public void setExpiryMinutes(int expiryMinutes) {
+		this.expiryMinutes = expiryMinutes;
+	}
+
+	public String getLanguage() {
+		return language;
+	}
+
+	public void setLanguage(String language) {
+		this.language = language;
+	}
+
+	public String getContext() {
+		return context;
+	}
+
+	public void setContext(String context) {
+		this.context = context;
+	}
+
+	public Boolean getVerifyDevice() {
+		return verifyDevice;
+	}
+
+	public void setVerifyDevice(Boolean verifyDevice) {
+		this.verifyDevice = verifyDevice;
+	}
+
+	/**
+	 * @return none, httpPost or notificationChannel
+	 */
+	public String getNotificationType() {
+		return notificationType;
+	}
+
+	public void setNotificationType(String notificationType) {
+		this.notificationType = notificationType;
+	}
+
+	public String getNotificationUrl() {
+		return notificationUrl;
+	}
+
+	public void setNotificationUrl(String notificationUrl) {
+		this.notificationUrl = notificationUrl;
+	}
+
+	/**
+	 * @return whether users not known to be registered are added first
+	 */
+	public boolean isAddUsers() {
+		return addUsers;
+	}
+
+	public void setAddUsers(boolean addUsers) {
+		this.addUsers = addUsers;
+	}
+}
@@ -0,0 +1,270 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Pairing codes issued by a campaign, the latest per user: its transaction,
+ * expiry and state. Kept in an append only NDJSON file (last line per user
+ * wins), compacted when a campaign run ends.
+ * <br/>
+ * An outstanding code whose expiry has passed counts as expired.
+ * <br/>
+ * A crash while appending can leave an incomplete last line behind, it is
+ * dropped and truncated away when the ledger is opened again: its code
+ * wasn't recorded, so the user gets a new one.
+ */
+public class PairingLedger implements Closeable {
+
+	public static final String OUTSTANDING = "outstanding";
+
+	public static final String EXPIRED = "expired";
+
+	public static final String FAILED = "failed";
+
+	public static final String PAIRED = "paired";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private final File file;
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private Writer appender;
+
+	/**
+	 * @param directory directory holding ledger files
+	 * @param campaignId campaign identifier, see {@link Checkpoint#isValidJobId}
+	 * 
+	 * @throws IOException if an existing ledger can't be read, or a line
+	 *      other than the last one can't be parsed
+	 */
+	public PairingLedger(File directory, String campaignId) throws IOException {
+
+		if (!Checkpoint.isValidJobId(campaignId)) {
+			throw new IllegalArgumentException("Invalid campaign id " + campaignId);
+		}
+		this.file = new File(directory, campaignId + ".ledger");
+		if (file.isFile()) {
+			long length = file.length();
+			long complete = load();
+			if (complete < length) {
+				log.warn("Ledger {} ends with an incomplete line, dropped {} of {} bytes", file, length - complete, length);
+				RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+				try {
+					truncated.setLength(complete);
+				} finally {
+					truncated.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return length of the complete lines, the last line is incomplete when
+	 *      it has no line feed or can't be parsed
+	 */
+	private long load() throws IOException {
+
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			long complete = 0;
+			int b;
+			while ((b = in.read()) >= 0) {
+				if (b != '\n') {
+					line.write(b);
+					continue;
+				}
+				if (line.size() > 0) {
+					Entry entry;
+					try {
+						entry = MAPPER.readValue(line.toByteArray(), Entry.class);
+					} catch (JsonProcessingException e) {
+						if (in.read() >= 0) {
+							throw new IOException("Ledger " + file + " has an unreadable line at byte " + complete, e);
+						}
+						return complete;
+					}
+					entries.put(entry.getUserId(), entry);
+				}
+				complete += line.size() + 1;
+				line.reset();
+			}
+			return complete;
+		} finally {
+			in.close();
+		}
+	}
+
+	public synchronized Entry get(String userId) {
+		return entries.get(userId);
+	}
+
+	/**
+	 * @return state of the user's latest code, null if none was issued
+	 */
+	public synchronized String state(String userId) {
+
+		Entry entry = entries.get(userId);
+		return entry == null ? null : entry.state(System.currentTimeMillis());
+	}
+
+	public synchronized void record(String userId, String txnId, long expiresAt, String state) throws IOException {
+
+		Entry entry = new Entry();
+		entry.setUserId(userId);
+		entry.setTxnId(txnId);
+		entry.setExpiresAt(expiresAt);
+		entry.setState(state);
+		entries.put(userId, entry);
+
+		if (appender == null) {
+			File parent = file.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("Can't create ledger directory " + parent);
+			}
+			appender = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+		}
+		appender.write(MAPPER.writeValueAsString(entry));
+		appender.write('\n');
+		appender.flush();
+	}
+
+	/**
+	 * @return number of users per state
+	 */
+	public synchronized Map<String, Object> getStats() {
+
+		long now = System.currentTimeMillis();
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		for (String state : new String[] { OUTSTANDING, EXPIRED, FAILED, PAIRED }) {
+			stats.put(state, 0);
+		}
+		for (Entry entry : entries.values()) {
+			String state = entry.state(now);
+			stats.put(state, (Integer) stats.get(state) + 1);
+		}
+		return stats;
+	}
+
+	/**
+	 * Rewrites the file with the latest entry per user only.
+	 */
+	public synchronized void compact() throws IOException {
+
+		close();
+		if (entries.isEmpty()) {
+			return;
+		}
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8));
+		try {
+			for (Entry entry : entries.values()) {
+				out.write(MAPPER.writeValueAsString(entry));
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+
+		if (appender != null) {
+			appender.close();
+			appender = null;
+		}
+	}
+
+	/**
+	 * Ledger line
+	 */
+	public static class Entry {
+
+		private String userId;
+
+		private String txnId;
+
+		private long expiresAt;
+
+		private String state;
+
+		String state(long now) {
+			return OUTSTANDING.equals(state) && expiresAt <= now ? EXPIRED : state;
+		}
+
+		public String getUserId() {
+			return userId;
+		}
+
+		public void setUserId(String userId) {
+			this.userId = userId;
+		}
+
+		public String getTxnId() {
+			return txnId;
+		}
+
+		public void setTxnId(String txnId) {
+			this.txnId = txnId;
+		}
+
+		public long getExpiresAt() {
+			return expiresAt;
+		}
+
+		public void setExpiresAt(long expiresAt) {
+			this.expiresAt = expiresAt;
+		}
+
+		public String getState() {
+			return state;
+		}
+
+		public void setState(String state) {
+			this.state = state;
+		}
+	}
+}
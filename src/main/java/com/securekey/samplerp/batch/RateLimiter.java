@@ -0,0 +1,62 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces permits evenly to enforce a ceiling on operations per second
+ * across threads. Idle time isn't banked, so there are no bursts above the
+ * ceiling.
+ */
+public class RateLimiter {
+
+	private final long intervalNanos;
+
+	private long nextPermit = System.nanoTime();
+
+	/**
+	 * @param permitsPerSecond ceiling, greater than 0
+	 */
+	public RateLimiter(double permitsPerSecond) {
+
+		if (permitsPerSecond <= 0) {
+			throw new IllegalArgumentException("permitsPerSecond must be greater than 0");
+		}
+		this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+	}
+
+	/**
+	 * Blocks until the next permit is due.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException {
+
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (nextPermit - now < 0) {
+				nextPermit = now;
+			}
+			waitNanos = nextPermit - now;
+			nextPermit += intervalNanos;
+		}
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.util.Map;
+
+/**
+ * Processes a single batch record, typically with one or more briidge.Net
+ * calls.
+ */
+public interface RecordHandler<R> {
+
+	/**
+	 * @param record the record to process
+	 * 
+	 * @return result of the record, written to the job output; must contain
+	 *      "status" ({@link BatchRunner#STATUS_OK},
+	 *      {@link BatchRunner#STATUS_ERROR} or
+	 *      {@link BatchRunner#STATUS_SKIPPED} when there was nothing to do)
+	 * 
+	 * @throws Exception if the record could not be processed
+	 */
+	Map<String, Object> process(R record) throws Exception;
+}
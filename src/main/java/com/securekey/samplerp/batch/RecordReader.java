@@ -0,0 +1,31 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.io.IOException;
+
+/**
+ * Streams the records of a batch job from its input, one at a time.
+ */
+public interface RecordReader<R> {
+
+	/**
+	 * @return the next record, null once the input is exhausted
+	 * 
+	 * @throws IOException if the input can't be read
+	 */
+	BatchRecord<R> next() throws IOException;
+}
@@ -0,0 +1,52 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads user lists: NDJSON lines with a userId property, e.g.
+ * {"userId":"u1"}, or CSV with the userId in the first column (further
+ * columns are ignored).
+ */
+public class UserIdRecordReader extends LineRecordReader<String> {
+
+	public UserIdRecordReader(InputStream in, String format) {
+		super(in, format, "userId");
+	}
+
+	@Override
+	protected String fromJson(String line) throws IOException {
+
+		Object userId = MAPPER.readValue(line, Map.class).get("userId");
+		return userId == null ? null : userId.toString();
+	}
+
+	@Override
+	protected String fromCsv(List<String> columns) {
+		return columns.get(0).trim();
+	}
+
+	@Override
+	protected String validate(String userId) {
+		return isBlank(userId) ? "userId is required" : null;
+	}
+}
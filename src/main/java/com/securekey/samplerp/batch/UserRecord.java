@@ -0,0 +1,69 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User provisioning record: addUser, or updateUser when action is "update".
+ */
+public class UserRecord {
+
+	public static final String ACTION_ADD = "add";
+
+	public static final String ACTION_UPDATE = "update";
+
+	private String userId;
+
+	private String action = ACTION_ADD;
+
+	private Boolean allowCreate;
+
+	private List<Map<String, String>> phones;
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public void setAction(String action) {
+		this.action = action;
+	}
+
+	public Boolean getAllowCreate() {
+		return allowCreate;
+	}
+
+	public void setAllowCreate(Boolean allowCreate) {
+		this.allowCreate = allowCreate;
+	}
+
+	public List<Map<String, String>> getPhones() {
+		return phones;
+	}
+
+	public void setPhones(List<Map<String, String>> phones) {
+		this.phones = phones;
+	}
+}
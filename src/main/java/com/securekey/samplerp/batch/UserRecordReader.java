@@ -0,0 +1,101 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads {@link UserRecord}s. NDJSON lines use the record's property names,
+ * e.g. {"userId":"u1","action":"update","allowCreate":true,"phones":[{"Mobile":"5551234"}]}.
+ * CSV columns are userId,action,allowCreate,phones with phones written as
+ * type=number pairs separated by '|', e.g. u1,update,true,Mobile=5551234|Home=5554321.
+ * Only userId is required.
+ * <br/>
+ * Every phone becomes its own type to number map, the shape addUser and
+ * updateUser expect. NDJSON phones written as {"name":"Mobile","number":"5551234"}
+ * are accepted too.
+ */
+public class UserRecordReader extends LineRecordReader<UserRecord> {
+
+	public UserRecordReader(InputStream in, String format) {
+		super(in, format, "userId");
+	}
+
+	@Override
+	protected UserRecord fromJson(String line) throws IOException {
+
+		UserRecord record = MAPPER.readValue(line, UserRecord.class);
+		if (record.getPhones() != null) {
+			List<Map<String, String>> phones = new ArrayList<Map<String, String>>();
+			for (Map<String, String> phone : record.getPhones()) {
+				if (phone.size() == 2 && phone.containsKey("name") && phone.containsKey("number")) {
+					phones.add(Collections.singletonMap(phone.get("name"), phone.get("number")));
+				} else {
+					for (Map.Entry<String, String> entry : phone.entrySet()) {
+						phones.add(Collections.singletonMap(entry.getKey(), entry.getValue()));
+					}
+				}
+			}
+			record.setPhones(phones);
+		}
+		return record;
+	}
+
+	@Override
+	protected UserRecord fromCsv(List<String> columns) {
+
+		UserRecord record = new UserRecord();
+		record.setUserId(columns.get(0).trim());
+		if (columns.size() > 1 && !isBlank(columns.get(1))) {
+			record.setAction(columns.get(1).trim());
+		}
+		if (columns.size() > 2 && !isBlank(columns.get(2))) {
+			record.setAllowCreate(Boolean.valueOf(columns.get(2).trim()));
+		}
+		if (columns.size() > 3 && !isBlank(columns.get(3))) {
+			List<Map<String, String>> phones = new ArrayList<Map<String, String>>();
+			for (String phone : columns.get(3).split("\\|")) {
+				int separator = phone.indexOf('=');
+				if (separator < 0) {
+					throw new IllegalArgumentException("Phone " + phone + " is not type=number");
+				}
+				phones.add(Collections.singletonMap(phone.substring(0, separator).trim(),
+						phone.substring(separator + 1).trim()));
+			}
+			record.setPhones(phones);
+		}
+		return record;
+	}
+
+	@Override
+	protected String validate(UserRecord record) {
+
+		if (isBlank(record.getUserId())) {
+			return "userId is required";
+		}
+		if (!UserRecord.ACTION_ADD.equals(record.getAction()) && !UserRecord.ACTION_UPDATE.equals(record.getAction())) {
+			return "Unknown action " + record.getAction();
+		}
+		return null;
+	}
+}
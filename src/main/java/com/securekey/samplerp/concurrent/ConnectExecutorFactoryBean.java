@@ -0,0 +1,135 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Creates the executor used for blocking briidge.Net Connect calls.
+ * <dl>
+ * <dt>platform</dt>
+ * <dd>bounded pool of platform threads (default)</dd>
+ * <dt>virtual</dt>
+ * <dd>one virtual thread per task, requires Java 21. In flight tasks are
+ *     capped at maxPoolSize + queueCapacity</dd>
+ * </dl>
+ */
+public class ConnectExecutorFactoryBean implements FactoryBean<AsyncTaskExecutor>, InitializingBean, DisposableBean {
+
+	public static final String MODE_PLATFORM = "platform";
+
+	public static final String MODE_VIRTUAL = "virtual";
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private String mode = MODE_PLATFORM;
+
+	private String threadNamePrefix = "connect-";
+
+	private int corePoolSize = 20;
+
+	private int maxPoolSize = 100;
+
+	private int queueCapacity = 500;
+
+	private int keepAliveSeconds = 60;
+
+	private long shutdownAwaitMillis = 10000;
+
+	private AsyncTaskExecutor executor;
+
+	@Override
+	public void afterPropertiesSet() {
+
+		if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+			executor = new VirtualThreadTaskExecutor(maxPoolSize + queueCapacity);
+		} else if (MODE_PLATFORM.equalsIgnoreCase(mode)) {
+			ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+			pool.setThreadNamePrefix(threadNamePrefix);
+			pool.setCorePoolSize(corePoolSize);
+			pool.setMaxPoolSize(maxPoolSize);
+			pool.setQueueCapacity(queueCapacity);
+			pool.setKeepAliveSeconds(keepAliveSeconds);
+			pool.setAllowCoreThreadTimeOut(true);
+			pool.setWaitForTasksToCompleteOnShutdown(true);
+			pool.afterPropertiesSet();
+			executor = pool;
+		} else {
+			throw new IllegalArgumentException("Unknown executor mode '" + mode + "', expected "
+					+ MODE_PLATFORM + " or " + MODE_VIRTUAL);
+		}
+		log.info("Connect executor " + threadNamePrefix + " running in " + mode + " thread mode");
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+
+		if (executor instanceof ThreadPoolTaskExecutor) {
+			((ThreadPoolTaskExecutor) executor).shutdown();
+		} else if (executor instanceof VirtualThreadTaskExecutor) {
+			((VirtualThreadTaskExecutor) executor).shutdown(shutdownAwaitMillis);
+		}
+	}
+
+	@Override
+	public AsyncTaskExecutor getObject() {
+		return executor;
+	}
+
+	@Override
+	public Class<?> getObjectType() {
+		return AsyncTaskExecutor.class;
+	}
+
+	@Override
+	public boolean isSingleton() {
+		return true;
+	}
+
+	public void setMode(String mode) {
+		this.mode = mode;
+	}
+
+	public void setThreadNamePrefix(String threadNamePrefix) {
+		this.threadNamePrefix = threadNamePrefix;
+	}
+
+	public void setCorePoolSize(int corePoolSize) {
+		this.corePoolSize = corePoolSize;
+	}
+
+	public void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setKeepAliveSeconds(int keepAliveSeconds) {
+		this.keepAliveSeconds = keepAliveSeconds;
+	}
+
+	public void setShutdownAwaitMillis(long shutdownAwaitMillis) {
+		this.shutdownAwaitMillis = shutdownAwaitMillis;
+	}
+}
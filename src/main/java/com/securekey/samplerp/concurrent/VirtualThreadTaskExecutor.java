@@ -0,0 +1,152 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+/**
+ * Runs every task on a new virtual thread (Java 21+). Blocking briidge.Net
+ * Connect calls then park a cheap continuation instead of holding a platform
+ * thread. The number of tasks in flight is still capped, so a dead Connect
+ * server can't accumulate unbounded work.
+ * <br/>
+ * The executor is created reflectively, the code base itself keeps
+ * compiling for Java 1.7.
+ */
+public class VirtualThreadTaskExecutor implements AsyncTaskExecutor {
+
+	private final ExecutorService executor;
+
+	private final Semaphore permits;
+
+	private final int maxInFlight;
+
+	public VirtualThreadTaskExecutor(int maxInFlight) {
+		this.executor = newVirtualThreadPerTaskExecutor();
+		this.maxInFlight = maxInFlight;
+		this.permits = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * @return true if running JVM supports virtual threads
+	 */
+	public static boolean isSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			throw new IllegalStateException("Virtual threads require Java 21 or later, running on "
+					+ System.getProperty("java.version"), e);
+		}
+	}
+
+	/**
+	 * Runs the task without a Future, so an exception it throws reaches the
+	 * thread's uncaught exception handler instead of being kept unread
+	 */
+	@Override
+	public void execute(final Runnable task) {
+
+		if (!permits.tryAcquire()) {
+			throw new TaskRejectedException("Virtual thread executor is at its in-flight limit");
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			throw new TaskRejectedException("Virtual thread executor rejected task", e);
+		}
+	}
+
+	@Override
+	public void execute(Runnable task, long startTimeout) {
+		execute(task);
+	}
+
+	@Override
+	public Future<?> submit(final Runnable task) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				task.run();
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public <T> Future<T> submit(final Callable<T> task) {
+
+		if (!permits.tryAcquire()) {
+			throw new TaskRejectedException("Virtual thread executor is at its in-flight limit");
+		}
+		try {
+			return executor.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					try {
+						return task.call();
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			throw new TaskRejectedException("Virtual thread executor rejected task", e);
+		}
+	}
+
+	/**
+	 * @return number of tasks submitted and not yet completed
+	 */
+	public int getActiveCount() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	public void shutdown(long awaitMillis) throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(awaitMillis, TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,203 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.http;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.securekey.samplerp.trace.Span;
+import com.securekey.samplerp.trace.Tracer;
+
+/**
+ * Shared HTTP client for outbound calls made by the RP server (e.g. x5u
+ * certificate downloads). Connections are pooled and kept alive per route,
+ * idle and expired connections are evicted in the background.
+ * 
+ */
+@Component("outboundHttpClient")
+public class OutboundHttpClient {
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Value("#{system['outboundHttp.maxTotal'] ?: 100}")
+	private int maxTotal;
+
+	@Value("#{system['outboundHttp.maxPerRoute'] ?: 20}")
+	private int maxPerRoute;
+
+	/** comma separated list of scheme://host[:port]=limit overrides */
+	@Value("#{system['outboundHttp.routeLimits'] ?: ''}")
+	private String routeLimits;
+
+	@Value("#{system['outboundHttp.connectTimeoutMillis'] ?: 2000}")
+	private int connectTimeoutMillis;
+
+	@Value("#{system['outboundHttp.readTimeoutMillis'] ?: 5000}")
+	private int readTimeoutMillis;
+
+	@Value("#{system['outboundHttp.poolWaitMillis'] ?: 1000}")
+	private int poolWaitMillis;
+
+	@Value("#{system['outboundHttp.connectionTtlSeconds'] ?: 300}")
+	private long connectionTtlSeconds;
+
+	@Value("#{system['outboundHttp.maxIdleSeconds'] ?: 30}")
+	private long maxIdleSeconds;
+
+	private PoolingHttpClientConnectionManager connectionManager;
+
+	private final Map<String, HttpRoute> limitedRoutes = new LinkedHashMap<String, HttpRoute>();
+
+	private CloseableHttpClient httpClient;
+
+	private ScheduledExecutorService evictor;
+
+	@PostConstruct
+	private void initOutboundHttpClient() {
+
+		connectionManager = new PoolingHttpClientConnectionManager(connectionTtlSeconds, TimeUnit.SECONDS);
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+
+		for (String routeLimit : StringUtils.split(routeLimits, ',')) {
+			String target = StringUtils.substringBeforeLast(routeLimit, "=").trim();
+			int limit = Integer.parseInt(StringUtils.substringAfterLast(routeLimit, "=").trim());
+			HttpRoute route = toRoute(target);
+			connectionManager.setMaxPerRoute(route, limit);
+			limitedRoutes.put(target, route);
+		}
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMillis)
+				.setSocketTimeout(readTimeoutMillis)
+				.setConnectionRequestTimeout(poolWaitMillis)
+				.build();
+
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.build();
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("http-evictor-");
+		threadFactory.setDaemon(true);
+		evictor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				connectionManager.closeExpiredConnections();
+				connectionManager.closeIdleConnections(maxIdleSeconds, TimeUnit.SECONDS);
+			}
+		}, maxIdleSeconds, maxIdleSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	private void destroyOutboundHttpClient() {
+		evictor.shutdownNow();
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			log.warn("Failed to close outbound HTTP client: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Executes request on a pooled connection. Caller must close the
+	 * response so the connection is returned to the pool.
+	 * 
+	 * @param request HTTP request
+	 * 
+	 * @return CloseableHttpResponse
+	 */
+	public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+
+		Span span = Tracer.start("http.request").kind(Span.KIND_CLIENT);
+		if (span.isRecording()) {
+			span.tag("http.method", request.getMethod()).tag("http.url", request.getURI().toString());
+		}
+		try {
+			CloseableHttpResponse response = httpClient.execute(request);
+			if (span.isRecording()) {
+				span.tag("http.status_code", Integer.toString(response.getStatusLine().getStatusCode()));
+			}
+			return response;
+		} catch (IOException e) {
+			span.tag("error", e.getClass().getName());
+			throw e;
+		} finally {
+			span.finish();
+		}
+	}
+
+	/**
+	 * Pool usage statistics, totals and configured route limits
+	 * 
+	 * @return Map
+	 */
+	public Map<String, Object> getPoolStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("total", toMap(connectionManager.getTotalStats()));
+		for (Map.Entry<String, HttpRoute> entry : limitedRoutes.entrySet()) {
+			stats.put(entry.getKey(), toMap(connectionManager.getStats(entry.getValue())));
+		}
+		return stats;
+	}
+
+	private static Map<String, Object> toMap(PoolStats poolStats) {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("leased", poolStats.getLeased());
+		stats.put("available", poolStats.getAvailable());
+		stats.put("pending", poolStats.getPending());
+		stats.put("max", poolStats.getMax());
+		return stats;
+	}
+
+	private static HttpRoute toRoute(String target) {
+
+		String scheme = StringUtils.substringBefore(target, "://");
+		String hostAndPort = StringUtils.substringAfter(target, "://");
+		String host = StringUtils.substringBefore(hostAndPort, ":");
+		boolean secure = "https".equalsIgnoreCase(scheme);
+		int port = hostAndPort.contains(":")
+				? Integer.parseInt(StringUtils.substringAfter(hostAndPort, ":"))
+				: (secure ? 443 : 80);
+		return new HttpRoute(new HttpHost(host, port, scheme), null, secure);
+	}
+}
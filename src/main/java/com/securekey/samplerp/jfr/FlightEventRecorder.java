@@ -0,0 +1,33 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.jfr;
+
+/**
+ * Emits Java Flight Recorder events. Implemented by JfrEventRecorder,
+ * compiled only by the java21 profile, so the code base keeps building for
+ * Java 1.7. Events are opaque objects: begin returns null when the event
+ * is not enabled in any running recording.
+ */
+public interface FlightEventRecorder {
+
+	Object beginConnectCall();
+
+	void endConnectCall(Object event, String operation, int txnIdHash, String outcome);
+
+	Object beginJwtStage();
+
+	void endJwtStage(Object event, String stage, String outcome);
+}
@@ -0,0 +1,96 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.jfr;
+
+/**
+ * Static entry point of the Java Flight Recorder events, mirroring
+ * {@link com.securekey.samplerp.trace.Tracer}:
+ * <pre>
+ * Object event = FlightEvents.beginJwtStage();
+ * try {
+ *     ...
+ * } finally {
+ *     FlightEvents.endJwtStage(event, FlightEvents.JWT_VERIFY, outcome);
+ * }
+ * </pre>
+ * Until a recorder is installed by {@link FlightEventsInstaller}, and while
+ * no running recording enables an event, begin returns null after a
+ * volatile read and end does nothing.
+ */
+public final class FlightEvents {
+
+	/** JWS parsing */
+	public static final String JWT_DECODE = "decode";
+
+	/** x5u certificate download, on a cache miss or refresh only */
+	public static final String JWT_FETCH = "fetch";
+
+	/** downloaded certificate parsing */
+	public static final String JWT_PARSE = "parse";
+
+	/** signature verification */
+	public static final String JWT_VERIFY = "verify";
+
+	private static volatile FlightEventRecorder recorder;
+
+	private FlightEvents() {
+	}
+
+	static void install(FlightEventRecorder recorder) {
+		FlightEvents.recorder = recorder;
+	}
+
+	public static boolean isInstalled() {
+		return recorder != null;
+	}
+
+	public static Object beginConnectCall() {
+
+		FlightEventRecorder current = recorder;
+		return current == null ? null : current.beginConnectCall();
+	}
+
+	/**
+	 * @param event value returned by {@link #beginConnectCall()}
+	 * @param txnId transaction id, recorded as its hash code
+	 */
+	public static void endConnectCall(Object event, String operation, String txnId, String outcome) {
+
+		FlightEventRecorder current = recorder;
+		if (event != null && current != null) {
+			current.endConnectCall(event, operation, txnId == null ? 0 : txnId.hashCode(), outcome);
+		}
+	}
+
+	public static Object beginJwtStage() {
+
+		FlightEventRecorder current = recorder;
+		return current == null ? null : current.beginJwtStage();
+	}
+
+	/**
+	 * @param event value returned by {@link #beginJwtStage()}
+	 * @param stage {@link #JWT_DECODE}, {@link #JWT_FETCH}, {@link #JWT_PARSE}
+	 *      or {@link #JWT_VERIFY}
+	 */
+	public static void endJwtStage(Object event, String stage, String outcome) {
+
+		FlightEventRecorder current = recorder;
+		if (event != null && current != null) {
+			current.endJwtStage(event, stage, outcome);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.jfr;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Installs the Java Flight Recorder events when jfr.events is set, the JVM
+ * has the jdk.jfr API and the war was built with the java21 profile.
+ * <br/>
+ * Which events are recorded is switched at runtime by JFR itself: start a
+ * recording (jcmd &lt;pid&gt; JFR.start) with the com.securekey.samplerp.*
+ * events enabled, stop it to return to a volatile read per call.
+ */
+@Component("flightEventsInstaller")
+public class FlightEventsInstaller {
+
+	private static final String RECORDER_CLASS = "com.securekey.samplerp.jfr.JfrEventRecorder";
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Value("#{system['jfr.events'] ?: true}")
+	private boolean events;
+
+	@PostConstruct
+	private void initFlightEvents() {
+
+		if (!events) {
+			return;
+		}
+		try {
+			Class.forName("jdk.jfr.Event");
+		} catch (ClassNotFoundException e) {
+			log.info("Flight Recorder events not installed, JVM " + System.getProperty("java.version")
+					+ " has no jdk.jfr API");
+			return;
+		}
+		try {
+			FlightEvents.install((FlightEventRecorder) Class.forName(RECORDER_CLASS).newInstance());
+			log.info("Flight Recorder events installed");
+		} catch (ClassNotFoundException e) {
+			log.info("Flight Recorder events not installed, build with the java21 profile to include them");
+		} catch (Exception e) {
+			log.warn("Flight Recorder events not installed: " + e);
+		}
+	}
+
+	@PreDestroy
+	private void destroyFlightEvents() {
+		FlightEvents.install(null);
+	}
+}
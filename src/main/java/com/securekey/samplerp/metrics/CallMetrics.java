@@ -0,0 +1,83 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram, calls in flight and completed calls per outcome (an
+ * error code, HTTP status etc.) of one operation.
+ * <br/>
+ * Usage: <code>long start = metrics.begin(); ... metrics.end(start, outcome);</code>
+ */
+public class CallMetrics {
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final ConcurrentMap<String, AtomicLong> outcomes = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * @return start time to pass to {@link #end(long, String)}
+	 */
+	public long begin() {
+
+		inFlight.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	public void end(long startNanos, String outcome) {
+
+		latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+		inFlight.decrementAndGet();
+		AtomicLong count = outcomes.get(outcome);
+		if (count == null) {
+			AtomicLong created = new AtomicLong();
+			count = outcomes.putIfAbsent(outcome, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return completed calls per outcome, sorted by outcome
+	 */
+	public Map<String, Long> getOutcomes() {
+
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> outcome : outcomes.entrySet()) {
+			result.put(outcome.getKey(), outcome.getValue().get());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,169 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in the HdrHistogram layout: values are counted in
+ * buckets whose width doubles with every power of two, each split into 64
+ * sub buckets, so any recorded value is known within 1/64 (~1.6%) of its
+ * magnitude while the whole range up to {@link #MAX_MICROS} fits in a fixed
+ * array. Recording is a few atomic increments, never a lock or allocation.
+ * <br/>
+ * Values are recorded in microseconds and counted since startup, larger
+ * values are counted as {@link #MAX_MICROS}.
+ */
+public class LatencyHistogram {
+
+	/** ~71 minutes */
+	public static final long MAX_MICROS = (1L << 32) - 1;
+
+	private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 6;
+
+	private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+
+	private static final long SUB_BUCKET_MASK = (SUB_BUCKET_HALF_COUNT << 1) - 1;
+
+	private static final int BUCKET_COUNT = 64 - Long.numberOfLeadingZeros(MAX_MICROS) - SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+
+	private final AtomicLongArray counts = new AtomicLongArray((BUCKET_COUNT + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE);
+
+	private final AtomicLong totalCount = new AtomicLong();
+
+	private final AtomicLong totalMicros = new AtomicLong();
+
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * @param micros latency in microseconds, negative values count as 0
+	 */
+	public void record(long micros) {
+
+		long value = Math.max(0, Math.min(micros, MAX_MICROS));
+		counts.incrementAndGet(countsIndex(value));
+		totalCount.incrementAndGet();
+		totalMicros.addAndGet(value);
+		long max = maxMicros.get();
+		while (value > max && !maxMicros.compareAndSet(max, value)) {
+			max = maxMicros.get();
+		}
+	}
+
+	/**
+	 * @return counts copied one bucket at a time, consistent enough for
+	 *      reporting while other threads keep recording
+	 */
+	public Snapshot snapshot() {
+
+		long[] copy = new long[counts.length()];
+		long count = 0;
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, totalMicros.get(), maxMicros.get());
+	}
+
+	private static int countsIndex(long value) {
+
+		int bucketIndex = 64 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - (SUB_BUCKET_HALF_COUNT_MAGNITUDE + 1);
+		int subBucketIndex = (int) (value >>> bucketIndex);
+		return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + subBucketIndex - SUB_BUCKET_HALF_COUNT;
+	}
+
+	/**
+	 * @return largest value counted in the same bucket as the values at index
+	 */
+	private static long highestEquivalentValue(int index) {
+
+		int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+		long subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+		if (bucketIndex < 0) {
+			subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+			bucketIndex = 0;
+		}
+		return ((subBucketIndex + 1) << bucketIndex) - 1;
+	}
+
+	/**
+	 * Point in time copy of a histogram
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+
+		private final long count;
+
+		private final long totalMicros;
+
+		private final long maxMicros;
+
+		private Snapshot(long[] counts, long count, long totalMicros, long maxMicros) {
+			this.counts = counts;
+			this.count = count;
+			this.totalMicros = totalMicros;
+			this.maxMicros = maxMicros;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTotalMicros() {
+			return totalMicros;
+		}
+
+		public long getMaxMicros() {
+			return maxMicros;
+		}
+
+		/**
+		 * @param percentile 0 - 100
+		 * 
+		 * @return upper bound of the bucket holding the percentile, in
+		 *      microseconds, 0 if nothing was recorded
+		 */
+		public long getPercentileMicros(double percentile) {
+
+			long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= target) {
+					return Math.min(highestEquivalentValue(i), maxMicros);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * @param micros upper bound
+		 * 
+		 * @return number of values whose bucket lies entirely at or below
+		 *      micros, exact up to the histogram's precision
+		 */
+		public long getCountAtOrBelow(long micros) {
+
+			long result = 0;
+			for (int i = 0; i < counts.length && highestEquivalentValue(i) <= micros; i++) {
+				result += counts[i];
+			}
+			return result;
+		}
+	}
+}
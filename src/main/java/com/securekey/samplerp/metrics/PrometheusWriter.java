@@ -0,0 +1,108 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4).
+ * Samples of a metric family must be written right after its
+ * {@link #family(String, String, String)} header.
+ */
+public class PrometheusWriter {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final Writer out;
+
+	public PrometheusWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * @param name metric name
+	 * @param type counter, gauge or histogram
+	 * @param help description
+	 */
+	public void family(String name, String type, String help) throws IOException {
+
+		out.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+		out.write("# TYPE " + name + " " + type + "\n");
+	}
+
+	/**
+	 * @param labels label names and values, alternating
+	 */
+	public void sample(String name, double value, String... labels) throws IOException {
+
+		out.write(name);
+		writeLabels(labels, null);
+		out.write(" " + format(value) + "\n");
+	}
+
+	/**
+	 * Writes the cumulative buckets, sum and count of a histogram in seconds
+	 * 
+	 * @param bucketsSeconds upper bounds of the buckets, ascending
+	 * @param labels label names and values, alternating
+	 */
+	public void histogram(String name, LatencyHistogram.Snapshot snapshot, double[] bucketsSeconds,
+			String... labels) throws IOException {
+
+		for (double bound : bucketsSeconds) {
+			out.write(name + "_bucket");
+			writeLabels(labels, format(bound));
+			out.write(" " + snapshot.getCountAtOrBelow((long) (bound * 1000000)) + "\n");
+		}
+		out.write(name + "_bucket");
+		writeLabels(labels, "+Inf");
+		out.write(" " + snapshot.getCount() + "\n");
+		sample(name + "_sum", snapshot.getTotalMicros() / 1000000.0, labels);
+		sample(name + "_count", snapshot.getCount(), labels);
+	}
+
+	private void writeLabels(String[] labels, String le) throws IOException {
+
+		if (labels.length == 0 && le == null) {
+			return;
+		}
+		out.write('{');
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write(labels[i] + "=\"" + escape(labels[i + 1]) + "\"");
+		}
+		if (le != null) {
+			out.write((labels.length > 0 ? "," : "") + "le=\"" + le + "\"");
+		}
+		out.write('}');
+	}
+
+	private static String escape(String value) {
+
+		return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static String format(double value) {
+
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+}
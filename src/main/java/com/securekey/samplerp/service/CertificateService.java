@@ -0,0 +1,44 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.InvalidKeyException;
+import java.security.cert.CertificateException;
+
+import com.nimbusds.jose.JWSVerifier;
+
+/**
+ * Resolve signing certificates referenced by the x5u header of JWS objects
+ */
+public interface CertificateService {
+
+	/**
+	 * Returns verifier for the RSA public key of the certificate published at
+	 * the given URL. Certificates are cached, so repeated calls for the same
+	 * URL are served locally until the cached certificate expires.
+	 * 
+	 * @param x5u URL of the PEM encoded X.509 signing certificate
+	 * 
+	 * @return JWSVerifier
+	 * 
+	 * @throws IOException if certificate can't be downloaded
+	 * @throws CertificateException if downloaded content is not an X.509 certificate
+	 * @throws InvalidKeyException if certificate public key is not an RSA key
+	 */
+	JWSVerifier getVerifier (URL x5u) throws IOException, CertificateException, InvalidKeyException;
+}
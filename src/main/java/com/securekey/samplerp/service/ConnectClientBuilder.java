@@ -0,0 +1,37 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import com.securekey.connect.core.ConnectClient;
+
+/**
+ * Creates the ConnectClient used by BriidgeServiceImpl.
+ * <br/>
+ * The default implementation goes through ConnectClientFactory, the
+ * connectClient.builder setting names a replacement class (public no-arg
+ * constructor), e.g. the stub Connect server of the load test harness.
+ */
+public interface ConnectClientBuilder {
+
+	/**
+	 * @param configFile ConnectClientFactory configuration file
+	 * 
+	 * @return new client
+	 * 
+	 * @throws Exception if the client can't be created from the configuration
+	 */
+	ConnectClient build(String configFile) throws Exception;
+}
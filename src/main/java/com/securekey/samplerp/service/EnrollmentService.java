@@ -0,0 +1,45 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import java.util.Map;
+
+import com.securekey.connect.beans.JsonObject;
+
+/**
+ * Declare multi step enrollment flows built on top of {@link BriidgeService}
+ * 
+ */
+public interface EnrollmentService {
+
+	/**
+	 * Enrolls the device that authenticated with txnId for the user and
+	 * initiates QuickCode setup. Device lookup and user creation run in
+	 * parallel, device is added and QuickCode setup initiated once both
+	 * completed.
+	 * 
+	 * @param txnId Transaction identifier returned by the mobile SDK authenticateDevice method.
+	 * @param userId The user identifier in the client's name space.
+	 * 
+	 * @return TxnResponse of the QuickCode setup, or GetDeviceIdResponse if device lookup failed
+	 */
+	JsonObject initMobileQuickcode (String txnId, String userId) throws Exception;
+
+	/**
+	 * @return per step latency statistics of {@link #initMobileQuickcode(String, String)}
+	 */
+	Map<String, Object> getInitMobileQuickcodeStats ();
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.securekey.samplerp.util.LruMap;
+
+/**
+ * Memory bounded registry of users and (userId, deviceId) pairs already
+ * confirmed with briidge.Net, so flows can skip addUser and addDevice calls
+ * whose outcome is known. Least recently used users are forgotten first,
+ * forgetting only costs one redundant call. A user is also forgotten
+ * ttlSeconds after it was last confirmed, since removals made through
+ * another RP node don't reach this registry.
+ * <br/>
+ * Filled and cleared by RegistryInterceptor as responses of the
+ * briidgeService proxy come back.
+ */
+public class KnownEntityRegistry {
+
+	private final LruMap<String, User> users;
+
+	private final int maxDevicesPerUser;
+
+	private final long ttlMillis;
+
+	private final AtomicLong skippedAddUser = new AtomicLong();
+
+	private final AtomicLong skippedAddDevice = new AtomicLong();
+
+	private final AtomicLong expired = new AtomicLong();
+
+	/**
+	 * @param ttlSeconds time a confirmation is trusted, 0 for no limit
+	 */
+	public KnownEntityRegistry(int maxUsers, int maxDevicesPerUser, long ttlSeconds) {
+		this.users = new LruMap<String, User>(maxUsers);
+		this.maxDevicesPerUser = maxDevicesPerUser;
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+	}
+
+	/**
+	 * @return true if user is known to exist, counting the skipped addUser call
+	 */
+	public boolean skipAddUser(String userId) {
+		if (isKnownUser(userId)) {
+			skippedAddUser.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if device is known to be added to the user, counting the skipped addDevice call
+	 */
+	public boolean skipAddDevice(String userId, String deviceId) {
+		if (isKnownDevice(userId, deviceId)) {
+			skippedAddDevice.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized boolean isKnownUser(String userId) {
+		return current(userId) != null;
+	}
+
+	public synchronized boolean isKnownDevice(String userId, String deviceId) {
+		User user = current(userId);
+		return user != null && user.devices.contains(deviceId);
+	}
+
+	public synchronized void userConfirmed(String userId) {
+		confirmed(userId);
+	}
+
+	public synchronized void deviceConfirmed(String userId, String deviceId) {
+
+		if (userId == null || deviceId == null) {
+			return;
+		}
+		Set<String> devices = confirmed(userId).devices;
+		devices.remove(deviceId);
+		devices.add(deviceId);
+		if (devices.size() > maxDevicesPerUser) {
+			Iterator<String> oldest = devices.iterator();
+			oldest.next();
+			oldest.remove();
+		}
+	}
+
+	public synchronized void userRemoved(String userId) {
+		users.remove(userId);
+	}
+
+	public synchronized void deviceRemoved(String userId, String deviceId) {
+		User user = users.get(userId);
+		if (user != null) {
+			user.devices.remove(deviceId);
+		}
+	}
+
+	public synchronized void allDevicesRemoved(String userId) {
+		User user = users.get(userId);
+		if (user != null) {
+			user.devices.clear();
+		}
+	}
+
+	/** callers synchronize on this */
+	private User current(String userId) {
+
+		User user = userId == null ? null : users.get(userId);
+		if (user != null && ttlMillis > 0 && user.confirmedAt < System.currentTimeMillis() - ttlMillis) {
+			users.remove(userId);
+			expired.incrementAndGet();
+			return null;
+		}
+		return user;
+	}
+
+	/** callers synchronize on this */
+	private User confirmed(String userId) {
+
+		User user = current(userId);
+		if (user == null) {
+			user = new User();
+			if (userId != null) {
+				users.put(userId, user);
+			}
+		}
+		user.confirmedAt = System.currentTimeMillis();
+		return user;
+	}
+
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		synchronized (this) {
+			stats.put("users", users.size());
+			stats.put("maxUsers", users.getMaxEntries());
+		}
+		stats.put("skippedAddUser", skippedAddUser.get());
+		stats.put("skippedAddDevice", skippedAddDevice.get());
+		stats.put("expired", expired.get());
+		stats.put("ttlSeconds", TimeUnit.MILLISECONDS.toSeconds(ttlMillis));
+		return stats;
+	}
+
+	private static final class User {
+
+		private final Set<String> devices = new LinkedHashSet<String>();
+
+		private long confirmedAt;
+	}
+}
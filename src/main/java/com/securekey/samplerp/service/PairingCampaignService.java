@@ -0,0 +1,66 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import com.securekey.samplerp.batch.JobRunningException;
+import com.securekey.samplerp.batch.PairingCampaign;
+
+/**
+ * Pairing code campaigns: pairing codes for whole user lists, e.g. for
+ * enrollment mailings.
+ */
+public interface PairingCampaignService {
+
+	/**
+	 * Issues pairing codes to the users streamed from in. Users whose code
+	 * from an earlier run of the campaign is still outstanding, or who
+	 * paired, are skipped; users without a code, or whose code expired or
+	 * failed, get a new one. New codes are written to
+	 * &lt;campaign directory&gt;/&lt;runId&gt;.codes.csv, per user results
+	 * (without codes) are streamed to out as NDJSON, the last line holds the
+	 * run summary.
+	 * 
+	 * @param campaign campaign settings
+	 * @param runId identifier of this run, see {@link com.securekey.samplerp.batch.Checkpoint#isValidJobId}
+	 * @param in user list
+	 * @param format ndjson or csv
+	 * @param out results
+	 * 
+	 * @return run summary
+	 * 
+	 * @throws IOException if reading in, writing out or the codes file or
+	 *      updating the ledger fails
+	 * @throws InterruptedException if interrupted while running
+	 * @throws JobRunningException if the campaign is already running
+	 */
+	Map<String, Object> run(PairingCampaign campaign, String runId, InputStream in, String format, OutputStream out)
+			throws IOException, InterruptedException;
+
+	/**
+	 * @param campaignId campaign identifier
+	 * 
+	 * @return number of users per code state (outstanding, expired, failed,
+	 *      paired), null for an unknown campaign
+	 * 
+	 * @throws IOException if the ledger can't be read
+	 */
+	Map<String, Object> getLedgerStats(String campaignId) throws IOException;
+}
@@ -0,0 +1,96 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import com.securekey.connect.beans.Response;
+
+/**
+ * Locally known state of a briidge.Net transaction completed asynchronously
+ * (e.g. a pairing), as reported by the completion notification.
+ */
+public class TransactionState {
+
+	/** initiated, completion not notified yet */
+	public static final String PENDING = "pending";
+
+	/** notified, result being retrieved */
+	public static final String RETRIEVING = "retrieving";
+
+	/** notified and result retrieved */
+	public static final String COMPLETED = "completed";
+
+	private final String txnId;
+
+	private final String operation;
+
+	private final String state;
+
+	private final String notifiedStatus;
+
+	private final Response result;
+
+	private final long updatedAt;
+
+	public TransactionState(String txnId, String operation, String state, String notifiedStatus, Response result) {
+		this.txnId = txnId;
+		this.operation = operation;
+		this.state = state;
+		this.notifiedStatus = notifiedStatus;
+		this.result = result;
+		this.updatedAt = System.currentTimeMillis();
+	}
+
+	public String getTxnId() {
+		return txnId;
+	}
+
+	/**
+	 * @return initiating operation, e.g. pairDevice; null if the transaction
+	 *      was first seen in a notification
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * @return status carried by the notification (success or failure)
+	 */
+	public String getNotifiedStatus() {
+		return notifiedStatus;
+	}
+
+	/**
+	 * @return transaction data retrieved once completed
+	 */
+	public Response getResult() {
+		return result;
+	}
+
+	public long getUpdatedAt() {
+		return updatedAt;
+	}
+
+	/**
+	 * @return true if completed and briidge.Net returned no error
+	 */
+	public boolean isSuccessful() {
+		return COMPLETED.equals(state) && result != null && result.getError() == null;
+	}
+}
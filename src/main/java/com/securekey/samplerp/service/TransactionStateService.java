@@ -0,0 +1,101 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import java.util.Map;
+
+/**
+ * Receives briidge.Net completion notifications (notificationType httpPost)
+ * and keeps the state of notified transactions locally, so clients don't
+ * have to poll briidge.Net for completion.
+ */
+public interface TransactionStateService {
+
+	/**
+	 * Outcome of a completion notification.
+	 */
+	enum Notification {
+
+		/** retrieval of the transaction's data was scheduled */
+		ACCEPTED,
+
+		/** the transaction was already notified */
+		DUPLICATE,
+
+		/** the transaction was never registered through {@link #pending} */
+		UNKNOWN
+	}
+
+	/**
+	 * Told about transactions whose result was retrieved after a completion
+	 * notification.
+	 */
+	interface CompletionListener {
+
+		void completed(TransactionState state);
+	}
+
+	/**
+	 * @param listener called on the retrieving thread once a notified
+	 *      transaction's result is retrieved
+	 */
+	void addCompletionListener(CompletionListener listener);
+
+	/**
+	 * @return URL briidge.Net should POST completion notifications to, null
+	 *      if notifications are not configured or notification.secret is
+	 *      unset
+	 */
+	String getNotificationUrl();
+
+	/**
+	 * Registers a transaction initiated with notificationType httpPost.
+	 * 
+	 * @param txnId transaction identifier
+	 * @param operation initiating operation, e.g. pairDevice
+	 */
+	void pending(String txnId, String operation);
+
+	/**
+	 * Records a completion notification. The transaction's data is retrieved
+	 * from briidge.Net in the background, once per transaction: repeated
+	 * notifications are ignored, unless the retrieval failed or was not
+	 * final yet (an error other than txn.terminalErrors). Transactions not
+	 * registered through {@link #pending} are ignored.
+	 * 
+	 * @param txnId transaction identifier
+	 * @param status notified status (success or failure)
+	 * 
+	 * @return whether the notification was accepted, a duplicate or for an
+	 *      unknown transaction
+	 * 
+	 * @throws org.springframework.core.task.TaskRejectedException if the
+	 *      retrieval can't be scheduled, the notification may be repeated
+	 */
+	Notification notified(String txnId, String status);
+
+	/**
+	 * @param txnId transaction identifier
+	 * 
+	 * @return local state of the transaction, null if unknown
+	 */
+	TransactionState get(String txnId);
+
+	/**
+	 * @return notification and retrieval counts, transactions per state
+	 */
+	Map<String, Object> getStats();
+}
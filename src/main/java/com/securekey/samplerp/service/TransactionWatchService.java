@@ -0,0 +1,71 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import java.util.Map;
+
+import com.securekey.connect.beans.Response;
+
+/**
+ * Watches briidge.Net transactions for completion on behalf of any number of
+ * waiting clients. One watcher per transaction polls briidge.Net with
+ * backoff (pairings complete early on a completion notification, see
+ * {@link TransactionStateService}), every waiter gets its result.
+ */
+public interface TransactionWatchService {
+
+	String VERIFY_QUICK_CODE = "verifyQuickCode";
+
+	String PAIR_DEVICE_DATA = "pairDeviceData";
+
+	/**
+	 * Waits for a transaction's result
+	 */
+	interface Waiter {
+
+		/**
+		 * @param result the transaction's final response, or the last one
+		 *      retrieved (null if none) when the watch gave up
+		 */
+		void completed(Response result);
+	}
+
+	/**
+	 * Registration of a {@link Waiter}
+	 */
+	interface Subscription {
+
+		/**
+		 * Stops waiting, a watcher left without waiters stops polling.
+		 */
+		void cancel();
+	}
+
+	/**
+	 * @param operation {@link #VERIFY_QUICK_CODE} or {@link #PAIR_DEVICE_DATA}
+	 * @param txnId transaction identifier
+	 * @param waiter called once, on a pool thread, or right away if the result
+	 *      is already known
+	 * 
+	 * @return subscription to cancel when the client stops waiting
+	 */
+	Subscription watch(String operation, String txnId, Waiter waiter);
+
+	/**
+	 * @return watchers, waiters, polls and completions
+	 */
+	Map<String, Object> getStats();
+}
@@ -0,0 +1,52 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import com.securekey.samplerp.batch.JobRunningException;
+
+/**
+ * Bulk user provisioning (addUser / updateUser) for partner onboarding.
+ * 
+ * @see com.securekey.samplerp.batch.UserRecordReader for the input formats
+ */
+public interface UserProvisioningService {
+
+	/**
+	 * Provisions the users streamed from in. Per record results are streamed
+	 * to out as NDJSON while the job runs, the last line holds the job
+	 * summary. Running a job again with the same jobId resumes it after the
+	 * last checkpoint.
+	 * 
+	 * @param in user records
+	 * @param format ndjson or csv
+	 * @param jobId job identifier, letters, digits, '_', '-' and '.' only
+	 * @param out results
+	 * 
+	 * @return job summary
+	 * 
+	 * @throws IOException if reading in, writing out or saving the
+	 *      checkpoint fails; the job can be resumed
+	 * @throws InterruptedException if interrupted while running
+	 * @throws JobRunningException if the job is already running
+	 */
+	Map<String, Object> provision(InputStream in, String format, String jobId, OutputStream out)
+			throws IOException, InterruptedException;
+}
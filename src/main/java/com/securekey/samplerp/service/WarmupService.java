@@ -0,0 +1,39 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service;
+
+import java.util.Map;
+
+/**
+ * Warms the RP server up once it is started: primes the briidge.Net Connect
+ * client and the request code paths, so the first requests sent to a new node
+ * don't pay keystore loading, TLS handshakes, class loading and interpreted
+ * code. Load balancers should only route to the node once it is ready.
+ */
+public interface WarmupService {
+
+	/**
+	 * @return true once warm-up finished, or right after startup if warm-up is
+	 *      disabled
+	 */
+	boolean isReady();
+
+	/**
+	 * @return state (starting, warming_up, ready), warm-up duration, Connect
+	 *      call attempts and the last warm-up error
+	 */
+	Map<String, Object> getStatus();
+}
@@ -18,6 +18,7 @@ package com.securekey.samplerp.service.impl;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -26,7 +27,6 @@ import javax.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Service;
 
 import com.securekey.connect.beans.Response;
 import com.securekey.connect.beans.client.CancelRequestRequest;
@@ -52,17 +52,17 @@ import com.securekey.connect.beans.mgmt.RemoveAllUserDevicesRequest;
 import com.securekey.connect.beans.mgmt.RemoveDeviceRequest;
 import com.securekey.connect.beans.mgmt.UpdateUserRequest;
 import com.securekey.connect.beans.mgmt.VerifyDeviceRequest;
-import com.securekey.connect.core.ConnectClientFactory;
 import com.securekey.connect.core.ConnectClient;
 import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.ConnectClientBuilder;
 
 /**
- * Implements calls to briidge.Net Connect service
+ * Implements calls to briidge.Net Connect service. Declared in
+ * connect-service-context.xml as the target of the briidgeService proxy.
  * 
  * @author      Ivan Bilenjkij (ivan.bilenjkij@securekey.com)
  * 
  */
-@Service("briidgeService")
 public class BriidgeServiceImpl implements BriidgeService {
 
 	private final Logger log = LoggerFactory.getLogger(this.getClass());
@@ -76,16 +76,122 @@ public class BriidgeServiceImpl implements BriidgeService {
 	@Value("#{system['briidgeServerUrl']}")
 	private String briidgeServerUrl;
 */
-	private ConnectClient skClient;
+	/**
+	 * ConnectClientBuilder class name, a JVM system property takes precedence
+	 * so a harness can swap the client without editing system.properties
+	 */
+	@Value("#{systemProperties['connectClient.builder'] ?: system['connectClient.builder'] ?: ''}")
+	private String connectClientBuilder;
+
+	/**
+	 * made up transaction id of the getDeviceData call validating a reloaded
+	 * client
+	 */
+	@Value("#{system['warmup.txnId'] ?: 'warmup'}")
+	private String validateTxnId;
+
+	/**
+	 * errors a working client answers the validating call with, comma
+	 * separated; others (credentials, signature, local errors) fail the reload
+	 */
+	@Value("#{system['connectClient.validateErrors'] ?: 'unknown_txn'}")
+	private String validateErrors;
+
+	private ConnectClientPool connectClientPool;
+
+	private volatile ConnectClient skClient;
+
+	/**
+	 * @param connectClientPool pool the client is built from, without one a
+	 *      single client of system.properties is used
+	 */
+	public void setConnectClientPool(ConnectClientPool connectClientPool) {
+		this.connectClientPool = connectClientPool;
+	}
 
 	@PostConstruct
 	private void initBriidgeService() {
-              try {
-		skClient = new ConnectClientFactory("system.properties").createClient();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    log.error(e.getMessage());
-                }
+		try {
+			ensureConnectClient();
+		} catch (Exception e) {
+			log.error("Connect client could not be built, retried by the warm-up: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Builds the Connect client unless it is built already. The warm-up calls
+	 * it again when the build at startup failed.
+	 * 
+	 * @throws Exception if the client can't be built
+	 */
+	public synchronized void ensureConnectClient() throws Exception {
+
+		if (skClient == null) {
+			ConnectClientBuilder builder = newConnectClientBuilder();
+			skClient = connectClientPool == null ? builder.build("system.properties") : connectClientPool.build(builder);
+		}
+	}
+
+	/**
+	 * Replaces the Connect client with one built from the configuration and
+	 * keystore as they are now. The new client takes calls once a
+	 * getDeviceData call for a made up transaction id is answered on it with
+	 * one of connectClient.validateErrors (unknown_txn), calls running on the
+	 * old one finish there. See ConnectConfigWatcher.
+	 * 
+	 * @throws Exception if the new client can't be built or validated, the
+	 *      current one stays in use
+	 */
+	public synchronized void reloadConnectClient() throws Exception {
+
+		if (skClient == null) {
+			ensureConnectClient();
+			return;
+		}
+		ConnectClientBuilder builder = newConnectClientBuilder();
+		ConnectClientPool.Validator validator = new ConnectClientPool.Validator() {
+			@Override
+			public void validate(ConnectClient client) throws Exception {
+				GetDataRequest getDataRequest = new GetDataRequest();
+				getDataRequest.setTxnId(validateTxnId);
+				checkValidationAnswer(client.getDeviceData(getDataRequest));
+			}
+		};
+		if (connectClientPool == null) {
+			ConnectClient client = builder.build("system.properties");
+			validator.validate(client);
+			skClient = client;
+		} else {
+			connectClientPool.reload(builder, validator);
+		}
+	}
+
+	/**
+	 * A working client answers getDeviceData for the made up warmup.txnId
+	 * with one of connectClient.validateErrors (unknown_txn)
+	 * 
+	 * @param response answer of that call
+	 * 
+	 * @throws IllegalStateException for any other answer, e.g.
+	 *      invalid_credentials or a local error
+	 */
+	public void checkValidationAnswer(Response response) {
+
+		List<String> expected = Arrays.asList(validateErrors.trim().split("\\s*,\\s*"));
+		String error = response == null ? null : response.getError();
+		if (!expected.contains(error)) {
+			throw new IllegalStateException("Connect client answered getDeviceData for " + validateTxnId
+					+ " with error " + error + ", expected one of " + expected);
+		}
+	}
+
+	private ConnectClientBuilder newConnectClientBuilder() throws Exception {
+
+		if (isNotBlank(connectClientBuilder)) {
+			log.warn("Connect client built by " + connectClientBuilder);
+			return (ConnectClientBuilder) Class.forName(connectClientBuilder.trim()).newInstance();
+		}
+		return new FactoryConnectClientBuilder();
 	}
 
 	@Override
@@ -153,25 +259,16 @@ public class BriidgeServiceImpl implements BriidgeService {
 	@Override
 	public TxnResponse addUser(String userId, List<Map<String, String>> phones) throws Exception {
 
-		AddUserRequest addUserRequest = new AddUserRequest();
-		addUserRequest.setUserId(userId);
+		TxnResponse txnResponse = skClient.createUser(newAddUserRequest(userId, phones));
+		return txnResponse;
+	}
 
-		if (phones != null && !phones.isEmpty()) {
-			List<Phone> phoneList = new ArrayList<Phone>();
-			for (Map<String, String> entryPhone : phones) {
-				for (Map.Entry<String, String> entry : entryPhone.entrySet()) {
-					Phone phone = new Phone(entry.getKey(), entry.getValue());
-					phoneList.add(phone);
-				}
-			}
-			addUserRequest.setPhone(phoneList.toArray(new Phone[phones.size()]));
+	static AddUserRequest newAddUserRequest(String userId, List<Map<String, String>> phones) {
 
-		} else {
-			addUserRequest.setPhone(new Phone[0]);
-		}
-
-		TxnResponse txnResponse = skClient.createUser(addUserRequest);
-		return txnResponse;
+		AddUserRequest addUserRequest = new AddUserRequest();
+		addUserRequest.setUserId(userId);
+		addUserRequest.setPhone(toPhones(phones));
+		return addUserRequest;
 	}
 
 	@Override
@@ -193,6 +290,11 @@ public class BriidgeServiceImpl implements BriidgeService {
 	@Override
 	public TxnResponse updateUser(String userId, Boolean allowCreate, List<Map<String, String>> phones) throws Exception {
 
+		return skClient.updateUser(newUpdateUserRequest(userId, allowCreate, phones));
+	}
+
+	static UpdateUserRequest newUpdateUserRequest(String userId, Boolean allowCreate, List<Map<String, String>> phones) {
+
 		UpdateUserRequest updateUserRequest = new UpdateUserRequest();
 		updateUserRequest.setUserId(userId);
 
@@ -200,21 +302,25 @@ public class BriidgeServiceImpl implements BriidgeService {
 			updateUserRequest.setAllowCreate(allowCreate);
 		}
 
-		if (phones != null && !phones.isEmpty()) {
-			List<Phone> phoneList = new ArrayList<Phone>();
-			for (Map<String, String> entryPhone : phones) {
-				for (Map.Entry<String, String> entry : entryPhone.entrySet()) {
-					Phone phone = new Phone(entry.getKey(), entry.getValue());
-					phoneList.add(phone);
-				}
-			}
-			updateUserRequest.setPhone(phoneList.toArray(new Phone[phones.size()]));
+		updateUserRequest.setPhone(toPhones(phones));
+		return updateUserRequest;
+	}
 
-		} else {
-			updateUserRequest.setPhone(new Phone[0]);
-		}
+	/**
+	 * Flattens phone maps (type to number) into the Connect phone list
+	 */
+	static Phone[] toPhones(List<Map<String, String>> phones) {
 
-		return skClient.updateUser(updateUserRequest);
+		if (phones == null || phones.isEmpty()) {
+			return new Phone[0];
+		}
+		List<Phone> phoneList = new ArrayList<Phone>(phones.size());
+		for (Map<String, String> entryPhone : phones) {
+			for (Map.Entry<String, String> entry : entryPhone.entrySet()) {
+				phoneList.add(new Phone(entry.getKey(), entry.getValue()));
+			}
+		}
+		return phoneList.toArray(new Phone[phoneList.size()]);
 	}
 
 	@Override
@@ -242,6 +348,17 @@ public class BriidgeServiceImpl implements BriidgeService {
 			DeviceFilter deviceFilter, Date expiry, Boolean verifyDevice,
 			String notificationType, String notificationUrl) throws Exception {
 
+		PairInitiationResponse pairInitiationResponse = skClient.pairDevice(newPairingRequest(userId, language, context,
+				deviceFilter, expiry, verifyDevice, notificationType, notificationUrl));
+		// pairing codes are credentials, they stay out of the logs
+		log.debug("pairDevice txnId=" + pairInitiationResponse.getTxnId());
+		return pairInitiationResponse;
+	}
+
+	static PairingRequest newPairingRequest(String userId, String language, String context,
+			DeviceFilter deviceFilter, Date expiry, Boolean verifyDevice,
+			String notificationType, String notificationUrl) {
+
 		PairingRequest pairingRequest = new PairingRequest();
 		pairingRequest.setUserId(userId);
 
@@ -268,10 +385,7 @@ public class BriidgeServiceImpl implements BriidgeService {
 		if (isNotBlank(notificationUrl)) {
 			pairingRequest.setNotificationUrl(notificationUrl);
 		}
-
-		PairInitiationResponse pairInitiationResponse = skClient.pairDevice(pairingRequest);
-		log.info("Pairing code : " + pairInitiationResponse.getPairCode());
-		return pairInitiationResponse;
+		return pairingRequest;
 	}
 
 	@Override
@@ -339,7 +453,9 @@ public class BriidgeServiceImpl implements BriidgeService {
 		GetDataRequest getDataRequest = new GetDataRequest();
 		getDataRequest.setTxnId(txnId);
 		GetDeviceIdResponse getDeviceIdResult = skClient.getDeviceData(getDataRequest);
-		log.info("Device id : " + getDeviceIdResult.getDeviceInfo().getDeviceId());
+		if (getDeviceIdResult.getDeviceInfo() != null) {
+			log.info("Device id : " + getDeviceIdResult.getDeviceInfo().getDeviceId());
+		}
 		return getDeviceIdResult;
 	}
 
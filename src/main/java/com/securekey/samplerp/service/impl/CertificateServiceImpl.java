@@ -0,0 +1,363 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.bouncycastle.util.io.pem.PemObject;
+import org.bouncycastle.util.io.pem.PemReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.securekey.samplerp.jfr.FlightEvents;
+import com.securekey.samplerp.http.OutboundHttpClient;
+import com.securekey.samplerp.service.CertificateService;
+import com.securekey.samplerp.trace.Span;
+import com.securekey.samplerp.trace.Tracer;
+import com.securekey.samplerp.util.LruMap;
+
+/**
+ * Downloads x5u signing certificates and caches parsed verifiers per URL.
+ * <br/>
+ * Cached entry lives for the max-age announced by the certificate server
+ * (or the configured default), never past certificate NotAfter date. Once
+ * expired, entry is still served for a bounded grace period while a single
+ * background download refreshes it. Concurrent misses for the same URL wait
+ * for one shared download.
+ * 
+ */
+@Service("certificateService")
+public class CertificateServiceImpl implements CertificateService {
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Value("#{system['certCache.maxEntries'] ?: 64}")
+	private int maxEntries;
+
+	@Value("#{system['certCache.defaultTtlSeconds'] ?: 3600}")
+	private long defaultTtlSeconds;
+
+	@Value("#{system['certCache.minTtlSeconds'] ?: 60}")
+	private long minTtlSeconds;
+
+	@Value("#{system['certCache.maxTtlSeconds'] ?: 86400}")
+	private long maxTtlSeconds;
+
+	@Value("#{system['certCache.maxStaleSeconds'] ?: 300}")
+	private long maxStaleSeconds;
+
+	@Value("#{system['certCache.refreshThreads'] ?: 2}")
+	private int refreshThreads;
+
+	private Map<String, CachedVerifier> cache;
+
+	private final ConcurrentMap<String, FutureTask<CachedVerifier>> downloads = new ConcurrentHashMap<String, FutureTask<CachedVerifier>>();
+
+	private ExecutorService refreshExecutor;
+
+	@Autowired private OutboundHttpClient outboundHttpClient;
+
+	@PostConstruct
+	private void initCertificateService() {
+		cache = new LruMap<String, CachedVerifier>(maxEntries);
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cert-refresh-");
+		threadFactory.setDaemon(true);
+		refreshExecutor = Executors.newFixedThreadPool(refreshThreads, threadFactory);
+	}
+
+	@PreDestroy
+	private void destroyCertificateService() {
+		refreshExecutor.shutdownNow();
+	}
+
+	@Override
+	public JWSVerifier getVerifier(URL x5u) throws IOException, CertificateException, InvalidKeyException {
+
+		if (x5u == null) {
+			throw new IOException("JWS header has no x5u certificate URL");
+		}
+
+		final String url = x5u.toString();
+		final long now = System.currentTimeMillis();
+
+		CachedVerifier cached;
+		synchronized (cache) {
+			cached = cache.get(url);
+		}
+
+		if (cached != null && now < cached.hardExpiry) {
+			if (now >= cached.expiry) {
+				refreshInBackground(url);
+			}
+			return cached.verifier;
+		}
+
+		return download(url);
+	}
+
+	/**
+	 * Number of cached certificates
+	 * 
+	 * @return int
+	 */
+	public int getCachedCount() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	private JWSVerifier download(String url) throws IOException, CertificateException, InvalidKeyException {
+
+		FutureTask<CachedVerifier> task = newDownloadTask(url);
+		FutureTask<CachedVerifier> running = downloads.putIfAbsent(url, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				downloads.remove(url, task);
+			}
+		}
+
+		try {
+			return running.get().verifier;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while downloading " + url, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof CertificateException) {
+				throw (CertificateException) cause;
+			} else if (cause instanceof InvalidKeyException) {
+				throw (InvalidKeyException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Failed to download " + url, cause);
+		}
+	}
+
+	private void refreshInBackground(final String url) {
+
+		final FutureTask<CachedVerifier> task = newDownloadTask(url);
+		if (downloads.putIfAbsent(url, task) == null) {
+			try {
+				refreshExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							downloads.remove(url, task);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				downloads.remove(url, task);
+			}
+		}
+	}
+
+	private FutureTask<CachedVerifier> newDownloadTask(final String url) {
+
+		return new FutureTask<CachedVerifier>(new Callable<CachedVerifier>() {
+			@Override
+			public CachedVerifier call() throws Exception {
+				try {
+					CachedVerifier loaded = fetch(url);
+					synchronized (cache) {
+						cache.put(url, loaded);
+					}
+					return loaded;
+				} catch (Exception e) {
+					log.warn("Certificate download from " + url + " failed: " + e.getMessage());
+					throw e;
+				}
+			}
+		});
+	}
+
+	private CachedVerifier fetch(String url) throws IOException, CertificateException, InvalidKeyException {
+
+		HttpGet request = new HttpGet(url);
+		request.addHeader("Accept", "text/plain");
+
+		String pemFileContent;
+		long maxAgeSeconds;
+		Span span = Tracer.start("cert.download");
+		Object event = FlightEvents.beginJwtStage();
+		String outcome = "jwt_pem_download_fail";
+		try {
+			CloseableHttpResponse response = outboundHttpClient.execute(request);
+			try {
+				int status = response.getStatusLine().getStatusCode();
+				HttpEntity entity = response.getEntity();
+				if (status < 200 || status >= 300 || entity == null) {
+					EntityUtils.consumeQuietly(entity);
+					throw new IOException("Certificate download from " + url + " returned HTTP " + status);
+				}
+				pemFileContent = EntityUtils.toString(entity);
+				maxAgeSeconds = maxAge(response.getHeaders("Cache-Control"));
+				outcome = "ok";
+			} finally {
+				response.close();
+			}
+		} finally {
+			span.finish();
+			FlightEvents.endJwtStage(event, FlightEvents.JWT_FETCH, outcome);
+		}
+
+		X509Certificate cert;
+		PublicKey publicKey;
+		span = Tracer.start("cert.parse");
+		event = FlightEvents.beginJwtStage();
+		outcome = "jwt_pem_not_cert";
+		try {
+			cert = parsePemCertificate(pemFileContent);
+			publicKey = cert.getPublicKey();
+			if (!(publicKey instanceof RSAPublicKey)) {
+				outcome = "jwt_pub_key_not_rsa";
+				throw new InvalidKeyException("Certificate public key is not RSA: " + publicKey.getAlgorithm());
+			}
+			outcome = "ok";
+		} finally {
+			span.finish();
+			FlightEvents.endJwtStage(event, FlightEvents.JWT_PARSE, outcome);
+		}
+
+		long ttlSeconds = maxAgeSeconds < 0 ? defaultTtlSeconds : maxAgeSeconds;
+		ttlSeconds = Math.min(Math.max(ttlSeconds, minTtlSeconds), maxTtlSeconds);
+
+		long now = System.currentTimeMillis();
+		long notAfter = cert.getNotAfter().getTime();
+		long expiry = Math.min(now + TimeUnit.SECONDS.toMillis(ttlSeconds), notAfter);
+		long hardExpiry = Math.min(expiry + TimeUnit.SECONDS.toMillis(maxStaleSeconds), notAfter);
+
+		return new CachedVerifier(new RSASSAVerifier((RSAPublicKey) publicKey), expiry, hardExpiry);
+	}
+
+	/**
+	 * Parses PEM encoded X.509 certificate
+	 * 
+	 * @param pemFileContent PEM file content
+	 * 
+	 * @return X509Certificate
+	 * 
+	 * @throws CertificateException if content is not a PEM encoded X.509 certificate
+	 */
+	public static X509Certificate parsePemCertificate(String pemFileContent) throws CertificateException {
+
+		PemObject pemObject;
+		PemReader pemReader = new PemReader(new StringReader(pemFileContent));
+		try {
+			pemObject = pemReader.readPemObject();
+		} catch (IOException e) {
+			throw new CertificateException("Invalid PEM content", e);
+		} finally {
+			try {
+				pemReader.close();
+			} catch (IOException e) {
+				// nothing to release for a string reader
+			}
+		}
+
+		if (pemObject == null) {
+			throw new CertificateException("No PEM object found");
+		}
+
+		Certificate serverCert = CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(pemObject.getContent()));
+		if (!(serverCert instanceof X509Certificate)) {
+			throw new CertificateException("Not an X.509 certificate: " + serverCert.getType());
+		}
+		return (X509Certificate) serverCert;
+	}
+
+	/**
+	 * @return max-age in seconds, or -1 if response doesn't specify it
+	 */
+	private static long maxAge(Header[] cacheControlHeaders) {
+
+		for (Header header : cacheControlHeaders) {
+			for (HeaderElement element : header.getElements()) {
+				if ("no-store".equalsIgnoreCase(element.getName()) || "no-cache".equalsIgnoreCase(element.getName())) {
+					return 0;
+				}
+				if ("max-age".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+					try {
+						return Long.parseLong(element.getValue().trim());
+					} catch (NumberFormatException e) {
+						return -1;
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static final class CachedVerifier {
+
+		private final JWSVerifier verifier;
+
+		/** served without refresh until this time */
+		private final long expiry;
+
+		/** never served past this time */
+		private final long hardExpiry;
+
+		private CachedVerifier(JWSVerifier verifier, long expiry, long hardExpiry) {
+			this.verifier = verifier;
+			this.expiry = expiry;
+			this.hardExpiry = hardExpiry;
+		}
+	}
+}
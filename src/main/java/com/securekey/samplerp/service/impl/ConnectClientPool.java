@@ -0,0 +1,518 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.securekey.connect.core.ConnectClient;
+import com.securekey.samplerp.service.ConnectClientBuilder;
+
+/**
+ * Pool of ConnectClient instances spread over one or more Connect endpoints.
+ * Each endpoint is a ConnectClientFactory configuration file (configFiles)
+ * with its own connectServer, clientsPerEndpoint clients are built from
+ * each.
+ * <br/>
+ * Every call goes to the client with the fewest calls outstanding, among the
+ * healthy endpoints. Health is passive: failureThreshold consecutive calls
+ * ending in an exception take the endpoint out of rotation for ejectMillis,
+ * after which it gets calls again; a success resets the count, another
+ * failure ejects it again. When every endpoint is ejected, calls go to all
+ * of them rather than fail here, the circuit breakers deal with outages.
+ * With retryReads, a failed call of one of the readOperations is repeated
+ * once on another endpoint; other calls may have taken effect and are not
+ * repeated, neither are calls cancelled by an interrupt.
+ * <br/>
+ * The pooled client is a dynamic proxy of the ConnectClient interface, so it
+ * stays independent of the operations the SDK version offers.
+ * <br/>
+ * {@link #reload} replaces every client while the proxy stays in place: the
+ * new clients are built and validated aside, then take all new calls at
+ * once. Calls already running finish on the old clients, which are closed
+ * once idle or after drainMillis.
+ * 
+ */
+public class ConnectClientPool {
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private List<String> configFiles = Arrays.asList("system.properties");
+
+	private int clientsPerEndpoint = 1;
+
+	private int failureThreshold = 5;
+
+	private long ejectMillis = 30000;
+
+	private boolean retryReads = true;
+
+	/** ConnectClient methods without side effects, getProvisioningAuthorizationCode issues a code */
+	private Set<String> readOperations = new HashSet<String>(Arrays.asList("getDeviceData", "getCardReadData",
+			"getSetQuickCodeData", "getPairDeviceData", "getVerifyPassCodeData", "getUser", "getDevices", "getDeviceById"));
+
+	private long drainMillis = 30000;
+
+	private volatile Generation current;
+
+	private final AtomicInteger generations = new AtomicInteger();
+
+	private final List<Generation> draining = new CopyOnWriteArrayList<Generation>();
+
+	/**
+	 * Check of a newly built client before it takes calls
+	 */
+	public interface Validator {
+
+		/**
+		 * @param client client to check
+		 * 
+		 * @throws Exception if the client can't take calls
+		 */
+		void validate(ConnectClient client) throws Exception;
+	}
+
+	public List<String> getConfigFiles() {
+		return configFiles;
+	}
+
+	public void setConfigFiles(List<String> configFiles) {
+		this.configFiles = configFiles;
+	}
+
+	public void setClientsPerEndpoint(int clientsPerEndpoint) {
+		this.clientsPerEndpoint = clientsPerEndpoint;
+	}
+
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public void setEjectMillis(long ejectMillis) {
+		this.ejectMillis = ejectMillis;
+	}
+
+	public void setRetryReads(boolean retryReads) {
+		this.retryReads = retryReads;
+	}
+
+	public void setReadOperations(String[] readOperations) {
+
+		this.readOperations = new HashSet<String>();
+		for (String operation : readOperations) {
+			this.readOperations.add(operation.trim());
+		}
+	}
+
+	public void setDrainMillis(long drainMillis) {
+		this.drainMillis = drainMillis;
+	}
+
+	/**
+	 * Builds the clients of every endpoint
+	 * 
+	 * @param builder creates the clients from a configuration file
+	 * 
+	 * @return client dispatching calls to the pooled clients
+	 * 
+	 * @throws Exception if one of the clients can't be built
+	 */
+	public ConnectClient build(ConnectClientBuilder builder) throws Exception {
+
+		swap(newGeneration(builder));
+		return (ConnectClient) Proxy.newProxyInstance(ConnectClient.class.getClassLoader(),
+				new Class<?>[] {ConnectClient.class}, new Dispatcher());
+	}
+
+	/**
+	 * Builds new clients for every endpoint, from the configuration files as
+	 * they are now, and switches the calls to them if they all validate. The
+	 * current clients are kept when building or validating fails.
+	 * 
+	 * @param builder creates the clients from a configuration file
+	 * @param validator checks each new client
+	 * 
+	 * @throws Exception if a client can't be built or doesn't validate
+	 */
+	public synchronized void reload(ConnectClientBuilder builder, Validator validator) throws Exception {
+
+		Generation next = newGeneration(builder);
+		try {
+			for (Member member : next.members) {
+				validator.validate(member.client);
+			}
+		} catch (Exception e) {
+			next.close();
+			throw e;
+		}
+		swap(next);
+	}
+
+	/**
+	 * @return number of the clients generation taking calls, 1 for the one
+	 *      built at startup
+	 */
+	public int getGeneration() {
+		Generation generation = current;
+		return generation == null ? 0 : generation.number;
+	}
+
+	/**
+	 * @return calls still running on replaced clients
+	 */
+	public int getDrainingCalls() {
+
+		int calls = 0;
+		for (Generation generation : draining) {
+			calls += generation.active.get();
+		}
+		return calls;
+	}
+
+	private Generation newGeneration(ConnectClientBuilder builder) throws Exception {
+
+		List<Endpoint> built = new ArrayList<Endpoint>();
+		List<Member> members = new ArrayList<Member>();
+		try {
+			for (String configFile : configFiles) {
+				if (configFile.trim().isEmpty()) {
+					continue;
+				}
+				Endpoint endpoint = new Endpoint(configFile.trim());
+				for (int i = 0; i < Math.max(1, clientsPerEndpoint); i++) {
+					members.add(new Member(endpoint, builder.build(endpoint.configFile)));
+				}
+				built.add(endpoint);
+			}
+		} catch (Exception e) {
+			new Generation(0, members, built).close();
+			throw e;
+		}
+		if (members.isEmpty()) {
+			throw new IllegalStateException("No Connect client configuration file");
+		}
+		return new Generation(generations.incrementAndGet(), members, built);
+	}
+
+	private synchronized void swap(Generation next) {
+
+		final Generation previous = current;
+		current = next;
+		log.info("Connect client pool generation " + next.number + " of " + next.members.length + " clients over "
+				+ next.endpoints.length + " endpoints");
+		if (previous == null) {
+			return;
+		}
+
+		previous.retired = true;
+		draining.add(previous);
+		Thread drain = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					previous.drain(drainMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					previous.close();
+					draining.remove(previous);
+				}
+			}
+		}, "connect-drain-" + previous.number);
+		drain.setDaemon(true);
+		drain.start();
+	}
+
+	/**
+	 * @return per endpoint: clients, calls outstanding, calls, failures,
+	 *      ejections and whether it is in rotation
+	 */
+	public Map<String, Object> getStats() {
+
+		long now = System.currentTimeMillis();
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		Generation generation = current;
+		if (generation == null) {
+			return stats;
+		}
+		for (Endpoint endpoint : generation.endpoints) {
+			Map<String, Object> endpointStats = new LinkedHashMap<String, Object>();
+			endpointStats.put("clients", endpoint.clients);
+			endpointStats.put("outstanding", endpoint.outstanding.get());
+			endpointStats.put("calls", endpoint.calls.get());
+			endpointStats.put("failures", endpoint.failures.get());
+			endpointStats.put("consecutiveFailures", endpoint.consecutiveFailures.get());
+			endpointStats.put("ejections", endpoint.ejections.get());
+			endpointStats.put("healthy", endpoint.isHealthy(now));
+			stats.put(endpoint.configFile, endpointStats);
+		}
+		return stats;
+	}
+
+	/**
+	 * The interrupt flag is usually cleared by the time the exception
+	 * arrives, so the cause chain is checked as well
+	 */
+	private static boolean isInterrupt(Throwable failure) {
+
+		if (Thread.currentThread().isInterrupted()) {
+			return true;
+		}
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private final class Dispatcher implements InvocationHandler {
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+			if (method.getDeclaringClass() == Object.class) {
+				return method.invoke(this, args);
+			}
+
+			Generation generation = enter();
+			try {
+				Member member = generation.select(null);
+				try {
+					return member.invoke(method, args);
+				} catch (Exception e) {
+					if (retryReads && readOperations.contains(method.getName()) && !isInterrupt(e)) {
+						Member other = generation.select(member.endpoint);
+						if (other != null) {
+							log.debug("Retrying " + method.getName() + " failed on " + member.endpoint.configFile
+									+ " on " + other.endpoint.configFile);
+							return other.invoke(method, args);
+						}
+					}
+					throw e;
+				}
+			} finally {
+				generation.active.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Registers the call with the current generation. A generation
+		 * retired in the meantime is left for the one replacing it, so a
+		 * drained generation gets no new calls.
+		 */
+		private Generation enter() {
+
+			while (true) {
+				Generation generation = current;
+				generation.active.incrementAndGet();
+				if (!generation.retired) {
+					return generation;
+				}
+				generation.active.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Clients built together from the configuration files, replaced as a
+	 * whole on reload
+	 */
+	private final class Generation {
+
+		private final int number;
+
+		private final Member[] members;
+
+		private final Endpoint[] endpoints;
+
+		private final AtomicInteger next = new AtomicInteger();
+
+		/** calls entered, including the ones about to leave for a newer generation */
+		private final AtomicInteger active = new AtomicInteger();
+
+		private volatile boolean retired;
+
+		private Generation(int number, List<Member> members, List<Endpoint> endpoints) {
+			this.number = number;
+			this.members = members.toArray(new Member[members.size()]);
+			this.endpoints = endpoints.toArray(new Endpoint[endpoints.size()]);
+		}
+
+		/**
+		 * Least outstanding client of a healthy endpoint, scanning from a
+		 * rotating start so ties are spread
+		 * 
+		 * @param excluded endpoint to skip, or null
+		 * 
+		 * @return null only if every client belongs to the excluded endpoint
+		 */
+		private Member select(Endpoint excluded) {
+
+			long now = System.currentTimeMillis();
+			int start = (next.getAndIncrement() & Integer.MAX_VALUE) % members.length;
+			Member healthy = null;
+			Member ejected = null;
+			for (int i = 0; i < members.length; i++) {
+				Member member = members[(start + i) % members.length];
+				if (member.endpoint == excluded) {
+					continue;
+				}
+				if (member.endpoint.isHealthy(now)) {
+					if (healthy == null || member.outstanding.get() < healthy.outstanding.get()) {
+						healthy = member;
+					}
+				} else if (ejected == null || member.outstanding.get() < ejected.outstanding.get()) {
+					ejected = member;
+				}
+			}
+			return healthy != null ? healthy : ejected;
+		}
+
+		/**
+		 * Waits for the calls running on a retired generation
+		 */
+		private void drain(long maxMillis) throws InterruptedException {
+
+			long deadline = System.currentTimeMillis() + maxMillis;
+			while (active.get() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			if (active.get() > 0) {
+				log.warn("Closing Connect client pool generation " + number + " with " + active.get()
+						+ " calls still running after " + maxMillis + "ms");
+			} else {
+				log.info("Connect client pool generation " + number + " drained");
+			}
+		}
+
+		/**
+		 * Closes the clients that hold resources of their own
+		 */
+		private void close() {
+
+			for (Member member : members) {
+				if (member.client instanceof Closeable) {
+					try {
+						((Closeable) member.client).close();
+					} catch (Exception e) {
+						log.warn("Closing Connect client of " + member.endpoint.configFile + " failed: " + e);
+					}
+				}
+			}
+		}
+	}
+
+	private final class Member {
+
+		private final Endpoint endpoint;
+
+		private final ConnectClient client;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		private Member(Endpoint endpoint, ConnectClient client) {
+			this.endpoint = endpoint;
+			this.client = client;
+			endpoint.clients++;
+		}
+
+		private Object invoke(Method method, Object[] args) throws Exception {
+
+			outstanding.incrementAndGet();
+			endpoint.outstanding.incrementAndGet();
+			endpoint.calls.incrementAndGet();
+			try {
+				Object result = method.invoke(client, args);
+				endpoint.succeeded();
+				return result;
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				// a call cancelled by a timeout says nothing about the endpoint
+				if (!isInterrupt(cause)) {
+					endpoint.failed();
+				}
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				}
+				throw (Error) cause;
+			} finally {
+				outstanding.decrementAndGet();
+				endpoint.outstanding.decrementAndGet();
+			}
+		}
+	}
+
+	private final class Endpoint {
+
+		private final String configFile;
+
+		private int clients;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+		private final AtomicLong calls = new AtomicLong();
+
+		private final AtomicLong failures = new AtomicLong();
+
+		private final AtomicLong ejections = new AtomicLong();
+
+		private volatile long ejectedUntil;
+
+		private Endpoint(String configFile) {
+			this.configFile = configFile;
+		}
+
+		private boolean isHealthy(long now) {
+			return now >= ejectedUntil;
+		}
+
+		private void succeeded() {
+			consecutiveFailures.set(0);
+		}
+
+		private void failed() {
+
+			failures.incrementAndGet();
+			long now = System.currentTimeMillis();
+			if (consecutiveFailures.incrementAndGet() >= failureThreshold && isHealthy(now)) {
+				ejectedUntil = now + ejectMillis;
+				ejections.incrementAndGet();
+				log.warn("Connect endpoint " + configFile + " out of rotation for " + ejectMillis + "ms after "
+						+ consecutiveFailures.get() + " consecutive failures");
+			}
+		}
+	}
+}
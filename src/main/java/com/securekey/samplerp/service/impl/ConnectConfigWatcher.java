@@ -0,0 +1,256 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Reloads the Connect client when its configuration changes, without a
+ * restart. Every reloadSeconds the ConnectClientFactory configuration files
+ * of the pool and the keystore each of them names (keyStoreFile) are
+ * checked (keyStoreFile of system.properties for files that don't name
+ * one); once a change has stayed the same for one more check, so files
+ * are not read half written, BriidgeServiceImpl builds and validates a new
+ * client in the background and the pool switches calls to it. Caches,
+ * circuit breakers and compiled code stay as they are.
+ * <br/>
+ * Only files on the file system are watched, a configuration packaged in a
+ * jar can't change. A reload that fails is logged, the current client stays
+ * in use and the reload is tried again every reloadSeconds until it goes
+ * through or the files change again.
+ * 
+ */
+public class ConnectConfigWatcher {
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private BriidgeServiceImpl connectService;
+
+	private ConnectClientPool connectClientPool;
+
+	private long reloadSeconds = 10;
+
+	/** keystore of configuration files without a keyStoreFile of their own */
+	@Value("#{system['keyStoreFile'] ?: ''}")
+	private String keyStoreFile;
+
+	private ScheduledExecutorService watcher;
+
+	/** watcher thread only: modification time and length of the watched files */
+	private Map<String, String> loaded;
+
+	private Map<String, String> pending;
+
+	private volatile List<String> watched = new ArrayList<String>();
+
+	private volatile int reloads;
+
+	private volatile int failures;
+
+	private volatile long lastReloadAt;
+
+	private volatile String lastError;
+
+	/**
+	 * @param connectService Connect client target, not the intercepted
+	 *      briidgeService proxy
+	 */
+	public void setConnectService(BriidgeServiceImpl connectService) {
+		this.connectService = connectService;
+	}
+
+	public void setConnectClientPool(ConnectClientPool connectClientPool) {
+		this.connectClientPool = connectClientPool;
+	}
+
+	/**
+	 * @param reloadSeconds interval between checks, 0 turns reloading off
+	 */
+	public void setReloadSeconds(long reloadSeconds) {
+		this.reloadSeconds = reloadSeconds;
+	}
+
+	@PostConstruct
+	private void initConnectConfigWatcher() {
+
+		if (reloadSeconds <= 0) {
+			return;
+		}
+		loaded = snapshot();
+		log.info("Watching Connect configuration " + watched + " every " + reloadSeconds + "s");
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("connect-config-");
+		threadFactory.setDaemon(true);
+		watcher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		watcher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					check();
+				} catch (RuntimeException e) {
+					log.error("Checking the Connect configuration failed", e);
+				}
+			}
+		}, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	private void destroyConnectConfigWatcher() {
+		if (watcher != null) {
+			watcher.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return watched files, client generation in use, calls still running
+	 *      on replaced clients, reloads, failed reloads, time of the last
+	 *      reload and last error
+	 */
+	public Map<String, Object> getStatus() {
+
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("enabled", reloadSeconds > 0);
+		status.put("watched", watched);
+		status.put("generation", connectClientPool == null ? 0 : connectClientPool.getGeneration());
+		status.put("drainingCalls", connectClientPool == null ? 0 : connectClientPool.getDrainingCalls());
+		status.put("reloads", reloads);
+		status.put("failures", failures);
+		status.put("lastReloadAt", lastReloadAt);
+		status.put("lastError", lastError);
+		return status;
+	}
+
+	private void check() {
+
+		Map<String, String> files = snapshot();
+		if (files.equals(loaded)) {
+			pending = null;
+			return;
+		}
+		if (!files.equals(pending)) {
+			// still being written, maybe
+			pending = files;
+			return;
+		}
+
+		log.info("Connect configuration changed, reloading the Connect client");
+		try {
+			connectService.reloadConnectClient();
+			// only a reload that went through settles the change, a failed one is retried on the next check
+			pending = null;
+			loaded = files;
+			reloads++;
+			lastReloadAt = System.currentTimeMillis();
+			lastError = null;
+		} catch (Exception e) {
+			failures++;
+			lastError = e.toString();
+			log.error("Reloading the Connect client failed, keeping the current one: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return modification time and length of every watched file that
+	 *      exists, by path
+	 */
+	private Map<String, String> snapshot() {
+
+		Map<String, String> files = new LinkedHashMap<String, String>();
+		List<String> configFiles = connectClientPool == null ? Arrays.asList("system.properties")
+				: connectClientPool.getConfigFiles();
+		for (String configFile : configFiles) {
+			if (configFile.trim().isEmpty()) {
+				continue;
+			}
+			File file = resolve(getClass().getClassLoader().getResource(configFile.trim()), configFile.trim());
+			add(files, file);
+			String keyStoreFile = keyStoreFile(file);
+			if (keyStoreFile != null) {
+				add(files, resolve(getClass().getResource(keyStoreFile), keyStoreFile));
+			}
+		}
+		watched = new ArrayList<String>(files.keySet());
+		return files;
+	}
+
+	private static void add(Map<String, String> files, File file) {
+		if (file != null && file.isFile()) {
+			files.put(file.getPath(), file.lastModified() + ":" + file.length());
+		}
+	}
+
+	/**
+	 * Same lookup as the keystore loading: a classpath resource, or else a
+	 * file path
+	 * 
+	 * @return null for a resource that is not a file, e.g. in a jar
+	 */
+	private static File resolve(URL resource, String path) {
+
+		if (resource == null) {
+			return new File(path);
+		}
+		if (!"file".equals(resource.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(resource.toURI());
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private String keyStoreFile(File configFile) {
+
+		if (configFile == null || !configFile.isFile()) {
+			return this.keyStoreFile.trim().isEmpty() ? null : this.keyStoreFile.trim();
+		}
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(configFile);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			log.warn("Reading " + configFile + " failed: " + e);
+			return null;
+		}
+		String keyStoreFile = properties.getProperty("keyStoreFile", this.keyStoreFile);
+		return keyStoreFile == null || keyStoreFile.trim().isEmpty() ? null : keyStoreFile.trim();
+	}
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.batch.BatchJobs;
+import com.securekey.samplerp.batch.BatchRunner;
+import com.securekey.samplerp.batch.DeviceRecord;
+import com.securekey.samplerp.batch.DeviceRecordReader;
+import com.securekey.samplerp.batch.NdjsonResultSink;
+import com.securekey.samplerp.batch.RecordHandler;
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.DeviceOperationsService;
+
+/**
+ * Streams device records through {@link BatchRunner}, each becoming one
+ * device management call.
+ * 
+ */
+@Service("deviceOperationsService")
+public class DeviceOperationsServiceImpl implements DeviceOperationsService {
+
+	@Autowired private BriidgeService briidgeService;
+
+	@Autowired private BatchJobs batchJobs;
+
+	@Value("#{system['batch.devices.parallelism'] ?: 16}")
+	private int parallelism;
+
+	@Value("#{system['batch.devices.maxInFlight'] ?: 512}")
+	private int maxInFlight;
+
+	@Value("#{system['batch.devices.ratePerSecond'] ?: 1000}")
+	private double ratePerSecond;
+
+	@Override
+	public Map<String, Object> apply(InputStream in, String format, String jobId, OutputStream out)
+			throws IOException, InterruptedException {
+
+		BatchRunner<DeviceRecord> runner = this.batchJobs.newRunner(jobId, parallelism, maxInFlight, ratePerSecond);
+		return this.batchJobs.run(runner, new DeviceRecordReader(in, format), new RecordHandler<DeviceRecord>() {
+			@Override
+			public Map<String, Object> process(DeviceRecord record) throws Exception {
+				return apply(record);
+			}
+		}, this.batchJobs.checkpoint(jobId), new NdjsonResultSink(out, parallelism));
+	}
+
+	private Map<String, Object> apply(DeviceRecord record) throws Exception {
+
+		Response response;
+		String action = record.getAction();
+		if (DeviceRecord.ACTION_VERIFY.equals(action)) {
+			response = this.briidgeService.verifyDevice(record.getUserId(), record.getDeviceId());
+		} else if (DeviceRecord.ACTION_DEVERIFY.equals(action)) {
+			response = this.briidgeService.deverifyDevice(record.getUserId(), record.getDeviceId());
+		} else if (DeviceRecord.ACTION_REMOVE.equals(action)) {
+			response = this.briidgeService.removeDevice(record.getUserId(), record.getDeviceId());
+		} else {
+			response = this.briidgeService.removeAllUserDevices(record.getUserId());
+		}
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("userId", record.getUserId());
+		if (record.getDeviceId() != null) {
+			result.put("deviceId", record.getDeviceId());
+		}
+		result.put("action", action);
+		return BatchRunner.putOutcome(result, response);
+	}
+}
@@ -0,0 +1,249 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.securekey.connect.beans.JsonObject;
+import com.securekey.connect.beans.client.GetDeviceIdResponse;
+import com.securekey.connect.beans.client.TxnResponse;
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.EnrollmentService;
+import com.securekey.samplerp.service.KnownEntityRegistry;
+import com.securekey.samplerp.service.interceptor.LatencyWindow;
+import com.securekey.samplerp.tenant.Tenant;
+import com.securekey.samplerp.tenant.TenantContext;
+import com.securekey.samplerp.trace.Tracer;
+
+/**
+ * Orchestrates multi step enrollment flows, running independent briidge.Net
+ * calls in parallel and skipping calls whose outcome is already known.
+ * 
+ */
+@Service("enrollmentService")
+public class EnrollmentServiceImpl implements EnrollmentService {
+
+	private static final String STEP_GET_DEVICE = "deviceInitiatedGetDevice";
+	private static final String STEP_ADD_USER = "addUser";
+	private static final String STEP_ADD_DEVICE = "addDevice";
+	private static final String STEP_INIT_SET_QUICK_CODE = "initSetQuickCode";
+	private static final String STEP_TOTAL = "total";
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired private BriidgeService briidgeService;
+
+	@Autowired private KnownEntityRegistry knownEntityRegistry;
+
+	@Value("#{system['enrollment.parallelThreads'] ?: 50}")
+	private int parallelThreads;
+
+	private ExecutorService executor;
+
+	/** addUser calls in progress, concurrent enrollments of the same user share one */
+	private final ConcurrentMap<String, Future<TxnResponse>> addUserInFlight = new ConcurrentHashMap<String, Future<TxnResponse>>();
+
+	private final Map<String, StepStats> stepStats = new LinkedHashMap<String, StepStats>();
+
+	@PostConstruct
+	private void initEnrollmentService() {
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("enrollment-");
+		threadFactory.setDaemon(true);
+		// no queue, caller runs the step itself once all threads are busy. Unlike CallerRunsPolicy
+		// this also runs it after shutdown, a discarded step would leave its caller waiting forever
+		executor = new ThreadPoolExecutor(0, parallelThreads, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), threadFactory, new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable step, ThreadPoolExecutor executor) {
+						step.run();
+					}
+				});
+
+		for (String step : new String[] {STEP_GET_DEVICE, STEP_ADD_USER, STEP_ADD_DEVICE, STEP_INIT_SET_QUICK_CODE, STEP_TOTAL}) {
+			stepStats.put(step, new StepStats());
+		}
+	}
+
+	@PreDestroy
+	private void destroyEnrollmentService() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public JsonObject initMobileQuickcode(String txnId, String userId) throws Exception {
+
+		long start = System.nanoTime();
+		KnownEntityRegistry registry = TenantContext.resolve(this.knownEntityRegistry, KnownEntityRegistry.class);
+		Future<TxnResponse> addUser = registry.skipAddUser(userId) ? null : addUser(userId);
+
+		long stepStart = System.nanoTime();
+		GetDeviceIdResponse digc = this.briidgeService.deviceInitiatedGetDevice(txnId, null);
+		long getDeviceMillis = record(STEP_GET_DEVICE, stepStart);
+
+		if (digc.getError() != null || digc.getDeviceInfo() == null) {
+			// addUser keeps running, a retry with a new txnId will find the user created
+			log.info("initMobileQuickcode txnId=" + txnId + " device lookup failed " + getDeviceMillis + "ms, error " + digc.getError());
+			record(STEP_TOTAL, start);
+			return digc;
+		}
+
+		stepStart = System.nanoTime();
+		if (addUser != null) {
+			await(addUser);
+		}
+		long addUserWaitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stepStart);
+
+		String deviceId = digc.getDeviceInfo().getDeviceId();
+		long addDeviceMillis = 0;
+		boolean addDeviceSkipped = registry.skipAddDevice(userId, deviceId);
+		if (!addDeviceSkipped) {
+			stepStart = System.nanoTime();
+			this.briidgeService.addDevice(userId, deviceId, true);
+			addDeviceMillis = record(STEP_ADD_DEVICE, stepStart);
+		}
+
+		stepStart = System.nanoTime();
+		TxnResponse setQuickCode = this.briidgeService.initSetQuickCode(userId, null);
+		long setQuickCodeMillis = record(STEP_INIT_SET_QUICK_CODE, stepStart);
+
+		long totalMillis = record(STEP_TOTAL, start);
+		log.info("initMobileQuickcode txnId=" + txnId + " " + STEP_GET_DEVICE + "=" + getDeviceMillis
+				+ "ms " + STEP_ADD_USER + "Wait=" + (addUser == null ? "skipped" : addUserWaitMillis + "ms")
+				+ " " + STEP_ADD_DEVICE + "=" + (addDeviceSkipped ? "skipped" : addDeviceMillis + "ms")
+				+ " " + STEP_INIT_SET_QUICK_CODE + "=" + setQuickCodeMillis
+				+ "ms total=" + totalMillis + "ms");
+		return setQuickCode;
+	}
+
+	@Override
+	public Map<String, Object> getInitMobileQuickcodeStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, StepStats> entry : stepStats.entrySet()) {
+			stats.put(entry.getKey(), entry.getValue().toMap());
+		}
+		return stats;
+	}
+
+	private Future<TxnResponse> addUser(final String userId) {
+
+		FutureTask<TxnResponse> task = new FutureTask<TxnResponse>(TenantContext.wrap(Tracer.wrap(new Callable<TxnResponse>() {
+			@Override
+			public TxnResponse call() throws Exception {
+				long stepStart = System.nanoTime();
+				try {
+					return briidgeService.addUser(userId, null);
+				} finally {
+					record(STEP_ADD_USER, stepStart);
+				}
+			}
+		})));
+
+		// users of different tenants are different users
+		Tenant tenant = TenantContext.current();
+		final String key = tenant == null ? userId : tenant.getId() + "/" + userId;
+		Future<TxnResponse> running = addUserInFlight.putIfAbsent(key, task);
+		if (running != null) {
+			return running;
+		}
+		final FutureTask<TxnResponse> owned = task;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					owned.run();
+				} finally {
+					addUserInFlight.remove(key, owned);
+				}
+			}
+		});
+		return task;
+	}
+
+	/**
+	 * Waits for the step, its outcome is not checked: briidge.Net reports an
+	 * error for users that already exist, which is the common case.
+	 */
+	private static void await(Future<?> step) throws Exception {
+		try {
+			step.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	private long record(String step, long startNanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		stepStats.get(step).record(millis);
+		return millis;
+	}
+
+	private static final class StepStats {
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong totalMillis = new AtomicLong();
+
+		private final LatencyWindow p50 = new LatencyWindow(1000, 50, 1);
+
+		private final LatencyWindow p99 = new LatencyWindow(1000, 99, 1);
+
+		private void record(long millis) {
+			count.incrementAndGet();
+			totalMillis.addAndGet(millis);
+			p50.record(millis);
+			p99.record(millis);
+		}
+
+		private Map<String, Object> toMap() {
+			long n = count.get();
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("count", n);
+			map.put("meanMillis", n == 0 ? 0 : totalMillis.get() / n);
+			map.put("p50Millis", Math.max(0, p50.getPercentile()));
+			map.put("p99Millis", Math.max(0, p99.getPercentile()));
+			return map;
+		}
+	}
+}
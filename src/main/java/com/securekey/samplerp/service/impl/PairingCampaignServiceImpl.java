@@ -0,0 +1,224 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.securekey.connect.beans.client.PairInitiationResponse;
+import com.securekey.connect.beans.client.TxnResponse;
+import com.securekey.samplerp.batch.BatchJobs;
+import com.securekey.samplerp.batch.BatchRunner;
+import com.securekey.samplerp.batch.Checkpoint;
+import com.securekey.samplerp.batch.JobRunningException;
+import com.securekey.samplerp.batch.NdjsonResultSink;
+import com.securekey.samplerp.batch.PairingCampaign;
+import com.securekey.samplerp.batch.PairingLedger;
+import com.securekey.samplerp.batch.RecordHandler;
+import com.securekey.samplerp.batch.UserIdRecordReader;
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.KnownEntityRegistry;
+import com.securekey.samplerp.service.PairingCampaignService;
+import com.securekey.samplerp.service.TransactionState;
+import com.securekey.samplerp.service.TransactionStateService;
+import com.securekey.samplerp.service.interceptor.ErrorResponses;
+import com.securekey.samplerp.tenant.TenantContext;
+
+/**
+ * Streams user lists through {@link BatchRunner}: addUser when the user
+ * isn't known yet, then pairDevice, recording every code in the campaign's
+ * {@link PairingLedger}. Codes whose pairing completion was notified (see
+ * {@link TransactionStateService}) are marked paired as the list is run
+ * again.
+ * <br/>
+ * Timed out calls aren't retried: the pairDevice may have issued a code
+ * the answer never carried, a new one would be a second mailing. The user
+ * has no ledger entry, so running the list again issues the code.
+ * 
+ */
+@Service("pairingCampaignService")
+public class PairingCampaignServiceImpl implements PairingCampaignService {
+
+	private static final String HTTP_POST = "httpPost";
+
+	@Autowired private BriidgeService briidgeService;
+
+	@Autowired private KnownEntityRegistry knownEntityRegistry;
+
+	@Autowired private TransactionStateService transactionStateService;
+
+	@Autowired private BatchJobs batchJobs;
+
+	@Value("#{system['campaign.dir'] ?: systemProperties['java.io.tmpdir'] + '/samplerp-campaigns'}")
+	private File campaignDir;
+
+	@Value("#{system['campaign.parallelism'] ?: 16}")
+	private int parallelism;
+
+	@Value("#{system['campaign.maxInFlight'] ?: 256}")
+	private int maxInFlight;
+
+	@Value("#{system['campaign.ratePerSecond'] ?: 0}")
+	private double ratePerSecond;
+
+	/** ledgers of running campaigns */
+	private final ConcurrentMap<String, PairingLedger> running = new ConcurrentHashMap<String, PairingLedger>();
+
+	@Override
+	public Map<String, Object> run(final PairingCampaign campaign, String runId, InputStream in, String format,
+			OutputStream out) throws IOException, InterruptedException {
+
+		if (!Checkpoint.isValidJobId(runId)) {
+			throw new IllegalArgumentException("Invalid run id " + runId);
+		}
+		final PairingLedger ledger = new PairingLedger(campaignDir, campaign.getCampaignId());
+		if (running.putIfAbsent(campaign.getCampaignId(), ledger) != null) {
+			throw new JobRunningException("Campaign " + campaign.getCampaignId() + " is already running");
+		}
+		try {
+			if (!campaignDir.isDirectory() && !campaignDir.mkdirs()) {
+				throw new IOException("Can't create campaign directory " + campaignDir);
+			}
+			final Writer codes = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(new File(campaignDir, runId + ".codes.csv")), StandardCharsets.UTF_8));
+			try {
+				codes.write("userId,pairCode,txnId,expiry\n");
+				BatchRunner<String> runner = this.batchJobs.newRunner(runId, parallelism, maxInFlight, ratePerSecond);
+				runner.setNotRetriedErrors(ErrorResponses.TIMEOUT);
+				return this.batchJobs.run(runner, new UserIdRecordReader(in, format), new RecordHandler<String>() {
+					@Override
+					public Map<String, Object> process(String userId) throws Exception {
+						return issue(campaign, ledger, codes, userId);
+					}
+				}, this.batchJobs.checkpoint(runId), new NdjsonResultSink(out, parallelism));
+			} finally {
+				codes.close();
+			}
+		} finally {
+			running.remove(campaign.getCampaignId());
+			ledger.compact();
+		}
+	}
+
+	private Map<String, Object> issue(PairingCampaign campaign, PairingLedger ledger, Writer codes, String userId)
+			throws Exception {
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("userId", userId);
+
+		String state = ledger.state(userId);
+		if (PairingLedger.OUTSTANDING.equals(state) || PairingLedger.EXPIRED.equals(state)) {
+			PairingLedger.Entry entry = ledger.get(userId);
+			TransactionState txn = this.transactionStateService.get(entry.getTxnId());
+			if (txn != null && txn.isSuccessful()) {
+				ledger.record(userId, entry.getTxnId(), entry.getExpiresAt(), PairingLedger.PAIRED);
+				state = PairingLedger.PAIRED;
+			}
+		}
+		if (PairingLedger.OUTSTANDING.equals(state) || PairingLedger.PAIRED.equals(state)) {
+			result.put("status", BatchRunner.STATUS_SKIPPED);
+			result.put("state", state);
+			return result;
+		}
+
+		if (campaign.isAddUsers() && !TenantContext.resolve(this.knownEntityRegistry, KnownEntityRegistry.class).skipAddUser(userId)) {
+			// an existing user is reported as an error, pairDevice tells whether the user is really missing
+			TxnResponse added = this.briidgeService.addUser(userId, null);
+			if (ErrorResponses.isLocal(added.getError())) {
+				return BatchRunner.putOutcome(result, added);
+			}
+		}
+
+		// completion is notified to notificationController unless the campaign says otherwise
+		String notificationType = campaign.getNotificationType();
+		String notificationUrl = campaign.getNotificationUrl();
+		if (isBlank(notificationType) && this.transactionStateService.getNotificationUrl() != null) {
+			notificationType = HTTP_POST;
+			notificationUrl = this.transactionStateService.getNotificationUrl();
+		}
+
+		Date expiry = new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(campaign.getExpiryMinutes()));
+		PairInitiationResponse pd = this.briidgeService.pairDevice(userId, campaign.getLanguage(),
+				campaign.getContext(), null, expiry, campaign.getVerifyDevice(), notificationType, notificationUrl);
+
+		if (pd.getError() == null) {
+			// the code is on disk before the ledger says it is outstanding, a crash in between
+			// leaves the user without ledger entry, so the next run issues a new code
+			synchronized (codes) {
+				codes.write(csv(userId) + "," + csv(pd.getPairCode()) + "," + csv(pd.getTxnId()) + ","
+						+ expiry.getTime() + "\n");
+				codes.flush();
+			}
+			ledger.record(userId, pd.getTxnId(), expiry.getTime(), PairingLedger.OUTSTANDING);
+			if (HTTP_POST.equals(notificationType)) {
+				this.transactionStateService.pending(pd.getTxnId(), "pairDevice");
+			}
+			result.put("txnId", pd.getTxnId());
+			result.put("expiry", expiry.getTime());
+		} else if (!ErrorResponses.isLocal(pd.getError())) {
+			ledger.record(userId, null, 0, PairingLedger.FAILED);
+		}
+		return BatchRunner.putOutcome(result, pd);
+	}
+
+	private static String csv(String value) {
+
+		if (value == null) {
+			return "";
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	@Override
+	public Map<String, Object> getLedgerStats(String campaignId) throws IOException {
+
+		if (!Checkpoint.isValidJobId(campaignId)) {
+			return null;
+		}
+		PairingLedger ledger = running.get(campaignId);
+		if (ledger != null) {
+			return ledger.getStats();
+		}
+		if (!new File(campaignDir, campaignId + ".ledger").isFile()) {
+			return null;
+		}
+		ledger = new PairingLedger(campaignDir, campaignId);
+		ledger.close();
+		return ledger.getStats();
+	}
+}
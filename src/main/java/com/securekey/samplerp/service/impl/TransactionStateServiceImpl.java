@@ -0,0 +1,252 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.TransactionState;
+import com.securekey.samplerp.service.TransactionStateService;
+import com.securekey.samplerp.tenant.Tenant;
+import com.securekey.samplerp.tenant.TenantContext;
+import com.securekey.samplerp.util.LruMap;
+
+/**
+ * Memory bounded transaction state store. Entries are dropped after the
+ * retention time or, least recently used first, once maxEntries is
+ * reached. Results are retrieved with pairDeviceData on connectExecutor; a
+ * transaction is completed by an answer without error or with one of
+ * txn.terminalErrors only, others leave it pending for the next
+ * notification. Notifications are requested only while notification.secret
+ * is set, NotificationController refuses them otherwise.
+ * 
+ */
+@Service("transactionStateService")
+public class TransactionStateServiceImpl implements TransactionStateService {
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired private BriidgeService briidgeService;
+
+	@Autowired @Qualifier("connectExecutor") private TaskExecutor connectExecutor;
+
+	@Value("#{system['notification.callbackUrl'] ?: ''}")
+	private String notificationUrl;
+
+	@Value("#{system['notification.secret'] ?: ''}")
+	private String secret;
+
+	@Value("#{system['txn.terminalErrors'] ?: 'unknown_txn'}")
+	private String[] terminalErrors;
+
+	private Set<String> terminal;
+
+	@Value("#{system['txnState.maxEntries'] ?: 100000}")
+	private int maxEntries;
+
+	@Value("#{system['txnState.retentionMinutes'] ?: 60}")
+	private int retentionMinutes;
+
+	private LruMap<String, TransactionState> states;
+
+	private final List<CompletionListener> listeners = new CopyOnWriteArrayList<CompletionListener>();
+
+	private final AtomicLong notifications = new AtomicLong();
+
+	private final AtomicLong duplicates = new AtomicLong();
+
+	private final AtomicLong unknown = new AtomicLong();
+
+	private final AtomicLong retrievals = new AtomicLong();
+
+	private final AtomicLong retrievalFailures = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+
+		states = new LruMap<String, TransactionState>(maxEntries);
+		terminal = new HashSet<String>();
+		for (String error : terminalErrors) {
+			if (!error.trim().isEmpty()) {
+				terminal.add(error.trim());
+			}
+		}
+		if (!isBlank(notificationUrl) && isBlank(secret)) {
+			log.error("notification.callbackUrl is set but notification.secret is not, completion notifications are off");
+		}
+	}
+
+	@Override
+	public String getNotificationUrl() {
+
+		if (isBlank(secret)) {
+			// they would be refused
+			return null;
+		}
+		Tenant tenant = TenantContext.current();
+		String url = tenant == null ? notificationUrl : tenant.getProperty("notification.callbackUrl");
+		return isBlank(url) ? null : url;
+	}
+
+	@Override
+	public void addCompletionListener(CompletionListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void pending(String txnId, String operation) {
+
+		synchronized (states) {
+			if (states.get(txnId) == null) {
+				states.put(txnId, new TransactionState(txnId, operation, TransactionState.PENDING, null, null));
+			}
+		}
+	}
+
+	@Override
+	public Notification notified(final String txnId, final String status) {
+
+		notifications.incrementAndGet();
+		final TransactionState previous;
+		synchronized (states) {
+			previous = current(txnId);
+			if (previous == null) {
+				// never initiated here (or expired), don't let callers trigger backend calls
+				unknown.incrementAndGet();
+				return Notification.UNKNOWN;
+			}
+			if (!TransactionState.PENDING.equals(previous.getState())) {
+				duplicates.incrementAndGet();
+				return Notification.DUPLICATE;
+			}
+			states.put(txnId, new TransactionState(txnId, previous.getOperation(), TransactionState.RETRIEVING, status, null));
+		}
+
+		try {
+			connectExecutor.execute(TenantContext.wrap(new Runnable() {
+				@Override
+				public void run() {
+					retrieve(txnId, status, previous);
+				}
+			}));
+		} catch (TaskRejectedException e) {
+			synchronized (states) {
+				states.put(txnId, previous);
+			}
+			throw e;
+		}
+		return Notification.ACCEPTED;
+	}
+
+	private void retrieve(String txnId, String status, TransactionState previous) {
+
+		retrievals.incrementAndGet();
+		Response result = null;
+		try {
+			result = this.briidgeService.pairDeviceData(txnId);
+		} catch (Exception e) {
+			log.warn("Retrieving notified transaction " + txnId + " failed", e);
+		}
+
+		TransactionState completed = null;
+		synchronized (states) {
+			if (result == null || !(result.getError() == null || terminal.contains(result.getError()))) {
+				// local errors, system_error or still in progress: let a repeated notification retry the retrieval
+				retrievalFailures.incrementAndGet();
+				states.put(txnId, previous);
+			} else {
+				completed = new TransactionState(txnId, previous.getOperation(), TransactionState.COMPLETED, status, result);
+				states.put(txnId, completed);
+			}
+		}
+		if (completed != null) {
+			for (CompletionListener listener : listeners) {
+				listener.completed(completed);
+			}
+		}
+	}
+
+	@Override
+	public TransactionState get(String txnId) {
+
+		synchronized (states) {
+			return current(txnId);
+		}
+	}
+
+	/** callers synchronize on states */
+	private TransactionState current(String txnId) {
+
+		TransactionState state = states.get(txnId);
+		if (state != null && state.getUpdatedAt() < System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes)) {
+			states.remove(txnId);
+			return null;
+		}
+		return state;
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("notifications", notifications.get());
+		stats.put("duplicates", duplicates.get());
+		stats.put("unknown", unknown.get());
+		stats.put("retrievals", retrievals.get());
+		stats.put("retrievalFailures", retrievalFailures.get());
+
+		Map<String, Integer> byState = new LinkedHashMap<String, Integer>();
+		for (String state : new String[] { TransactionState.PENDING, TransactionState.RETRIEVING, TransactionState.COMPLETED }) {
+			byState.put(state, 0);
+		}
+		long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+		synchronized (states) {
+			for (Iterator<TransactionState> it = states.values().iterator(); it.hasNext();) {
+				TransactionState state = it.next();
+				if (state.getUpdatedAt() < expiredBefore) {
+					it.remove();
+				} else {
+					byState.put(state.getState(), byState.get(state.getState()) + 1);
+				}
+			}
+		}
+		stats.put("transactions", byState);
+		stats.put("maxEntries", maxEntries);
+		return stats;
+	}
+}
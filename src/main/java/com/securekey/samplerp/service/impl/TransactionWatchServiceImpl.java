@@ -0,0 +1,334 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.TransactionState;
+import com.securekey.samplerp.service.TransactionStateService;
+import com.securekey.samplerp.service.TransactionWatchService;
+import com.securekey.samplerp.service.interceptor.ErrorResponses;
+import com.securekey.samplerp.tenant.Tenant;
+import com.securekey.samplerp.tenant.TenantContext;
+
+/**
+ * Watchers are scheduled on a single timer thread, their polls run on
+ * connectExecutor. A response is final only without error or with one of
+ * txn.terminalErrors (unknown_txn): the code of a transaction still in
+ * progress is not documented, so any other error, including locally
+ * generated ones (see {@link ErrorResponses}) and system_error, is polled
+ * again, as are exceptions. Polling backs off
+ * from initialDelayMillis, doubling up to maxDelayMillis, and gives up after
+ * maxWatchMillis.
+ * <br/>
+ * Pairings known to be pending on a completion notification are polled at
+ * maxDelayMillis only, as a safety net.
+ * 
+ */
+@Service("transactionWatchService")
+public class TransactionWatchServiceImpl implements TransactionWatchService {
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Autowired private BriidgeService briidgeService;
+
+	@Autowired private TransactionStateService transactionStateService;
+
+	@Autowired @Qualifier("connectExecutor") private TaskExecutor connectExecutor;
+
+	@Value("#{system['watch.initialDelayMillis'] ?: 250}")
+	private long initialDelayMillis;
+
+	@Value("#{system['watch.maxDelayMillis'] ?: 5000}")
+	private long maxDelayMillis;
+
+	@Value("#{system['watch.maxWatchMillis'] ?: 120000}")
+	private long maxWatchMillis;
+
+	@Value("#{system['txn.terminalErrors'] ?: 'unknown_txn'}")
+	private String[] terminalErrors;
+
+	private Set<String> terminal;
+
+	private ScheduledExecutorService timer;
+
+	private final ConcurrentMap<String, Watcher> watchers = new ConcurrentHashMap<String, Watcher>();
+
+	private final AtomicLong polls = new AtomicLong();
+
+	private final AtomicLong completions = new AtomicLong();
+
+	private final AtomicLong notifiedCompletions = new AtomicLong();
+
+	private final AtomicLong expirations = new AtomicLong();
+
+	@PostConstruct
+	public void init() {
+
+		terminal = new HashSet<String>();
+		for (String error : terminalErrors) {
+			if (!error.trim().isEmpty()) {
+				terminal.add(error.trim());
+			}
+		}
+		timer = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("txn-watch-"));
+
+		this.transactionStateService.addCompletionListener(new TransactionStateService.CompletionListener() {
+			@Override
+			public void completed(TransactionState state) {
+				Watcher watcher = watchers.get(key(PAIR_DEVICE_DATA, state.getTxnId()));
+				if (watcher != null && watcher.complete(state.getResult())) {
+					notifiedCompletions.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		timer.shutdownNow();
+	}
+
+	@Override
+	public Subscription watch(String operation, String txnId, final Waiter waiter) {
+
+		if (!VERIFY_QUICK_CODE.equals(operation) && !PAIR_DEVICE_DATA.equals(operation)) {
+			throw new IllegalArgumentException("Unsupported operation " + operation);
+		}
+		if (PAIR_DEVICE_DATA.equals(operation)) {
+			TransactionState state = this.transactionStateService.get(txnId);
+			if (state != null && TransactionState.COMPLETED.equals(state.getState())) {
+				waiter.completed(state.getResult());
+				return NO_SUBSCRIPTION;
+			}
+		}
+
+		while (true) {
+			String key = key(operation, txnId);
+			Watcher watcher = watchers.get(key);
+			if (watcher == null) {
+				Watcher created = new Watcher(operation, txnId, key);
+				watcher = watchers.putIfAbsent(key, created);
+				if (watcher == null) {
+					watcher = created;
+					watcher.schedule(0);
+				}
+			}
+			// a watcher completing meanwhile refuses new waiters, start over with a fresh one
+			if (watcher.add(waiter)) {
+				final Watcher subscribed = watcher;
+				return new Subscription() {
+					@Override
+					public void cancel() {
+						subscribed.remove(waiter);
+					}
+				};
+			}
+		}
+	}
+
+	/**
+	 * Watchers are per tenant, completion listeners run for the tenant the
+	 * notification came in for
+	 */
+	private static String key(String operation, String txnId) {
+
+		Tenant tenant = TenantContext.current();
+		return tenant == null ? operation + ":" + txnId : tenant.getId() + "/" + operation + ":" + txnId;
+	}
+
+	@Override
+	public Map<String, Object> getStats() {
+
+		int waiting = 0;
+		for (Watcher watcher : watchers.values()) {
+			waiting += watcher.waiterCount();
+		}
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("watchers", watchers.size());
+		stats.put("waiters", waiting);
+		stats.put("polls", polls.get());
+		stats.put("completions", completions.get());
+		stats.put("notifiedCompletions", notifiedCompletions.get());
+		stats.put("expirations", expirations.get());
+		stats.put("terminalErrors", Arrays.asList(terminalErrors));
+		return stats;
+	}
+
+	private static final Subscription NO_SUBSCRIPTION = new Subscription() {
+		@Override
+		public void cancel() {
+		}
+	};
+
+	private final class Watcher implements Runnable {
+
+		private final String operation;
+
+		private final String txnId;
+
+		private final String key;
+
+		/** polls run for the tenant of the request that created the watcher */
+		private final Tenant tenant = TenantContext.current();
+
+		private final long deadline = System.currentTimeMillis() + maxWatchMillis;
+
+		/** guarded by this, null once completed */
+		private List<Waiter> waiters = new ArrayList<Waiter>();
+
+		private long delayMillis = initialDelayMillis;
+
+		private Response lastResult;
+
+		private Watcher(String operation, String txnId, String key) {
+			this.operation = operation;
+			this.txnId = txnId;
+			this.key = key;
+		}
+
+		private synchronized boolean add(Waiter waiter) {
+
+			if (waiters == null) {
+				return false;
+			}
+			waiters.add(waiter);
+			return true;
+		}
+
+		private synchronized void remove(Waiter waiter) {
+
+			if (waiters != null) {
+				waiters.remove(waiter);
+			}
+		}
+
+		private synchronized int waiterCount() {
+			return waiters == null ? 0 : waiters.size();
+		}
+
+		private void schedule(long delay) {
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						connectExecutor.execute(TenantContext.wrap(tenant, Watcher.this));
+					} catch (TaskRejectedException e) {
+						schedule(maxDelayMillis);
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void run() {
+
+			synchronized (this) {
+				if (waiters == null) {
+					return;
+				}
+				if (waiters.isEmpty()) {
+					// every client went away
+					waiters = null;
+					watchers.remove(key, this);
+					return;
+				}
+			}
+
+			polls.incrementAndGet();
+			try {
+				Response result = VERIFY_QUICK_CODE.equals(operation)
+						? briidgeService.verifyQuickCode(txnId) : briidgeService.pairDeviceData(txnId);
+				lastResult = result;
+				if (result.getError() == null || terminal.contains(result.getError())) {
+					if (complete(result)) {
+						completions.incrementAndGet();
+					}
+					return;
+				}
+			} catch (Exception e) {
+				log.debug("Watching " + key + " failed", e);
+			}
+			long nextPollMillis = PAIR_DEVICE_DATA.equals(operation) && awaitsNotification()
+					? maxDelayMillis : delayMillis;
+			delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
+
+			if (System.currentTimeMillis() + nextPollMillis > deadline) {
+				if (complete(lastResult)) {
+					expirations.incrementAndGet();
+				}
+			} else {
+				schedule(nextPollMillis);
+			}
+		}
+
+		private boolean awaitsNotification() {
+
+			if (transactionStateService.getNotificationUrl() == null) {
+				return false;
+			}
+			TransactionState state = transactionStateService.get(txnId);
+			return state != null && !TransactionState.COMPLETED.equals(state.getState());
+		}
+
+		/**
+		 * @return false if already completed
+		 */
+		private boolean complete(Response result) {
+
+			List<Waiter> completed;
+			synchronized (this) {
+				if (waiters == null) {
+					return false;
+				}
+				completed = waiters;
+				waiters = null;
+			}
+			watchers.remove(key, this);
+			for (Waiter waiter : completed) {
+				waiter.completed(result);
+			}
+			return true;
+		}
+	}
+}
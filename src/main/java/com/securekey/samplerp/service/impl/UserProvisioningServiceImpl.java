@@ -0,0 +1,86 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.batch.BatchJobs;
+import com.securekey.samplerp.batch.BatchRunner;
+import com.securekey.samplerp.batch.NdjsonResultSink;
+import com.securekey.samplerp.batch.RecordHandler;
+import com.securekey.samplerp.batch.UserRecord;
+import com.securekey.samplerp.batch.UserRecordReader;
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.UserProvisioningService;
+
+/**
+ * Streams user records through {@link BatchRunner}, each becoming one
+ * addUser or updateUser call.
+ * 
+ */
+@Service("userProvisioningService")
+public class UserProvisioningServiceImpl implements UserProvisioningService {
+
+	@Autowired private BriidgeService briidgeService;
+
+	@Autowired private BatchJobs batchJobs;
+
+	@Value("#{system['batch.users.parallelism'] ?: 16}")
+	private int parallelism;
+
+	@Value("#{system['batch.users.maxInFlight'] ?: 256}")
+	private int maxInFlight;
+
+	@Value("#{system['batch.users.ratePerSecond'] ?: 0}")
+	private double ratePerSecond;
+
+	@Override
+	public Map<String, Object> provision(InputStream in, String format, String jobId, OutputStream out)
+			throws IOException, InterruptedException {
+
+		BatchRunner<UserRecord> runner = this.batchJobs.newRunner(jobId, parallelism, maxInFlight, ratePerSecond);
+		return this.batchJobs.run(runner, new UserRecordReader(in, format), new RecordHandler<UserRecord>() {
+			@Override
+			public Map<String, Object> process(UserRecord record) throws Exception {
+				return provision(record);
+			}
+		}, this.batchJobs.checkpoint(jobId), new NdjsonResultSink(out, parallelism));
+	}
+
+	private Map<String, Object> provision(UserRecord record) throws Exception {
+
+		Response response;
+		if (UserRecord.ACTION_UPDATE.equals(record.getAction())) {
+			response = this.briidgeService.updateUser(record.getUserId(), record.getAllowCreate(), record.getPhones());
+		} else {
+			response = this.briidgeService.addUser(record.getUserId(), record.getPhones());
+		}
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("userId", record.getUserId());
+		result.put("action", record.getAction());
+		return BatchRunner.putOutcome(result, response);
+	}
+}
@@ -0,0 +1,345 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.URL;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.bouncycastle.util.io.pem.PemObject;
+import org.bouncycastle.util.io.pem.PemWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.securekey.connect.beans.client.GetDeviceIdResponse;
+import com.securekey.samplerp.service.CertificateService;
+import com.securekey.samplerp.service.WarmupService;
+import com.securekey.samplerp.service.interceptor.ErrorResponses;
+
+/**
+ * Runs the warm-up on a background thread once the root context is
+ * refreshed. Declared in connect-service-context.xml next to the Connect
+ * client it primes.
+ * <ul>
+ * <li>builds the Connect client if that failed at startup and calls
+ * getDeviceData for a made up transaction id (warmup.txnId)
+ * warmup.connectCalls times, loading the keystore and opening the TLS
+ * connection to briidge.Net. The calls go to BriidgeServiceImpl directly, so
+ * they don't show in metrics or count in circuit breakers</li>
+ * <li>downloads the warmup.x5u certificate, if set, into the certificate
+ * cache</li>
+ * <li>signs a JWS with the RP keystore key and repeats the verifyJWT parse,
+ * certificate and verify steps and the JSON serialization of responses
+ * warmup.iterations times, so they are compiled before the first request</li>
+ * </ul>
+ * The server reports ready once the Connect calls were answered with one of
+ * connectClient.validateErrors, as a reloaded client is validated; until
+ * then, e.g. while answered invalid_credentials, they are retried every
+ * warmup.retrySeconds. With warmup.requireConnect=false a
+ * node whose Connect calls fail reports ready anyway. Failures of the other
+ * steps are logged and don't hold readiness back.
+ * 
+ */
+public class WarmupServiceImpl implements WarmupService, ApplicationListener<ContextRefreshedEvent> {
+
+	private static final String STARTING = "starting";
+
+	private static final String WARMING_UP = "warming_up";
+
+	private static final String READY = "ready";
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Value("#{system['warmup.enabled'] ?: true}")
+	private boolean enabled;
+
+	@Value("#{system['warmup.txnId'] ?: 'warmup'}")
+	private String txnId;
+
+	@Value("#{system['warmup.connectCalls'] ?: 3}")
+	private int connectCalls;
+
+	@Value("#{system['warmup.requireConnect'] ?: true}")
+	private boolean requireConnect;
+
+	@Value("#{system['warmup.retrySeconds'] ?: 10}")
+	private long retrySeconds;
+
+	@Value("#{system['warmup.iterations'] ?: 2000}")
+	private int iterations;
+
+	@Value("#{system['warmup.x5u'] ?: ''}")
+	private String x5u;
+
+	@Value("#{system['keyStoreFile']}")
+	private String keyStoreFile;
+
+	@Value("#{system['keyStorePassword']}")
+	private String keyStorePassword;
+
+	@Autowired private CertificateService certificateService;
+
+	private BriidgeServiceImpl connectService;
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private volatile String state = STARTING;
+
+	private volatile long startedAt;
+
+	private volatile long durationMillis = -1;
+
+	private volatile int connectAttempts;
+
+	private volatile String lastError;
+
+	private volatile Thread thread;
+
+	/**
+	 * @param connectService Connect client target, not the intercepted
+	 *      briidgeService proxy
+	 */
+	public void setConnectService(BriidgeServiceImpl connectService) {
+		this.connectService = connectService;
+	}
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+
+		// refresh of the dispatcher context is published here too
+		if (!started.compareAndSet(false, true)) {
+			return;
+		}
+		startedAt = System.currentTimeMillis();
+		if (!enabled) {
+			ready();
+			return;
+		}
+
+		state = WARMING_UP;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				warmUp();
+			}
+		}, "warmup");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@PreDestroy
+	private void destroyWarmupService() {
+		Thread running = thread;
+		if (running != null) {
+			running.interrupt();
+		}
+	}
+
+	@Override
+	public boolean isReady() {
+		return READY.equals(state);
+	}
+
+	@Override
+	public Map<String, Object> getStatus() {
+
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("state", state);
+		status.put("durationMillis", durationMillis);
+		status.put("connectAttempts", connectAttempts);
+		status.put("lastError", lastError);
+		return status;
+	}
+
+	private void warmUp() {
+
+		log.info("Warm-up started");
+		GetDeviceIdResponse response = null;
+		try {
+			while (true) {
+				try {
+					response = primeConnectClient();
+					break;
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					lastError = "connect: " + e;
+					log.warn("Warm-up Connect call failed: " + e);
+					if (!requireConnect) {
+						break;
+					}
+				}
+				TimeUnit.SECONDS.sleep(retrySeconds);
+			}
+
+			if (isNotBlank(x5u)) {
+				try {
+					certificateService.getVerifier(new URL(x5u.trim()));
+				} catch (Exception e) {
+					lastError = "x5u: " + e;
+					log.warn("Warm-up download of " + x5u + " failed: " + e);
+				}
+			}
+
+			try {
+				exerciseCodePaths(response);
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				lastError = "code paths: " + e;
+				log.warn("Warm-up of the request code paths failed", e);
+			}
+		} catch (InterruptedException e) {
+			log.info("Warm-up interrupted");
+			return;
+		}
+		ready();
+	}
+
+	private void ready() {
+
+		durationMillis = System.currentTimeMillis() - startedAt;
+		state = READY;
+		thread = null;
+		log.info("Ready, warm-up took " + durationMillis + "ms");
+	}
+
+	/**
+	 * @return response of the last call
+	 */
+	private GetDeviceIdResponse primeConnectClient() throws Exception {
+
+		connectAttempts++;
+		connectService.ensureConnectClient();
+		GetDeviceIdResponse response = null;
+		for (int i = 0; i < connectCalls; i++) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			response = connectService.getDeviceData(txnId);
+			// any answer proves the connection, only the expected one proves the credentials
+			connectService.checkValidationAnswer(response);
+		}
+		return response;
+	}
+
+	private void exerciseCodePaths(GetDeviceIdResponse response) throws Exception {
+
+		KeyStore keyStore = loadKeyStore();
+		String alias = keyAlias(keyStore);
+		Key key = keyStore.getKey(alias, keyStorePassword.toCharArray());
+		if (!(key instanceof RSAPrivateKey)) {
+			throw new IllegalStateException("Key " + alias + " of " + keyStoreFile + " is not an RSA key");
+		}
+		String pem = toPem((X509Certificate) keyStore.getCertificate(alias));
+
+		JWSObject signed = new JWSObject(new JWSHeader.Builder(JWSAlgorithm.RS256)
+				.x509CertURL(new URL("https://localhost/warmup.pem")).build(), new Payload("{\"sub\":\"warmup\"}"));
+		signed.sign(new RSASSASigner((RSAPrivateKey) key));
+		String jwt = signed.serialize();
+
+		Object errorResponse = ErrorResponses.create(GetDeviceIdResponse.class, ErrorResponses.TIMEOUT, "warm-up");
+		Map<String, Object> status = getStatus();
+		ObjectMapper mapper = new ObjectMapper();
+		for (int i = 0; i < iterations; i++) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			JWSObject jws = JWSObject.parse(jwt);
+			jws.getHeader().getX509CertURL();
+			X509Certificate certificate = CertificateServiceImpl.parsePemCertificate(pem);
+			JWSVerifier verifier = new RSASSAVerifier((RSAPublicKey) certificate.getPublicKey());
+			if (!jws.verify(verifier)) {
+				throw new IllegalStateException("Warm-up JWS signature did not verify");
+			}
+
+			if (response != null) {
+				mapper.writeValueAsString(response);
+			}
+			mapper.writeValueAsString(errorResponse);
+			mapper.writeValueAsString(status);
+		}
+	}
+
+	/**
+	 * keyStoreFile is a classpath resource, or else a file path
+	 */
+	private KeyStore loadKeyStore() throws Exception {
+
+		InputStream in = getClass().getResourceAsStream(keyStoreFile);
+		if (in == null) {
+			in = new FileInputStream(keyStoreFile);
+		}
+		try {
+			KeyStore keyStore = KeyStore.getInstance("JKS");
+			keyStore.load(in, keyStorePassword.toCharArray());
+			return keyStore;
+		} finally {
+			in.close();
+		}
+	}
+
+	private String keyAlias(KeyStore keyStore) throws Exception {
+
+		Enumeration<String> aliases = keyStore.aliases();
+		while (aliases.hasMoreElements()) {
+			String alias = aliases.nextElement();
+			if (keyStore.isKeyEntry(alias)) {
+				return alias;
+			}
+		}
+		throw new IllegalStateException("No key in " + keyStoreFile);
+	}
+
+	private static String toPem(X509Certificate certificate) throws Exception {
+
+		StringWriter pem = new StringWriter();
+		PemWriter writer = new PemWriter(pem);
+		try {
+			writer.writeObject(new PemObject("CERTIFICATE", certificate.getEncoded()));
+		} finally {
+			writer.close();
+		}
+		return pem.toString();
+	}
+}
@@ -0,0 +1,132 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Concurrency limit with a bounded wait queue for one group of briidge.Net
+ * operations. Up to maxConcurrent calls run at once, up to maxQueue more
+ * wait at most maxWaitMillis for a free slot, any further call is refused
+ * immediately.
+ */
+public class Bulkhead implements InitializingBean {
+
+	private String name;
+
+	private List<String> operations;
+
+	private int maxConcurrent = 50;
+
+	private int maxQueue = 50;
+
+	private long maxWaitMillis = 1000;
+
+	private Semaphore permits;
+
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	private final AtomicLong accepted = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	private final AtomicLong timedOut = new AtomicLong();
+
+	@Override
+	public void afterPropertiesSet() {
+		permits = new Semaphore(maxConcurrent, true);
+	}
+
+	/**
+	 * @return true if a slot was obtained, caller must then call {@link #exit()}
+	 */
+	public boolean tryEnter() throws InterruptedException {
+
+		if (permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+			accepted.incrementAndGet();
+			return true;
+		}
+		if (waiting.incrementAndGet() > maxQueue) {
+			waiting.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		try {
+			if (permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+				accepted.incrementAndGet();
+				return true;
+			}
+			timedOut.incrementAndGet();
+			return false;
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	public void exit() {
+		permits.release();
+	}
+
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("maxConcurrent", maxConcurrent);
+		stats.put("active", maxConcurrent - permits.availablePermits());
+		stats.put("maxQueue", maxQueue);
+		stats.put("waiting", waiting.get());
+		stats.put("accepted", accepted.get());
+		stats.put("rejected", rejected.get());
+		stats.put("timedOut", timedOut.get());
+		return stats;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public List<String> getOperations() {
+		return operations;
+	}
+
+	public void setOperations(String[] operations) {
+		this.operations = Arrays.asList(operations);
+	}
+
+	public void setMaxConcurrent(int maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	public void setMaxQueue(int maxQueue) {
+		this.maxQueue = maxQueue;
+	}
+
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+}
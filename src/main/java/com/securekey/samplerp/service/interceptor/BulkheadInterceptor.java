@@ -0,0 +1,133 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.securekey.samplerp.service.BriidgeService;
+
+/**
+ * Isolates groups of briidge.Net operations (e.g. interactive
+ * authentication, device management, user administration) from each other,
+ * so slow bulk operations can't take the capacity latency critical calls
+ * need. Calls refused by a full bulkhead fail fast with a
+ * {@link ErrorResponses#BUSY} error response.
+ * <br/>
+ * Every {@link BriidgeService} method must belong to exactly one bulkhead.
+ * Calls made by batch jobs (see {@link #batch}) all go to batchBulkhead
+ * instead, whatever their operation, so a bulk run can't fill the
+ * bulkheads interactive requests use.
+ */
+public class BulkheadInterceptor implements MethodInterceptor, InitializingBean {
+
+	private static final ThreadLocal<Boolean> BATCH = new ThreadLocal<Boolean>();
+
+	private List<Bulkhead> bulkheads;
+
+	private Bulkhead batchBulkhead;
+
+	private final Map<String, Bulkhead> bulkheadByOperation = new HashMap<String, Bulkhead>();
+
+	@Override
+	public void afterPropertiesSet() {
+
+		for (Bulkhead bulkhead : bulkheads) {
+			for (String operation : bulkhead.getOperations()) {
+				Bulkhead previous = bulkheadByOperation.put(operation.trim(), bulkhead);
+				if (previous != null) {
+					throw new IllegalArgumentException("Operation " + operation + " is assigned to bulkheads "
+							+ previous.getName() + " and " + bulkhead.getName());
+				}
+			}
+		}
+		for (Method method : BriidgeService.class.getMethods()) {
+			if (!bulkheadByOperation.containsKey(method.getName())) {
+				throw new IllegalArgumentException("Operation " + method.getName() + " is not assigned to any bulkhead");
+			}
+		}
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+
+		Bulkhead bulkhead = batchBulkhead != null && BATCH.get() != null ? batchBulkhead
+				: bulkheadByOperation.get(invocation.getMethod().getName());
+		if (!bulkhead.tryEnter()) {
+			return ErrorResponses.create(invocation.getMethod().getReturnType(), ErrorResponses.BUSY,
+					"briidge.Net " + invocation.getMethod().getName() + " rejected, "
+					+ bulkhead.getName() + " capacity exhausted");
+		}
+		try {
+			return invocation.proceed();
+		} finally {
+			bulkhead.exit();
+		}
+	}
+
+	/**
+	 * Per bulkhead capacity, usage and rejection counts
+	 * 
+	 * @return Map
+	 */
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		for (Bulkhead bulkhead : bulkheads) {
+			stats.put(bulkhead.getName(), bulkhead.getStats());
+		}
+		if (batchBulkhead != null) {
+			stats.put(batchBulkhead.getName(), batchBulkhead.getStats());
+		}
+		return stats;
+	}
+
+	/**
+	 * @param task batch job work
+	 * 
+	 * @return task running with its briidge.Net calls counted against the
+	 *      batch bulkhead
+	 */
+	public static Runnable batch(final Runnable task) {
+
+		return new Runnable() {
+			@Override
+			public void run() {
+				BATCH.set(Boolean.TRUE);
+				try {
+					task.run();
+				} finally {
+					BATCH.remove();
+				}
+			}
+		};
+	}
+
+	public void setBulkheads(List<Bulkhead> bulkheads) {
+		this.bulkheads = bulkheads;
+	}
+
+	public void setBatchBulkhead(Bulkhead batchBulkhead) {
+		this.batchBulkhead = batchBulkhead;
+	}
+}
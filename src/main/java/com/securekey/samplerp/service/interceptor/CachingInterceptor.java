@@ -0,0 +1,332 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.connect.beans.client.TxnResponse;
+import com.securekey.samplerp.util.LruMap;
+
+/**
+ * Read through cache for the rarely changing getUser, getDevices and
+ * getDeviceById lookups. Successful responses are kept for a per operation
+ * time to live, unknown_user answers (negativeErrorCode, the error code the
+ * Connect API documents for an unknown user id) for the (shorter) negative
+ * time to live; other errors are never cached.
+ * <br/>
+ * Mutating calls invalidate the entries they affect once they complete,
+ * whatever their outcome. getDeviceById entries are linked to their user
+ * through the device mutations seen, user wide device changes also drop
+ * getDeviceById entries whose user is unknown. A pairing started by
+ * pairDevice drops the user's device list, and again once pairDeviceData
+ * reports it completed; completions of pairings not seen start drop every
+ * device list.
+ * <br/>
+ * Cached responses are shared between callers and must not be modified.
+ */
+public class CachingInterceptor implements MethodInterceptor, InitializingBean {
+
+	public static final String UNKNOWN_USER = "unknown_user";
+
+	private static final String GET_USER = "getUser";
+
+	private static final String GET_DEVICES = "getDevices";
+
+	private static final String GET_DEVICE_BY_ID = "getDeviceById";
+
+	private int maxEntries = 10000;
+
+	private int userTtlSeconds = 300;
+
+	private int devicesTtlSeconds = 60;
+
+	private int deviceByIdTtlSeconds = 300;
+
+	private int negativeTtlSeconds = 30;
+
+	private String negativeErrorCode = UNKNOWN_USER;
+
+	private final Map<String, Long> ttlMillis = new LinkedHashMap<String, Long>();
+
+	private LruMap<String, Entry> entries;
+
+	private LruMap<String, String> deviceOwners;
+
+	/** user of each pairing transaction started */
+	private LruMap<String, String> pairings;
+
+	/** bumped by every invalidation, a lookup racing with one does not store its (maybe stale) result */
+	private long generation;
+
+	private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+
+	@Override
+	public void afterPropertiesSet() {
+
+		entries = new LruMap<String, Entry>(maxEntries);
+		deviceOwners = new LruMap<String, String>(maxEntries);
+		pairings = new LruMap<String, String>(maxEntries);
+		ttlMillis.put(GET_USER, TimeUnit.SECONDS.toMillis(userTtlSeconds));
+		ttlMillis.put(GET_DEVICES, TimeUnit.SECONDS.toMillis(devicesTtlSeconds));
+		ttlMillis.put(GET_DEVICE_BY_ID, TimeUnit.SECONDS.toMillis(deviceByIdTtlSeconds));
+		for (String operation : ttlMillis.keySet()) {
+			counters.put(operation, new Counters());
+		}
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+
+		String operation = invocation.getMethod().getName();
+		Object[] args = invocation.getArguments();
+
+		Long ttl = ttlMillis.get(operation);
+		if (ttl != null) {
+			return lookup(operation, (String) args[0], ttl, invocation);
+		}
+		Object result = null;
+		try {
+			result = invocation.proceed();
+			return result;
+		} finally {
+			invalidate(operation, args, result);
+		}
+	}
+
+	private Object lookup(String operation, String id, long ttl, MethodInvocation invocation) throws Throwable {
+
+		Counters counter = counters.get(operation);
+		String key = operation + ":" + id;
+		long startGeneration;
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+				(entry.negative ? counter.negativeHits : counter.hits).incrementAndGet();
+				return entry.value;
+			}
+			if (entry != null) {
+				entries.remove(key);
+			}
+			startGeneration = generation;
+		}
+		counter.misses.incrementAndGet();
+
+		Object result = invocation.proceed();
+
+		if (result instanceof Response) {
+			String error = ((Response) result).getError();
+			boolean negative = negativeErrorCode.equals(error) && !GET_DEVICE_BY_ID.equals(operation);
+			if (error == null || negative) {
+				long expiresAt = System.currentTimeMillis()
+						+ (negative ? TimeUnit.SECONDS.toMillis(negativeTtlSeconds) : ttl);
+				synchronized (this) {
+					if (generation == startGeneration) {
+						entries.put(key, new Entry(result, expiresAt, negative));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private synchronized void invalidate(String operation, Object[] args, Object result) {
+
+		if ("pairDeviceData".equals(operation)) {
+			// args[0] is the pairing transaction, only a completed pairing changes the devices
+			if (!(result instanceof Response) || ((Response) result).getError() != null) {
+				return;
+			}
+			String userId = pairings.remove((String) args[0]);
+			if (userId != null) {
+				evict(GET_DEVICES, userId);
+			} else {
+				evictAll(GET_DEVICES);
+			}
+			generation++;
+			return;
+		}
+
+		String userId = (String) args[0];
+		if ("pairDevice".equals(operation)) {
+			evict(GET_DEVICES, userId);
+			if (result instanceof TxnResponse && ((TxnResponse) result).getTxnId() != null) {
+				pairings.put(((TxnResponse) result).getTxnId(), userId);
+			}
+		} else if ("addUser".equals(operation) || "updateUser".equals(operation)) {
+			evict(GET_USER, userId);
+			evict(GET_DEVICES, userId);
+		} else if ("removeUser".equals(operation)) {
+			evict(GET_USER, userId);
+			evictUserDevices(userId);
+		} else if ("removeAllUserDevices".equals(operation)) {
+			evictUserDevices(userId);
+		} else if ("addDevice".equals(operation) || "removeDevice".equals(operation)
+				|| "verifyDevice".equals(operation) || "deverifyDevice".equals(operation)) {
+			String deviceId = (String) args[1];
+			if (isBlank(deviceId)) {
+				evictUserDevices(userId);
+			} else {
+				evict(GET_DEVICES, userId);
+				evict(GET_DEVICE_BY_ID, deviceId);
+				if ("removeDevice".equals(operation)) {
+					deviceOwners.remove(deviceId);
+				} else {
+					deviceOwners.put(deviceId, userId);
+				}
+			}
+		} else {
+			return;
+		}
+		generation++;
+	}
+
+	private void evictUserDevices(String userId) {
+
+		evict(GET_DEVICES, userId);
+
+		Set<String> linked = new HashSet<String>();
+		for (Iterator<Map.Entry<String, String>> it = deviceOwners.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, String> owner = it.next();
+			if (owner.getValue().equals(userId)) {
+				linked.add(owner.getKey());
+				it.remove();
+			}
+		}
+		String prefix = GET_DEVICE_BY_ID + ":";
+		for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+			String key = it.next();
+			if (key.startsWith(prefix)) {
+				String deviceId = key.substring(prefix.length());
+				if (linked.contains(deviceId) || !deviceOwners.containsKey(deviceId)) {
+					it.remove();
+					counters.get(GET_DEVICE_BY_ID).invalidations.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private void evictAll(String operation) {
+
+		String prefix = operation + ":";
+		for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+			if (it.next().startsWith(prefix)) {
+				it.remove();
+				counters.get(operation).invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	private void evict(String operation, String id) {
+
+		if (entries.remove(operation + ":" + id) != null) {
+			counters.get(operation).invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Per operation hit, miss and invalidation counts plus cache occupancy
+	 * 
+	 * @return Map
+	 */
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		for (String operation : ttlMillis.keySet()) {
+			Counters counter = counters.get(operation);
+			long hits = counter.hits.get() + counter.negativeHits.get();
+			long lookups = hits + counter.misses.get();
+
+			Map<String, Object> operationStats = new LinkedHashMap<String, Object>();
+			operationStats.put("hits", counter.hits.get());
+			operationStats.put("negativeHits", counter.negativeHits.get());
+			operationStats.put("misses", counter.misses.get());
+			operationStats.put("hitRate", lookups == 0 ? 0d : (double) hits / lookups);
+			operationStats.put("invalidations", counter.invalidations.get());
+			operationStats.put("ttlSeconds", TimeUnit.MILLISECONDS.toSeconds(ttlMillis.get(operation)));
+			stats.put(operation, operationStats);
+		}
+		synchronized (this) {
+			stats.put("entries", entries.size());
+		}
+		stats.put("maxEntries", maxEntries);
+		return stats;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public void setUserTtlSeconds(int userTtlSeconds) {
+		this.userTtlSeconds = userTtlSeconds;
+	}
+
+	public void setDevicesTtlSeconds(int devicesTtlSeconds) {
+		this.devicesTtlSeconds = devicesTtlSeconds;
+	}
+
+	public void setDeviceByIdTtlSeconds(int deviceByIdTtlSeconds) {
+		this.deviceByIdTtlSeconds = deviceByIdTtlSeconds;
+	}
+
+	public void setNegativeTtlSeconds(int negativeTtlSeconds) {
+		this.negativeTtlSeconds = negativeTtlSeconds;
+	}
+
+	public void setNegativeErrorCode(String negativeErrorCode) {
+		this.negativeErrorCode = negativeErrorCode;
+	}
+
+	private static final class Entry {
+
+		private final Object value;
+
+		private final long expiresAt;
+
+		private final boolean negative;
+
+		private Entry(Object value, long expiresAt, boolean negative) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+			this.negative = negative;
+		}
+	}
+
+	private static final class Counters {
+
+		private final AtomicLong hits = new AtomicLong();
+
+		private final AtomicLong negativeHits = new AtomicLong();
+
+		private final AtomicLong misses = new AtomicLong();
+
+		private final AtomicLong invalidations = new AtomicLong();
+	}
+}
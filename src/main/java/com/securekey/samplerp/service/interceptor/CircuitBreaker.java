@@ -0,0 +1,189 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Failure rate based circuit breaker for a single briidge.Net operation.
+ * <dl>
+ * <dt>CLOSED</dt>
+ * <dd>calls pass, outcomes of the last windowSize calls are tracked. Once
+ *     at least minimumCalls were seen and failure rate reaches
+ *     failureRateThreshold percent, circuit opens</dd>
+ * <dt>OPEN</dt>
+ * <dd>calls are refused for openMillis</dd>
+ * <dt>HALF_OPEN</dt>
+ * <dd>up to halfOpenCalls trial calls pass. All of them succeeding closes
+ *     the circuit, any failure opens it again</dd>
+ * </dl>
+ */
+public class CircuitBreaker {
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private final String name;
+
+	private final int minimumCalls;
+
+	private final int failureRateThreshold;
+
+	private final long openMillis;
+
+	private final int halfOpenCalls;
+
+	private final boolean[] outcomes;
+
+	private State state = State.CLOSED;
+
+	private int next;
+
+	private int count;
+
+	private int failures;
+
+	private long openedAt;
+
+	private int halfOpenInFlight;
+
+	private int halfOpenSuccesses;
+
+	private final Map<State, Long> transitions = new EnumMap<State, Long>(State.class);
+
+	public CircuitBreaker(String name, int windowSize, int minimumCalls, int failureRateThreshold,
+			long openMillis, int halfOpenCalls) {
+		this.name = name;
+		this.outcomes = new boolean[windowSize];
+		this.minimumCalls = Math.min(minimumCalls, windowSize);
+		this.failureRateThreshold = failureRateThreshold;
+		this.openMillis = openMillis;
+		this.halfOpenCalls = halfOpenCalls;
+		for (State s : State.values()) {
+			transitions.put(s, 0L);
+		}
+	}
+
+	/**
+	 * @return true if call may proceed, in which case exactly one of
+	 *      {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}
+	 *      must follow
+	 */
+	public synchronized boolean tryAcquire() {
+
+		if (state == State.OPEN) {
+			if (System.currentTimeMillis() - openedAt < openMillis) {
+				return false;
+			}
+			transition(State.HALF_OPEN);
+		}
+		if (state == State.HALF_OPEN) {
+			if (halfOpenInFlight >= halfOpenCalls) {
+				return false;
+			}
+			halfOpenInFlight++;
+		}
+		return true;
+	}
+
+	public synchronized void onSuccess() {
+
+		if (state == State.HALF_OPEN) {
+			halfOpenInFlight--;
+			if (++halfOpenSuccesses >= halfOpenCalls) {
+				transition(State.CLOSED);
+			}
+		} else if (state == State.CLOSED) {
+			record(false);
+		}
+	}
+
+	public synchronized void onFailure() {
+
+		if (state == State.HALF_OPEN) {
+			transition(State.OPEN);
+		} else if (state == State.CLOSED) {
+			record(true);
+			if (count >= minimumCalls && failures * 100 >= failureRateThreshold * count) {
+				transition(State.OPEN);
+			}
+		}
+	}
+
+	/**
+	 * Call was acquired but never reached briidge.Net
+	 */
+	public synchronized void onIgnored() {
+
+		if (state == State.HALF_OPEN && halfOpenInFlight > 0) {
+			halfOpenInFlight--;
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return number of transitions into each state
+	 */
+	public synchronized Map<String, Long> getTransitions() {
+
+		Map<String, Long> copy = new LinkedHashMap<String, Long>();
+		for (Map.Entry<State, Long> entry : transitions.entrySet()) {
+			copy.put(entry.getKey().name(), entry.getValue());
+		}
+		return copy;
+	}
+
+	private void record(boolean failure) {
+
+		if (count == outcomes.length) {
+			if (outcomes[next]) {
+				failures--;
+			}
+		} else {
+			count++;
+		}
+		outcomes[next] = failure;
+		if (failure) {
+			failures++;
+		}
+		next = (next + 1) % outcomes.length;
+	}
+
+	private void transition(State to) {
+
+		log.warn("Circuit breaker " + name + " " + state + " -> " + to
+				+ (to == State.OPEN ? " (" + failures + "/" + count + " failed)" : ""));
+		state = to;
+		transitions.put(to, transitions.get(to) + 1);
+		next = 0;
+		count = 0;
+		failures = 0;
+		halfOpenInFlight = 0;
+		halfOpenSuccesses = 0;
+		if (to == State.OPEN) {
+			openedAt = System.currentTimeMillis();
+		}
+	}
+}
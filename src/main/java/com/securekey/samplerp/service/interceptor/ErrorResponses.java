@@ -0,0 +1,73 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import org.apache.commons.beanutils.BeanUtils;
+
+import com.securekey.connect.beans.Response;
+
+/**
+ * Builds error responses for briidge.Net calls answered locally (open
+ * circuit, timeout, rejected call), so callers handle them the same way as
+ * errors returned by the Connect server.
+ */
+public final class ErrorResponses {
+
+	public static final String CIRCUIT_OPEN = "connect_circuit_open";
+
+	public static final String TIMEOUT = "connect_timeout";
+
+	public static final String BUSY = "connect_busy";
+
+	private ErrorResponses() {
+	}
+
+	/**
+	 * @param error error code of a response
+	 * 
+	 * @return true if the error was generated locally rather than by the
+	 *      Connect server
+	 */
+	public static boolean isLocal(String error) {
+
+		return CIRCUIT_OPEN.equals(error) || TIMEOUT.equals(error) || BUSY.equals(error);
+	}
+
+	/**
+	 * @param type response type expected by the caller
+	 * @param error error code
+	 * @param errorDescription human readable description
+	 * 
+	 * @return instance of type with error and errorDescription set
+	 * 
+	 * @throws IllegalStateException if type is not a briidge.Net response,
+	 *      carrying the error description
+	 */
+	public static Object create(Class<?> type, String error, String errorDescription) {
+
+		if (Response.class.isAssignableFrom(type)) {
+			try {
+				Object response = type.newInstance();
+				BeanUtils.setProperty(response, "error", error);
+				BeanUtils.setProperty(response, "errorDescription", errorDescription);
+				return response;
+			} catch (Exception e) {
+				throw new IllegalStateException(error + ": " + errorDescription, e);
+			}
+		}
+		throw new IllegalStateException(error + ": " + errorDescription);
+	}
+}
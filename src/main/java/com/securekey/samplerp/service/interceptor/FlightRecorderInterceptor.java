@@ -0,0 +1,71 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.connect.beans.client.TxnResponse;
+import com.securekey.samplerp.jfr.FlightEvents;
+
+/**
+ * Emits a Java Flight Recorder event per Connect client call, with the
+ * operation, a hash of the transaction id and the outcome (see
+ * {@link MetricsInterceptor}). The transaction id is the first argument of
+ * the txnOperations, otherwise the one returned in the response.
+ */
+public class FlightRecorderInterceptor implements MethodInterceptor {
+
+	private Set<String> txnOperations = new HashSet<String>(Arrays.asList(
+			"cardReadData", "deviceInitiatedCardReadData", "getDeviceData", "cancelRequest",
+			"setQuickCodeData", "pairDeviceData", "deviceInitiatedGetDevice", "verifyQuickCode"));
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+
+		Object event = FlightEvents.beginConnectCall();
+		if (event == null) {
+			return invocation.proceed();
+		}
+		String operation = invocation.getMethod().getName();
+		String txnId = txnOperations.contains(operation) ? (String) invocation.getArguments()[0] : null;
+		String outcome = MetricsInterceptor.EXCEPTION;
+		try {
+			Object result = invocation.proceed();
+			if (result instanceof Response) {
+				String error = ((Response) result).getError();
+				outcome = error == null || error.isEmpty() ? MetricsInterceptor.OK : error;
+			} else {
+				outcome = MetricsInterceptor.OK;
+			}
+			if (txnId == null && result instanceof TxnResponse) {
+				txnId = ((TxnResponse) result).getTxnId();
+			}
+			return result;
+		} finally {
+			FlightEvents.endConnectCall(event, operation, txnId, outcome);
+		}
+	}
+
+	public void setTxnOperations(Set<String> txnOperations) {
+		this.txnOperations = txnOperations;
+	}
+}
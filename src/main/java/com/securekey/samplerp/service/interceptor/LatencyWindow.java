@@ -0,0 +1,72 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the most recent successful call latencies, answering a
+ * single configured percentile. Percentile is recomputed every
+ * recomputeEvery samples, reads are lock free.
+ */
+public class LatencyWindow {
+
+	private final long[] samples;
+
+	private final double percentile;
+
+	private final int minSamples;
+
+	private final int recomputeEvery;
+
+	private int next;
+
+	private int size;
+
+	private int sinceRecompute;
+
+	private volatile long cachedPercentile = -1;
+
+	public LatencyWindow(int windowSize, double percentile, int minSamples) {
+		this.samples = new long[windowSize];
+		this.percentile = percentile;
+		this.minSamples = Math.min(minSamples, windowSize);
+		this.recomputeEvery = Math.max(1, windowSize / 20);
+	}
+
+	public synchronized void record(long latencyMillis) {
+
+		samples[next] = latencyMillis;
+		next = (next + 1) % samples.length;
+		if (size < samples.length) {
+			size++;
+		}
+		if (size >= minSamples && (++sinceRecompute >= recomputeEvery || cachedPercentile < 0)) {
+			long[] sorted = Arrays.copyOf(samples, size);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+			cachedPercentile = sorted[Math.max(0, Math.min(index, size - 1))];
+			sinceRecompute = 0;
+		}
+	}
+
+	/**
+	 * @return latency percentile in milliseconds, -1 until minSamples were recorded
+	 */
+	public long getPercentile() {
+		return cachedPercentile;
+	}
+}
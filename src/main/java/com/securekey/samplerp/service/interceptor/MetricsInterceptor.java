@@ -0,0 +1,111 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.metrics.CallMetrics;
+import com.securekey.samplerp.metrics.LatencyHistogram;
+import com.securekey.samplerp.service.BriidgeService;
+
+/**
+ * Records latency, calls in flight and outcome of every
+ * {@link BriidgeService} call. The outcome is {@link #OK}, the error code of
+ * the response or {@link #EXCEPTION}.
+ * <br/>
+ * Placed innermost, next to the Connect client, it measures the calls
+ * actually made to briidge.Net: calls answered by the caches or refused by
+ * a bulkhead or open circuit are not counted, calls that timed out are
+ * counted when the Connect server eventually answers.
+ */
+public class MetricsInterceptor implements MethodInterceptor {
+
+	public static final String OK = "ok";
+
+	public static final String EXCEPTION = "exception";
+
+	private final Map<String, CallMetrics> metrics;
+
+	public MetricsInterceptor() {
+
+		Map<String, CallMetrics> byOperation = new TreeMap<String, CallMetrics>();
+		for (Method method : BriidgeService.class.getMethods()) {
+			byOperation.put(method.getName(), new CallMetrics());
+		}
+		this.metrics = Collections.unmodifiableMap(byOperation);
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+
+		CallMetrics operation = metrics.get(invocation.getMethod().getName());
+		if (operation == null) {
+			return invocation.proceed();
+		}
+		long start = operation.begin();
+		String outcome = EXCEPTION;
+		try {
+			Object result = invocation.proceed();
+			String error = result instanceof Response ? ((Response) result).getError() : null;
+			outcome = error == null || error.isEmpty() ? OK : error;
+			return result;
+		} finally {
+			operation.end(start, outcome);
+		}
+	}
+
+	/**
+	 * @return metrics per operation, sorted by operation name
+	 */
+	public Map<String, CallMetrics> getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Per operation calls in flight, outcomes and latency percentiles of the
+	 * operations called since startup
+	 * 
+	 * @return Map
+	 */
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, CallMetrics> operation : metrics.entrySet()) {
+			LatencyHistogram.Snapshot latency = operation.getValue().getLatency().snapshot();
+			if (latency.getCount() == 0 && operation.getValue().getInFlight() == 0) {
+				continue;
+			}
+			Map<String, Object> operationStats = new LinkedHashMap<String, Object>();
+			operationStats.put("inFlight", operation.getValue().getInFlight());
+			operationStats.put("outcomes", operation.getValue().getOutcomes());
+			operationStats.put("p50Millis", latency.getPercentileMicros(50) / 1000.0);
+			operationStats.put("p90Millis", latency.getPercentileMicros(90) / 1000.0);
+			operationStats.put("p99Millis", latency.getPercentileMicros(99) / 1000.0);
+			operationStats.put("p999Millis", latency.getPercentileMicros(99.9) / 1000.0);
+			operationStats.put("maxMillis", latency.getMaxMicros() / 1000.0);
+			stats.put(operation.getKey(), operationStats);
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,114 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.connect.beans.client.TxnResponse;
+import com.securekey.samplerp.service.KnownEntityRegistry;
+import com.securekey.samplerp.util.LruMap;
+
+/**
+ * Keeps {@link KnownEntityRegistry} in sync with briidge.Net: successful
+ * addUser, updateUser, getUser, addDevice, initSetQuickCode, pairDevice and
+ * pairDeviceData responses confirm users and devices, and so does addUser
+ * failing with one of userExistsErrors for a returning user. Removals and
+ * deverification forget them whatever their outcome.
+ */
+public class RegistryInterceptor implements MethodInterceptor {
+
+	private KnownEntityRegistry registry;
+
+	private Set<String> userExistsErrors = new HashSet<String>(Arrays.asList("user_exists"));
+
+	/** txnId to userId of pairings initiated here, confirmed again by pairDeviceData */
+	private final LruMap<String, String> pairings = new LruMap<String, String>(10000);
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+
+		String operation = invocation.getMethod().getName();
+		Object[] args = invocation.getArguments();
+		Object result = null;
+		try {
+			result = invocation.proceed();
+			return result;
+		} finally {
+			String error = result instanceof Response ? ((Response) result).getError() : null;
+			boolean success = result instanceof Response && error == null;
+
+			if ("removeUser".equals(operation)) {
+				registry.userRemoved((String) args[0]);
+			} else if ("removeDevice".equals(operation) || "deverifyDevice".equals(operation)) {
+				if (isBlank((String) args[1])) {
+					registry.allDevicesRemoved((String) args[0]);
+				} else {
+					registry.deviceRemoved((String) args[0], (String) args[1]);
+				}
+			} else if ("removeAllUserDevices".equals(operation)) {
+				registry.allDevicesRemoved((String) args[0]);
+			} else if ("addUser".equals(operation) && userExistsErrors.contains(error)) {
+				registry.userConfirmed((String) args[0]);
+			} else if (success) {
+				if ("addUser".equals(operation) || "updateUser".equals(operation)
+						|| "getUser".equals(operation) || "initSetQuickCode".equals(operation)) {
+					registry.userConfirmed((String) args[0]);
+				} else if ("pairDevice".equals(operation)) {
+					registry.userConfirmed((String) args[0]);
+					if (result instanceof TxnResponse && ((TxnResponse) result).getTxnId() != null) {
+						synchronized (pairings) {
+							pairings.put(((TxnResponse) result).getTxnId(), (String) args[0]);
+						}
+					}
+				} else if ("pairDeviceData".equals(operation)) {
+					String userId;
+					synchronized (pairings) {
+						userId = pairings.remove(args[0]);
+					}
+					registry.userConfirmed(userId);
+				} else if ("addDevice".equals(operation)) {
+					registry.deviceConfirmed((String) args[0], (String) args[1]);
+				}
+			}
+		}
+	}
+
+	public void setRegistry(KnownEntityRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * @param userExistsErrors addUser error codes meaning the user already
+	 *      exists
+	 */
+	public void setUserExistsErrors(String[] userExistsErrors) {
+
+		this.userExistsErrors = new HashSet<String>();
+		for (String error : userExistsErrors) {
+			if (!error.trim().isEmpty()) {
+				this.userExistsErrors.add(error.trim());
+			}
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import com.securekey.samplerp.trace.Tracer;
+
+/**
+ * Guards every briidge.Net operation with its own circuit breaker and a
+ * timeout derived from recently observed latency:
+ * <br/>
+ * timeout = clamp(latencyPercentile * timeoutMultiplier, minTimeoutMillis, maxTimeoutMillis)
+ * <br/>
+ * Operations that change state on briidge.Net (mutations, e.g. pairDevice,
+ * addUser, addDevice) wait the fixed mutationTimeoutMillis instead: a
+ * timed out mutation may still go through, so it shouldn't be cut short
+ * because the operation is usually fast.
+ * <br/>
+ * Calls run on callExecutor so the caller can stop waiting once the timeout
+ * expires. Exceptions and timeouts count as failures, error responses
+ * returned by the Connect server don't. While a circuit is open, calls fail
+ * fast with a {@link ErrorResponses#CIRCUIT_OPEN} error response.
+ */
+public class ResilienceInterceptor implements MethodInterceptor {
+
+	private AsyncTaskExecutor callExecutor;
+
+	private int windowSize = 50;
+
+	private int minimumCalls = 20;
+
+	private int failureRateThreshold = 50;
+
+	private long openMillis = 30000;
+
+	private int halfOpenCalls = 3;
+
+	private int latencyWindowSize = 500;
+
+	private double latencyPercentile = 99;
+
+	private double timeoutMultiplier = 2;
+
+	private long minTimeoutMillis = 500;
+
+	private long maxTimeoutMillis = 15000;
+
+	private Set<String> mutations = new HashSet<String>(Arrays.asList("addUser", "removeUser", "addDevice",
+			"removeDevice", "removeAllUserDevices", "verifyDevice", "deverifyDevice", "pairDevice"));
+
+	private long mutationTimeoutMillis = 30000;
+
+	private final ConcurrentMap<String, Guard> guards = new ConcurrentHashMap<String, Guard>();
+
+	@Override
+	public Object invoke(final MethodInvocation invocation) throws Throwable {
+
+		Guard guard = guard(invocation.getMethod().getName());
+		Class<?> responseType = invocation.getMethod().getReturnType();
+
+		if (!guard.circuitBreaker.tryAcquire()) {
+			guard.shortCircuited.incrementAndGet();
+			return ErrorResponses.create(responseType, ErrorResponses.CIRCUIT_OPEN,
+					"briidge.Net " + guard.operation + " is unavailable, circuit is open");
+		}
+
+		Future<Object> future;
+		try {
+			future = callExecutor.submit(Tracer.wrap(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					try {
+						return invocation.proceed();
+					} catch (Exception e) {
+						throw e;
+					} catch (Error e) {
+						throw e;
+					} catch (Throwable t) {
+						throw new UndeclaredThrowableException(t);
+					}
+				}
+			}));
+		} catch (TaskRejectedException e) {
+			guard.circuitBreaker.onIgnored();
+			guard.rejected.incrementAndGet();
+			return ErrorResponses.create(responseType, ErrorResponses.BUSY,
+					"briidge.Net " + guard.operation + " rejected, too many calls in progress");
+		}
+
+		long timeoutMillis = guard.timeoutMillis();
+		long start = System.nanoTime();
+		guard.calls.incrementAndGet();
+		try {
+			Object result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			guard.latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			guard.circuitBreaker.onSuccess();
+			return result;
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			guard.timeouts.incrementAndGet();
+			guard.circuitBreaker.onFailure();
+			return ErrorResponses.create(responseType, ErrorResponses.TIMEOUT,
+					"briidge.Net " + guard.operation + " timed out after " + timeoutMillis + "ms");
+		} catch (ExecutionException e) {
+			guard.failures.incrementAndGet();
+			guard.circuitBreaker.onFailure();
+			throw e.getCause();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			guard.circuitBreaker.onIgnored();
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+
+	/**
+	 * Per operation circuit state, transitions, call outcomes and current timeout
+	 * 
+	 * @return Map
+	 */
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new TreeMap<String, Object>();
+		for (Guard guard : guards.values()) {
+			Map<String, Object> operation = new LinkedHashMap<String, Object>();
+			operation.put("state", guard.circuitBreaker.getState().name());
+			operation.put("transitions", guard.circuitBreaker.getTransitions());
+			operation.put("calls", guard.calls.get());
+			operation.put("failures", guard.failures.get());
+			operation.put("timeouts", guard.timeouts.get());
+			operation.put("shortCircuited", guard.shortCircuited.get());
+			operation.put("rejected", guard.rejected.get());
+			operation.put("timeoutMillis", guard.timeoutMillis());
+			stats.put(guard.operation, operation);
+		}
+		return stats;
+	}
+
+	/**
+	 * @return circuit breaker of every operation called so far, by operation
+	 */
+	public Map<String, CircuitBreaker> getCircuitBreakers() {
+
+		Map<String, CircuitBreaker> circuitBreakers = new TreeMap<String, CircuitBreaker>();
+		for (Guard guard : guards.values()) {
+			circuitBreakers.put(guard.operation, guard.circuitBreaker);
+		}
+		return circuitBreakers;
+	}
+
+	private Guard guard(String operation) {
+
+		Guard guard = guards.get(operation);
+		if (guard == null) {
+			Guard created = new Guard(operation);
+			guard = guards.putIfAbsent(operation, created);
+			if (guard == null) {
+				guard = created;
+			}
+		}
+		return guard;
+	}
+
+	private final class Guard {
+
+		private final String operation;
+
+		private final CircuitBreaker circuitBreaker;
+
+		private final LatencyWindow latency;
+
+		private final AtomicLong calls = new AtomicLong();
+
+		private final AtomicLong failures = new AtomicLong();
+
+		private final AtomicLong timeouts = new AtomicLong();
+
+		private final AtomicLong shortCircuited = new AtomicLong();
+
+		private final AtomicLong rejected = new AtomicLong();
+
+		private Guard(String operation) {
+			this.operation = operation;
+			this.circuitBreaker = new CircuitBreaker(operation, windowSize, minimumCalls, failureRateThreshold,
+					openMillis, halfOpenCalls);
+			this.latency = new LatencyWindow(latencyWindowSize, latencyPercentile, minimumCalls);
+		}
+
+		private long timeoutMillis() {
+
+			if (mutations.contains(operation)) {
+				return mutationTimeoutMillis;
+			}
+			long percentile = latency.getPercentile();
+			if (percentile < 0) {
+				return maxTimeoutMillis;
+			}
+			long timeout = (long) (percentile * timeoutMultiplier);
+			return Math.max(minTimeoutMillis, Math.min(timeout, maxTimeoutMillis));
+		}
+	}
+
+	public void setCallExecutor(AsyncTaskExecutor callExecutor) {
+		this.callExecutor = callExecutor;
+	}
+
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	public void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	public void setOpenMillis(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	public void setHalfOpenCalls(int halfOpenCalls) {
+		this.halfOpenCalls = halfOpenCalls;
+	}
+
+	public void setLatencyWindowSize(int latencyWindowSize) {
+		this.latencyWindowSize = latencyWindowSize;
+	}
+
+	public void setLatencyPercentile(double latencyPercentile) {
+		this.latencyPercentile = latencyPercentile;
+	}
+
+	public void setTimeoutMultiplier(double timeoutMultiplier) {
+		this.timeoutMultiplier = timeoutMultiplier;
+	}
+
+	public void setMinTimeoutMillis(long minTimeoutMillis) {
+		this.minTimeoutMillis = minTimeoutMillis;
+	}
+
+	public void setMaxTimeoutMillis(long maxTimeoutMillis) {
+		this.maxTimeoutMillis = maxTimeoutMillis;
+	}
+
+	public void setMutations(String[] mutations) {
+
+		Set<String> set = new HashSet<String>();
+		for (String mutation : mutations) {
+			if (!mutation.trim().isEmpty()) {
+				set.add(mutation.trim());
+			}
+		}
+		this.mutations = set;
+	}
+
+	public void setMutationTimeoutMillis(long mutationTimeoutMillis) {
+		this.mutationTimeoutMillis = mutationTimeoutMillis;
+	}
+}
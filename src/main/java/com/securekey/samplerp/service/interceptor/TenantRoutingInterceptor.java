@@ -0,0 +1,49 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+
+import com.securekey.samplerp.tenant.Tenant;
+import com.securekey.samplerp.tenant.TenantContext;
+
+/**
+ * Outermost in the chain: hands calls made for another tenant to that
+ * tenant's briidgeService, so callers keep using the one briidgeService
+ * bean. Every tenant context declares the chain too, tenantId tells which
+ * tenant this one belongs to (empty for the RP server's own).
+ */
+public class TenantRoutingInterceptor implements MethodInterceptor {
+
+	private String tenantId = "";
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+
+		Tenant tenant = TenantContext.current();
+		if (tenant == null || tenant.getId().equals(tenantId)) {
+			return invocation.proceed();
+		}
+		return AopUtils.invokeJoinpointUsingReflection(tenant.getBriidgeService(), invocation.getMethod(),
+				invocation.getArguments());
+	}
+
+	public void setTenantId(String tenantId) {
+		this.tenantId = tenantId;
+	}
+}
@@ -0,0 +1,85 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.trace.Span;
+import com.securekey.samplerp.trace.Tracer;
+
+/**
+ * Opens a span named <i>spanPrefix</i> + operation around every
+ * {@link BriidgeService} call of a traced request, tagged with the error
+ * code of the response or the exception thrown. Declared twice in the
+ * chain: outermost for the time callers see, innermost for the Connect
+ * client call itself.
+ */
+public class TracingInterceptor implements MethodInterceptor, InitializingBean {
+
+	private String spanPrefix = "briidge.";
+
+	private String kind;
+
+	private final Map<String, String> spanNames = new HashMap<String, String>();
+
+	@Override
+	public void afterPropertiesSet() {
+
+		for (Method method : BriidgeService.class.getMethods()) {
+			spanNames.put(method.getName(), spanPrefix + method.getName());
+		}
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+
+		if (!Tracer.isTracing()) {
+			return invocation.proceed();
+		}
+		Span span = Tracer.start(spanNames.get(invocation.getMethod().getName())).kind(kind);
+		try {
+			Object result = invocation.proceed();
+			if (result instanceof Response) {
+				span.tag("error", ((Response) result).getError());
+			}
+			return result;
+		} catch (Throwable t) {
+			span.tag("error", t.getClass().getName());
+			throw t;
+		} finally {
+			span.finish();
+		}
+	}
+
+	public void setSpanPrefix(String spanPrefix) {
+		this.spanPrefix = spanPrefix;
+	}
+
+	/**
+	 * @param kind Zipkin span kind, e.g. {@link Span#KIND_CLIENT}
+	 */
+	public void setKind(String kind) {
+		this.kind = kind;
+	}
+}
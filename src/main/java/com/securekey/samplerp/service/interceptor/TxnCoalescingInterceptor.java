@@ -0,0 +1,227 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.util.LruMap;
+
+/**
+ * Mobile clients retry and double submit, so the same transaction is often
+ * retrieved several times at once. Concurrent calls of one operation for
+ * the same txnId share a single backend call, and a final answer of the
+ * Connect server is kept for a few seconds so retries are answered locally.
+ * <br/>
+ * Only answers without error, or with one of the terminalErrors the
+ * retrieval documents as final (unknown_txn), are kept. Exceptions,
+ * locally generated errors (see {@link ErrorResponses}), system_error and
+ * whatever a transaction still in progress is answered with are shared with
+ * the calls waiting on them but never kept: the next call has to ask the
+ * Connect server again. Shared responses must not be modified.
+ */
+public class TxnCoalescingInterceptor implements MethodInterceptor, InitializingBean {
+
+	private String[] operations = new String[] {
+			"deviceInitiatedGetDevice", "getDeviceData", "verifyQuickCode", "cardReadData",
+			"deviceInitiatedCardReadData", "setQuickCodeData", "pairDeviceData" };
+
+	private int ttlSeconds = 10;
+
+	private Set<String> terminalErrors = new HashSet<String>(Arrays.asList("unknown_txn"));
+
+	private int maxEntries = 10000;
+
+	private final Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+
+	private final ConcurrentMap<String, FutureTask<Object>> inFlight = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+	private LruMap<String, Entry> completed;
+
+	@Override
+	public void afterPropertiesSet() {
+
+		completed = new LruMap<String, Entry>(maxEntries);
+		for (String operation : operations) {
+			stats.put(operation.trim(), new Stats());
+		}
+	}
+
+	@Override
+	public Object invoke(final MethodInvocation invocation) throws Throwable {
+
+		String operation = invocation.getMethod().getName();
+		Stats operationStats = stats.get(operation);
+		String txnId = (String) invocation.getArguments()[0];
+		if (operationStats == null || txnId == null) {
+			return invocation.proceed();
+		}
+		operationStats.calls.incrementAndGet();
+
+		String key = operation + ":" + txnId;
+		synchronized (completed) {
+			Entry entry = completed.get(key);
+			if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+				operationStats.cached.incrementAndGet();
+				return entry.value;
+			}
+		}
+
+		FutureTask<Object> call = inFlight.get(key);
+		if (call == null) {
+			FutureTask<Object> created = new FutureTask<Object>(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					try {
+						return invocation.proceed();
+					} catch (Exception e) {
+						throw e;
+					} catch (Error e) {
+						throw e;
+					} catch (Throwable t) {
+						throw new UndeclaredThrowableException(t);
+					}
+				}
+			});
+			call = inFlight.putIfAbsent(key, created);
+			if (call == null) {
+				operationStats.backendCalls.incrementAndGet();
+				try {
+					created.run();
+					Object result = created.get();
+					if (result instanceof Response && isFinal(((Response) result).getError())) {
+						synchronized (completed) {
+							completed.put(key, new Entry(result,
+									System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+						}
+					}
+					return result;
+				} catch (ExecutionException e) {
+					throw e.getCause();
+				} finally {
+					inFlight.remove(key, created);
+				}
+			}
+		}
+
+		operationStats.coalesced.incrementAndGet();
+		try {
+			return call.get();
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @param error error code of a Connect server answer, null if none
+	 * 
+	 * @return true if retrieving the transaction again can't give another
+	 *      answer
+	 */
+	private boolean isFinal(String error) {
+		return error == null || terminalErrors.contains(error);
+	}
+
+	/**
+	 * Per operation calls, backend calls, calls that joined an in flight
+	 * backend call and calls answered from the recent results
+	 * 
+	 * @return Map
+	 */
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, Stats> operation : stats.entrySet()) {
+			Map<String, Object> operationStats = new LinkedHashMap<String, Object>();
+			operationStats.put("calls", operation.getValue().calls.get());
+			operationStats.put("backendCalls", operation.getValue().backendCalls.get());
+			operationStats.put("coalesced", operation.getValue().coalesced.get());
+			operationStats.put("cached", operation.getValue().cached.get());
+			result.put(operation.getKey(), operationStats);
+		}
+		result.put("inFlight", inFlight.size());
+		synchronized (completed) {
+			result.put("entries", completed.size());
+		}
+		result.put("ttlSeconds", ttlSeconds);
+		return result;
+	}
+
+	public void setOperations(String[] operations) {
+		this.operations = operations;
+	}
+
+	public void setTtlSeconds(int ttlSeconds) {
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @param terminalErrors error codes of retrievals that won't change once
+	 *      answered, other errors are never kept
+	 */
+	public void setTerminalErrors(String[] terminalErrors) {
+
+		this.terminalErrors = new HashSet<String>();
+		for (String error : terminalErrors) {
+			if (!error.trim().isEmpty()) {
+				this.terminalErrors.add(error.trim());
+			}
+		}
+	}
+
+	private static final class Entry {
+
+		private final Object value;
+
+		private final long expiresAt;
+
+		private Entry(Object value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static final class Stats {
+
+		private final AtomicLong calls = new AtomicLong();
+
+		private final AtomicLong backendCalls = new AtomicLong();
+
+		private final AtomicLong coalesced = new AtomicLong();
+
+		private final AtomicLong cached = new AtomicLong();
+	}
+}
@@ -0,0 +1,147 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.tenant;
+
+import java.io.File;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.WarmupService;
+
+/**
+ * One loaded version of a tenant: its configuration and the context holding
+ * its briidgeService chain, Connect clients, caches and metrics
+ */
+public class Tenant {
+
+	private final String id;
+
+	private final File configFile;
+
+	private volatile long lastModified;
+
+	private final Properties properties;
+
+	private final ConfigurableApplicationContext context;
+
+	private final BriidgeService briidgeService;
+
+	private final long loadedAt = System.currentTimeMillis();
+
+	private final ConcurrentMap<Class<?>, Object> beans = new ConcurrentHashMap<Class<?>, Object>();
+
+	Tenant(String id, File configFile, long lastModified, Properties properties, ConfigurableApplicationContext context) {
+		this.id = id;
+		this.configFile = configFile;
+		this.lastModified = lastModified;
+		this.properties = properties;
+		this.context = context;
+		this.briidgeService = context.getBean("briidgeService", BriidgeService.class);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public File getConfigFile() {
+		return configFile;
+	}
+
+	long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @param lastModified modification time of a version whose changes the
+	 *      loaded tenant took without being rebuilt
+	 */
+	void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	Properties getProperties() {
+		return properties;
+	}
+
+	public long getLoadedAt() {
+		return loadedAt;
+	}
+
+	/**
+	 * @return host names routed to the tenant (tenant.hosts)
+	 */
+	public List<String> getHosts() {
+		return TenantRegistry.split(properties.getProperty(TenantRegistry.HOSTS));
+	}
+
+	/**
+	 * @return first path segment routed to the tenant (tenant.path), or null
+	 */
+	public String getPath() {
+		String path = properties.getProperty(TenantRegistry.PATH);
+		return path == null || path.trim().isEmpty() ? null : path.trim();
+	}
+
+	/**
+	 * @param key system.properties key
+	 * 
+	 * @return tenant's value, falling back to the RP server's system.properties
+	 */
+	public String getProperty(String key) {
+		return properties.getProperty(key);
+	}
+
+	public BriidgeService getBriidgeService() {
+		return briidgeService;
+	}
+
+	/**
+	 * @return the tenant's instance of a bean declared in
+	 *      connect-service-context.xml, e.g. its KnownEntityRegistry
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getBean(Class<T> type) {
+
+		Object bean = beans.get(type);
+		if (bean == null) {
+			bean = context.getBean(type);
+			beans.putIfAbsent(type, bean);
+		}
+		return (T) bean;
+	}
+
+	/**
+	 * @return true once the tenant's warm-up finished
+	 */
+	public boolean isReady() {
+		return getBean(WarmupService.class).isReady();
+	}
+
+	void close() {
+		context.close();
+	}
+
+	@Override
+	public String toString() {
+		return "tenant " + id + (getHosts().isEmpty() ? "" : " " + getHosts())
+				+ (getPath() == null ? "" : " /" + getPath());
+	}
+}
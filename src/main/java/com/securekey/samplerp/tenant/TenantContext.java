@@ -0,0 +1,125 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.tenant;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Tenant of the request served by the current thread, set by
+ * {@link TenantFilter}. Work handed to other threads keeps the tenant
+ * through {@link #wrap(Runnable)} / {@link #wrap(Callable)}. No tenant means
+ * the RP server's own configuration (the default tenant).
+ */
+public final class TenantContext {
+
+	private static final ThreadLocal<Tenant> CURRENT = new ThreadLocal<Tenant>();
+
+	private TenantContext() {
+	}
+
+	/**
+	 * @return tenant of this thread, null for the default tenant
+	 */
+	public static Tenant current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * @return previous tenant of this thread, to be restored with
+	 *      {@link #restore(Tenant)}
+	 */
+	static Tenant enter(Tenant tenant) {
+
+		Tenant previous = CURRENT.get();
+		CURRENT.set(tenant);
+		return previous;
+	}
+
+	static void restore(Tenant previous) {
+
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+
+	/**
+	 * @param defaultBean the RP server's own bean
+	 * @param type bean type, declared in connect-service-context.xml
+	 * 
+	 * @return current tenant's bean of the type, defaultBean for the default
+	 *      tenant
+	 */
+	public static <T> T resolve(T defaultBean, Class<T> type) {
+
+		Tenant tenant = CURRENT.get();
+		return tenant == null ? defaultBean : tenant.getBean(type);
+	}
+
+	/**
+	 * @return task running for the caller's tenant, the task itself for the
+	 *      default tenant
+	 */
+	public static Runnable wrap(Runnable task) {
+		return wrap(CURRENT.get(), task);
+	}
+
+	/**
+	 * @return task running for the given tenant, the task itself for the
+	 *      default tenant
+	 */
+	public static Runnable wrap(final Tenant tenant, final Runnable task) {
+
+		if (tenant == null) {
+			return task;
+		}
+		return new Runnable() {
+			@Override
+			public void run() {
+				Tenant previous = enter(tenant);
+				try {
+					task.run();
+				} finally {
+					restore(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return task running for the caller's tenant, the task itself for the
+	 *      default tenant
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> task) {
+
+		final Tenant tenant = CURRENT.get();
+		if (tenant == null) {
+			return task;
+		}
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				Tenant previous = enter(tenant);
+				try {
+					return task.call();
+				} finally {
+					restore(previous);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.tenant;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Serves each request for its tenant: the one whose tenant.hosts lists the
+ * request's host name, or whose tenant.path is the first path segment after
+ * the context path (/samplerp/&lt;path&gt;/forms/... is forwarded to
+ * /samplerp/forms/...). Other requests are served by the RP server's own
+ * configuration. A tenant still loading, or failed to load, is answered with
+ * 503 and status tenant_unavailable rather than served by another tenant.
+ * <br/>
+ * Installed in web.xml through a DelegatingFilterProxy, after the other
+ * filters since forwarded requests don't pass them again.
+ */
+@Component("tenantFilter")
+public class TenantFilter extends OncePerRequestFilter {
+
+	@Autowired private TenantRegistry tenantRegistry;
+
+	private final AtomicLong unavailable = new AtomicLong();
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		if (!tenantRegistry.isEnabled()) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		String forwardTo = null;
+		String id = tenantRegistry.routeHost(request.getServerName());
+		if (id == null) {
+			String path = request.getRequestURI().substring(request.getContextPath().length());
+			int end = path.indexOf('/', 1);
+			if (end > 1) {
+				id = tenantRegistry.routePath(path.substring(1, end));
+				if (id != null) {
+					forwardTo = path.substring(end);
+				}
+			}
+		}
+		if (id == null) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		Tenant tenant = tenantRegistry.get(id);
+		if (tenant == null) {
+			unavailable.incrementAndGet();
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setContentType("application/json");
+			response.getWriter().write("{\"status\":\"tenant_unavailable\"}");
+			return;
+		}
+
+		Tenant previous = TenantContext.enter(tenant);
+		try {
+			if (forwardTo != null) {
+				request.getRequestDispatcher(forwardTo).forward(request, response);
+			} else {
+				filterChain.doFilter(request, response);
+			}
+		} finally {
+			TenantContext.restore(previous);
+		}
+	}
+
+	/**
+	 * @return requests answered with tenant_unavailable
+	 */
+	public long getUnavailable() {
+		return unavailable.get();
+	}
+}
@@ -0,0 +1,550 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.tenant;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Relying party brands served next to the RP server's own configuration.
+ * Every &lt;id&gt;.properties file in tenants.dir is a tenant: a
+ * system.properties of its own (keystore, connectServer, limits, caches),
+ * falling back to the RP server's values, plus tenant.hosts and tenant.path
+ * to route requests to it, see {@link TenantFilter}.
+ * <br/>
+ * Each tenant gets a child context of connect-service-context.xml with the
+ * tenant's properties as system bean, so it has its own briidgeService
+ * chain, Connect client pool, bulkheads, circuit breakers, caches, metrics
+ * and warm-up. The RP server's briidgeService hands calls made for a tenant
+ * to the tenant's one (TenantRoutingInterceptor).
+ * <br/>
+ * tenants.dir is scanned every tenants.scanSeconds: new and modified files
+ * are loaded in the background and take over requests once warmed up, the
+ * replaced version and tenants whose file was removed are closed after
+ * tenants.drainSeconds. A file that fails to load is logged and retried once
+ * modified again. Changes of Connect client settings only (connectServer,
+ * keystore, clientClass) are left to the tenant's ConnectConfigWatcher,
+ * unless its connectClient.reloadSeconds turns it off.
+ * <br/>
+ * A tenant without a notification.callbackUrl of its own gets the RP
+ * server's one routed to it through tenant.path, or else its first
+ * tenant.hosts entry: the root URL would retrieve its transactions with the
+ * RP server's credentials. When neither is set its notifications are off.
+ */
+@Component("tenantRegistry")
+public class TenantRegistry implements ApplicationContextAware, ApplicationListener<ContextRefreshedEvent> {
+
+	static final String ID = "tenant.id";
+
+	static final String HOSTS = "tenant.hosts";
+
+	static final String PATH = "tenant.path";
+
+	static final String CALLBACK_URL = "notification.callbackUrl";
+
+	static final String RELOAD_SECONDS = "connectClient.reloadSeconds";
+
+	/** read by ConnectClientFactory only */
+	static final List<String> CONNECT_KEYS = Arrays.asList("connectServer", "keyStoreFile", "keyStorePassword",
+			"clientClass");
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	@Value("#{system['tenants.dir'] ?: ''}")
+	private String dir;
+
+	@Value("#{system['tenants.scanSeconds'] ?: 10}")
+	private long scanSeconds;
+
+	@Value("#{system['tenants.drainSeconds'] ?: 30}")
+	private long drainSeconds;
+
+	private ApplicationContext applicationContext;
+
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private ScheduledExecutorService scanner;
+
+	/** tenants taking requests, replaced as a whole */
+	private volatile Map<String, Tenant> active = Collections.emptyMap();
+
+	/** host and path routes of every tenant file, loaded or not, replaced as a whole */
+	private volatile Map<String, String> hosts = Collections.emptyMap();
+
+	private volatile Map<String, String> paths = Collections.emptyMap();
+
+	/** scanner thread only */
+	private final Map<String, Tenant> loading = new HashMap<String, Tenant>();
+
+	/** scanner thread only: file modification time of the last failed load */
+	private final Map<String, Long> failed = new HashMap<String, Long>();
+
+	private final Map<String, String> errors = new TreeMap<String, String>();
+
+	/** replaced or removed tenants waiting for tenants.drainSeconds */
+	private final List<Tenant> retired = new CopyOnWriteArrayList<Tenant>();
+
+	private volatile boolean initialized;
+
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) {
+		this.applicationContext = applicationContext;
+	}
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+
+		// tenant and dispatcher contexts publish their refresh here too
+		if (event.getApplicationContext() != applicationContext || !started.compareAndSet(false, true)) {
+			return;
+		}
+		if (!isEnabled()) {
+			initialized = true;
+			return;
+		}
+
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("tenants-");
+		threadFactory.setDaemon(true);
+		scanner = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		scanner.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scan();
+				} catch (RuntimeException e) {
+					log.error("Scanning " + dir + " failed", e);
+				}
+			}
+		}, 0, scanSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	private void destroyTenantRegistry() {
+
+		if (scanner != null) {
+			scanner.shutdownNow();
+		}
+		// their close tasks were dropped with the scanner
+		for (Tenant tenant : retired) {
+			if (retired.remove(tenant)) {
+				tenant.close();
+			}
+		}
+		for (Tenant tenant : active.values()) {
+			tenant.close();
+		}
+		synchronized (loading) {
+			for (Tenant tenant : loading.values()) {
+				tenant.close();
+			}
+		}
+	}
+
+	/**
+	 * @return true if tenants.dir is set
+	 */
+	public boolean isEnabled() {
+		return !isBlank(dir);
+	}
+
+	/**
+	 * @return true once the tenants found at startup are loaded and warmed
+	 *      up, or failed to load
+	 */
+	public boolean isInitialized() {
+		return initialized;
+	}
+
+	/**
+	 * @param host request host name
+	 * 
+	 * @return id of the tenant the host is routed to, or null
+	 */
+	public String routeHost(String host) {
+		return host == null ? null : hosts.get(host.toLowerCase());
+	}
+
+	/**
+	 * @param segment first path segment after the context path
+	 * 
+	 * @return id of the tenant the path is routed to, or null
+	 */
+	public String routePath(String segment) {
+		return paths.get(segment);
+	}
+
+	/**
+	 * @return tenant taking requests, null while it is loading or if it
+	 *      failed to load
+	 */
+	public Tenant get(String id) {
+		return active.get(id);
+	}
+
+	/**
+	 * @return tenants taking requests
+	 */
+	public Collection<Tenant> getTenants() {
+		return active.values();
+	}
+
+	/**
+	 * @return per tenant: config file, hosts, path, state (active, loading
+	 *      or failed) and load time or error
+	 */
+	public Map<String, Map<String, Object>> getStatus() {
+		return getStatus(getTenants());
+	}
+
+	/**
+	 * @param tenants tenants taking requests, as returned by
+	 *      {@link #getTenants()}, so callers can add to the status of the
+	 *      same tenants
+	 * 
+	 * @return per tenant: config file, hosts, path, state (active, loading
+	 *      or failed) and load time or error
+	 */
+	public Map<String, Map<String, Object>> getStatus(Collection<Tenant> tenants) {
+
+		Map<String, Map<String, Object>> status = new TreeMap<String, Map<String, Object>>();
+		for (Tenant tenant : tenants) {
+			status.put(tenant.getId(), status(tenant, "active"));
+		}
+		synchronized (loading) {
+			for (Tenant tenant : loading.values()) {
+				if (!status.containsKey(tenant.getId())) {
+					status.put(tenant.getId(), status(tenant, "loading"));
+				}
+			}
+		}
+		synchronized (errors) {
+			for (Map.Entry<String, String> error : errors.entrySet()) {
+				if (!status.containsKey(error.getKey())) {
+					Map<String, Object> tenantStatus = new LinkedHashMap<String, Object>();
+					tenantStatus.put("state", "failed");
+					tenantStatus.put("error", error.getValue());
+					status.put(error.getKey(), tenantStatus);
+				}
+			}
+		}
+		return status;
+	}
+
+	private static Map<String, Object> status(Tenant tenant, String state) {
+
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("state", state);
+		status.put("configFile", tenant.getConfigFile().getPath());
+		status.put("hosts", tenant.getHosts());
+		status.put("path", tenant.getPath());
+		status.put("loadedAt", tenant.getLoadedAt());
+		return status;
+	}
+
+	private void scan() {
+
+		File[] files = new File(dir).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File parent, String name) {
+				return name.endsWith(".properties");
+			}
+		});
+		if (files == null) {
+			log.warn("Tenants directory " + dir + " can't be read");
+			files = new File[0];
+		}
+
+		Map<String, File> found = new HashMap<String, File>();
+		Map<String, String> hostRoutes = new HashMap<String, String>();
+		Map<String, String> pathRoutes = new HashMap<String, String>();
+		for (File file : files) {
+			String id = file.getName().substring(0, file.getName().length() - ".properties".length());
+			found.put(id, file);
+			try {
+				Properties own = read(file);
+				for (String host : split(own.getProperty(HOSTS))) {
+					hostRoutes.put(host.toLowerCase(), id);
+				}
+				if (!isBlank(own.getProperty(PATH))) {
+					pathRoutes.put(own.getProperty(PATH).trim(), id);
+				}
+			} catch (IOException e) {
+				log.warn("Reading tenant file " + file + " failed: " + e);
+			}
+			load(id, file);
+		}
+		hosts = hostRoutes;
+		paths = pathRoutes;
+
+		Map<String, Tenant> next = new HashMap<String, Tenant>(active);
+		synchronized (loading) {
+			for (Tenant tenant : new ArrayList<Tenant>(loading.values())) {
+				if (tenant.isReady()) {
+					loading.remove(tenant.getId());
+					retire(next.put(tenant.getId(), tenant));
+					log.info("Serving " + tenant);
+				}
+			}
+			for (String id : new HashSet<String>(loading.keySet())) {
+				if (!found.containsKey(id)) {
+					loading.remove(id).close();
+				}
+			}
+			for (String id : new HashSet<String>(next.keySet())) {
+				if (!found.containsKey(id)) {
+					log.info("Removing tenant " + id);
+					retire(next.remove(id));
+				}
+			}
+		}
+		failed.keySet().retainAll(found.keySet());
+		synchronized (errors) {
+			errors.keySet().retainAll(failed.keySet());
+		}
+		active = next;
+
+		if (!initialized) {
+			synchronized (loading) {
+				initialized = loading.isEmpty();
+			}
+		}
+	}
+
+	/**
+	 * Builds the tenant's context if its file is new or modified
+	 */
+	private void load(String id, File file) {
+
+		long lastModified = file.lastModified();
+		Tenant current = active.get(id);
+		Tenant pending;
+		synchronized (loading) {
+			pending = loading.get(id);
+		}
+		Tenant latest = pending != null ? pending : current;
+		if (latest != null && latest.getLastModified() == lastModified) {
+			return;
+		}
+		Long failedVersion = failed.get(id);
+		if (failedVersion != null && failedVersion.longValue() == lastModified) {
+			return;
+		}
+
+		GenericXmlApplicationContext context = null;
+		try {
+			Properties properties = new Properties();
+			Properties root = applicationContext.getBean("system", Properties.class);
+			properties.putAll(root);
+			Properties own = read(file);
+			properties.putAll(own);
+			properties.setProperty(ID, id);
+			if (!own.containsKey(CALLBACK_URL) && !isBlank(root.getProperty(CALLBACK_URL))) {
+				String callbackUrl = callbackUrl(root.getProperty(CALLBACK_URL), own);
+				if (callbackUrl == null) {
+					log.error("Tenant " + id + " has no " + CALLBACK_URL + ", " + PATH + " or " + HOSTS
+							+ " of its own, completion notifications are off for it");
+					callbackUrl = "";
+				} else {
+					log.info("Tenant " + id + " completion notifications go to " + callbackUrl);
+				}
+				properties.setProperty(CALLBACK_URL, callbackUrl);
+			}
+			if (!own.containsKey("connectClient.configFiles")) {
+				// ConnectClientFactory reads the tenant's connectServer and keystore from its own file
+				properties.setProperty("connectClient.configFiles", file.getAbsolutePath());
+			}
+			if (latest != null && isConnectChange(latest, properties)) {
+				log.info("Tenant " + id + " changed Connect client settings only, left to its Connect client reload");
+				latest.setLastModified(lastModified);
+				return;
+			}
+
+			log.info("Loading tenant " + id + " from " + file);
+			context = new GenericXmlApplicationContext();
+			context.setParent(applicationContext);
+			context.setDisplayName("tenant " + id);
+			context.getBeanFactory().registerSingleton("system", properties);
+			AnnotationConfigUtils.registerAnnotationConfigProcessors(context);
+			context.load("classpath:connect-service-context.xml");
+			context.refresh();
+
+			Tenant tenant = new Tenant(id, file, lastModified, properties, context);
+			synchronized (loading) {
+				if (pending != null) {
+					pending.close();
+				}
+				loading.put(id, tenant);
+			}
+			failed.remove(id);
+			synchronized (errors) {
+				errors.remove(id);
+			}
+		} catch (Exception e) {
+			log.error("Loading tenant " + id + " from " + file + " failed", e);
+			if (context != null) {
+				context.close();
+			}
+			failed.put(id, lastModified);
+			synchronized (errors) {
+				errors.put(id, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * The tenant's ConnectConfigWatcher owns changes of the settings only its
+	 * Connect clients read, it reloads them without rebuilding the tenant
+	 * 
+	 * @return true if the tenant's Connect configuration is watched and no
+	 *      other setting changed
+	 */
+	static boolean isConnectChange(Tenant latest, Properties next) {
+
+		String reloadSeconds = next.getProperty(RELOAD_SECONDS, "10").trim();
+		try {
+			if (Long.parseLong(reloadSeconds) <= 0) {
+				return false;
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		Properties before = new Properties();
+		before.putAll(latest.getProperties());
+		Properties after = new Properties();
+		after.putAll(next);
+		for (String key : CONNECT_KEYS) {
+			before.remove(key);
+			after.remove(key);
+		}
+		return before.equals(after);
+	}
+
+	/**
+	 * Closes a replaced or removed tenant once requests in progress had time
+	 * to finish
+	 */
+	private void retire(final Tenant tenant) {
+
+		if (tenant == null) {
+			return;
+		}
+		retired.add(tenant);
+		scanner.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (retired.remove(tenant)) {
+					log.info("Closing retired " + tenant);
+					tenant.close();
+				}
+			}
+		}, drainSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param rootUrl RP server's notification.callbackUrl
+	 * @param own tenant file properties
+	 * 
+	 * @return rootUrl with tenant.path inserted before /forms/, or with the
+	 *      first tenant.hosts entry as host, null if neither applies
+	 */
+	static String callbackUrl(String rootUrl, Properties own) {
+
+		URI uri;
+		try {
+			uri = URI.create(rootUrl.trim());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+			return null;
+		}
+		String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+		String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+		int forms = path.indexOf("/forms/");
+		String tenantPath = own.getProperty(PATH);
+		if (!isBlank(tenantPath) && forms >= 0) {
+			return uri.getScheme() + "://" + uri.getRawAuthority() + path.substring(0, forms) + "/" + tenantPath.trim()
+					+ path.substring(forms) + query;
+		}
+		List<String> tenantHosts = split(own.getProperty(HOSTS));
+		if (!tenantHosts.isEmpty()) {
+			return uri.getScheme() + "://" + tenantHosts.get(0) + (uri.getPort() < 0 ? "" : ":" + uri.getPort()) + path
+					+ query;
+		}
+		return null;
+	}
+
+	private static Properties read(File file) throws IOException {
+
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return properties;
+	}
+
+	static List<String> split(String list) {
+
+		List<String> values = new ArrayList<String>();
+		if (list != null) {
+			for (String value : list.split(",")) {
+				if (!value.trim().isEmpty()) {
+					values.add(value.trim());
+				}
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,115 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.trace;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Adds the Server-Timing header listing the spans of the trace finished so
+ * far, just before the response is committed: when the body is first
+ * written, the buffer flushed or an error / redirect sent. Nothing is
+ * buffered, the handler's work is done by the time it writes the body.
+ */
+class ServerTimingResponse extends HttpServletResponseWrapper {
+
+	static final String HEADER = "Server-Timing";
+
+	private static final int MAX_ENTRIES = 32;
+
+	private final Trace trace;
+
+	private final Span root;
+
+	private boolean added;
+
+	ServerTimingResponse(HttpServletResponse response, Trace trace, Span root) {
+		super(response);
+		this.trace = trace;
+		this.root = root;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		addServerTiming();
+		return super.getOutputStream();
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		addServerTiming();
+		return super.getWriter();
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		addServerTiming();
+		super.flushBuffer();
+	}
+
+	@Override
+	public void sendError(int sc) throws IOException {
+		addServerTiming();
+		super.sendError(sc);
+	}
+
+	@Override
+	public void sendError(int sc, String msg) throws IOException {
+		addServerTiming();
+		super.sendError(sc, msg);
+	}
+
+	@Override
+	public void sendRedirect(String location) throws IOException {
+		addServerTiming();
+		super.sendRedirect(location);
+	}
+
+	/**
+	 * Adds the header unless already added or the response is committed
+	 */
+	synchronized void addServerTiming() {
+
+		if (added || isCommitted()) {
+			return;
+		}
+		added = true;
+		StringBuilder header = new StringBuilder();
+		append(header, "total", System.nanoTime() - root.startNanos);
+		int entries = 1;
+		for (Span span : trace.getSpans()) {
+			if (span != root && entries++ < MAX_ENTRIES) {
+				append(header.append(", "), span.name, span.getDurationNanos());
+			}
+		}
+		if (trace.isSampled()) {
+			header.append(", trace;desc=\"").append(trace.getTraceId()).append('"');
+		}
+		setHeader(HEADER, header.toString());
+	}
+
+	private static void append(StringBuilder header, String name, long nanos) {
+
+		header.append(name).append(";dur=")
+				.append(String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+	}
+}
@@ -0,0 +1,116 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timed unit of work within a {@link Trace}, started with
+ * {@link Tracer#start(String)} and ended with {@link #finish()}. When
+ * tracing is off {@link #NOOP} is handed out, so instrumented code never
+ * checks for null and allocates nothing.
+ */
+public class Span {
+
+	public static final String KIND_SERVER = "SERVER";
+
+	public static final String KIND_CLIENT = "CLIENT";
+
+	/** span of untraced work, all methods do nothing */
+	public static final Span NOOP = new Span(null, null, 0, null);
+
+	final Trace trace;
+
+	final long id;
+
+	final long parentId;
+
+	final String name;
+
+	/** span current on the thread before this one started */
+	final Span previous;
+
+	final long startNanos;
+
+	private volatile long durationNanos = -1;
+
+	private String kind;
+
+	private Map<String, String> tags;
+
+	Span(Trace trace, String name, long parentId, Span previous) {
+		this.trace = trace;
+		this.id = trace == null ? 0 : Trace.newId();
+		this.parentId = parentId;
+		this.name = name;
+		this.previous = previous;
+		this.startNanos = trace == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * @return false for {@link #NOOP}, use it to skip computing tag values
+	 */
+	public boolean isRecording() {
+		return trace != null;
+	}
+
+	public Span kind(String kind) {
+
+		if (trace != null) {
+			this.kind = kind;
+		}
+		return this;
+	}
+
+	public Span tag(String key, String value) {
+
+		if (trace != null && value != null) {
+			synchronized (this) {
+				if (tags == null) {
+					tags = new LinkedHashMap<String, String>();
+				}
+				tags.put(key, value);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Ends the span and makes the previous span current again on this thread
+	 */
+	public void finish() {
+
+		if (trace == null || durationNanos >= 0) {
+			return;
+		}
+		durationNanos = Math.max(0, System.nanoTime() - startNanos);
+		Tracer.restore(this);
+		trace.add(this);
+	}
+
+	long getDurationNanos() {
+		return durationNanos;
+	}
+
+	String getKind() {
+		return kind;
+	}
+
+	synchronized Map<String, String> getTags() {
+		return tags == null ? null : new LinkedHashMap<String, String>(tags);
+	}
+}
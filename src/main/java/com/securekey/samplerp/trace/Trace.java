@@ -0,0 +1,124 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spans recorded while serving one request. Spans finished after the trace
+ * was closed, e.g. Connect calls that outlived their timeout, are dropped.
+ */
+public class Trace {
+
+	private static final int MAX_SPANS = 256;
+
+	private final long id = newId();
+
+	private final boolean sampled;
+
+	private final long startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+	private final long startNanos = System.nanoTime();
+
+	private final List<Span> spans = new ArrayList<Span>();
+
+	private boolean closed;
+
+	/**
+	 * @param sampled true to have the trace exported once closed
+	 */
+	public Trace(boolean sampled) {
+		this.sampled = sampled;
+	}
+
+	public boolean isSampled() {
+		return sampled;
+	}
+
+	/**
+	 * @return trace id as 16 hex digits
+	 */
+	public String getTraceId() {
+		return toHex(id);
+	}
+
+	void add(Span span) {
+
+		synchronized (spans) {
+			if (!closed && spans.size() < MAX_SPANS) {
+				spans.add(span);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting spans
+	 * 
+	 * @return finished spans ordered by start time
+	 */
+	List<Span> close() {
+
+		synchronized (spans) {
+			closed = true;
+		}
+		return getSpans();
+	}
+
+	/**
+	 * @return spans finished so far, ordered by start time
+	 */
+	List<Span> getSpans() {
+
+		List<Span> copy;
+		synchronized (spans) {
+			copy = new ArrayList<Span>(spans);
+		}
+		Collections.sort(copy, new Comparator<Span>() {
+			@Override
+			public int compare(Span a, Span b) {
+				return Long.compare(a.startNanos, b.startNanos);
+			}
+		});
+		return copy;
+	}
+
+	/**
+	 * @return wall clock time of nanoTime, in microseconds since the epoch
+	 */
+	long toEpochMicros(long nanos) {
+		return startEpochMicros + TimeUnit.NANOSECONDS.toMicros(nanos - startNanos);
+	}
+
+	static long newId() {
+
+		long id;
+		do {
+			id = ThreadLocalRandom.current().nextLong();
+		} while (id == 0);
+		return id;
+	}
+
+	static String toHex(long id) {
+
+		String hex = Long.toHexString(id);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+}
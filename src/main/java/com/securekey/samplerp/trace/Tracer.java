@@ -0,0 +1,169 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.trace;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Entry point of request tracing. A trace is begun per request by
+ * {@link TracingFilter}; code on the request's path opens child spans of
+ * the span current on its thread:
+ * <pre>
+ * Span span = Tracer.start("cert.download");
+ * try {
+ *     ...
+ * } finally {
+ *     span.finish();
+ * }
+ * </pre>
+ * Work handed to other threads joins the trace through
+ * {@link #wrap(Callable)} / {@link #wrap(Runnable)}. When tracing is
+ * disabled, or the thread serves no traced request, start returns
+ * {@link Span#NOOP} after a volatile read and a thread local lookup.
+ */
+public final class Tracer {
+
+	private static volatile boolean enabled;
+
+	private static final ThreadLocal<Span> CURRENT = new ThreadLocal<Span>();
+
+	private Tracer() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void setEnabled(boolean enabled) {
+		Tracer.enabled = enabled;
+	}
+
+	/**
+	 * @return true if spans started on this thread are recorded
+	 */
+	public static boolean isTracing() {
+		return enabled && CURRENT.get() != null;
+	}
+
+	/**
+	 * @param name span name, a constant string so untraced calls allocate nothing
+	 * 
+	 * @return child span of the current span, now current itself, or
+	 *      {@link Span#NOOP}
+	 */
+	public static Span start(String name) {
+
+		if (!enabled) {
+			return Span.NOOP;
+		}
+		Span parent = CURRENT.get();
+		if (parent == null) {
+			return Span.NOOP;
+		}
+		Span span = new Span(parent.trace, name, parent.id, parent);
+		CURRENT.set(span);
+		return span;
+	}
+
+	/**
+	 * Starts the root span of trace on this thread
+	 */
+	static Span startRoot(Trace trace, String name) {
+
+		Span span = new Span(trace, name, 0, CURRENT.get());
+		CURRENT.set(span);
+		return span.kind(Span.KIND_SERVER);
+	}
+
+	/**
+	 * Called by {@link Span#finish()}, spans finished out of order or on
+	 * another thread leave the current span alone
+	 */
+	static void restore(Span finished) {
+
+		if (CURRENT.get() == finished) {
+			if (finished.previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(finished.previous);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the current span of this thread, whether finished or not
+	 */
+	static void clear() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * @return task running with the caller's current span, the task itself
+	 *      when the caller is not traced
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> task) {
+
+		final Span parent = enabled ? CURRENT.get() : null;
+		if (parent == null) {
+			return task;
+		}
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				Span previous = CURRENT.get();
+				CURRENT.set(parent);
+				try {
+					return task.call();
+				} finally {
+					reset(previous);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return task running with the caller's current span, the task itself
+	 *      when the caller is not traced
+	 */
+	public static Runnable wrap(final Runnable task) {
+
+		final Span parent = enabled ? CURRENT.get() : null;
+		if (parent == null) {
+			return task;
+		}
+		return new Runnable() {
+			@Override
+			public void run() {
+				Span previous = CURRENT.get();
+				CURRENT.set(parent);
+				try {
+					task.run();
+				} finally {
+					reset(previous);
+				}
+			}
+		};
+	}
+
+	private static void reset(Span previous) {
+
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Begins a {@link Trace} per request when tracing.enabled is set. The
+ * response carries a Server-Timing header with the duration of every span
+ * (tracing.serverTiming), and a tracing.sampleRate fraction of the traces
+ * is exported to tracing.file in the Zipkin v2 format.
+ * <br/>
+ * Installed in web.xml through a DelegatingFilterProxy. When tracing is
+ * disabled requests pass straight through.
+ */
+@Component("tracingFilter")
+public class TracingFilter extends OncePerRequestFilter {
+
+	@Value("#{system['tracing.enabled'] ?: false}")
+	private boolean enabled;
+
+	@Value("#{system['tracing.serverTiming'] ?: true}")
+	private boolean serverTiming;
+
+	@Value("#{system['tracing.sampleRate'] ?: 0.01}")
+	private double sampleRate;
+
+	@Value("#{system['tracing.file'] ?: systemProperties['java.io.tmpdir'] + '/samplerp-traces.ndjson'}")
+	private String file;
+
+	@Value("#{system['tracing.fileMaxMegabytes'] ?: 100}")
+	private long fileMaxMegabytes;
+
+	@Value("#{system['tracing.serviceName'] ?: 'samplerp'}")
+	private String serviceName;
+
+	private ZipkinFileExporter exporter;
+
+	private final AtomicLong traced = new AtomicLong();
+
+	private final AtomicLong sampled = new AtomicLong();
+
+	@PostConstruct
+	private void initTracingFilter() {
+
+		if (enabled && sampleRate > 0) {
+			exporter = new ZipkinFileExporter(new File(file), fileMaxMegabytes * 1024 * 1024, serviceName, 1000);
+		}
+		Tracer.setEnabled(enabled);
+	}
+
+	@PreDestroy
+	private void destroyTracingFilter() {
+
+		Tracer.setEnabled(false);
+		if (exporter != null) {
+			exporter.close();
+		}
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+
+		if (!enabled) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+		boolean sample = sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+		if (!sample && !serverTiming) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		traced.incrementAndGet();
+		if (sample) {
+			sampled.incrementAndGet();
+		}
+		final Trace trace = new Trace(sample);
+		final Span root = Tracer.startRoot(trace, request.getMethod() + " " + request.getRequestURI());
+		final ServerTimingResponse tracedResponse = serverTiming ? new ServerTimingResponse(response, trace, root) : null;
+		boolean async = false;
+		try {
+			filterChain.doFilter(request, tracedResponse != null ? tracedResponse : response);
+			async = request.isAsyncStarted();
+			if (async) {
+				request.getAsyncContext().addListener(new AsyncListener() {
+					@Override
+					public void onComplete(AsyncEvent event) {
+						end(trace, root, tracedResponse);
+					}
+
+					@Override
+					public void onTimeout(AsyncEvent event) {
+					}
+
+					@Override
+					public void onError(AsyncEvent event) {
+					}
+
+					@Override
+					public void onStartAsync(AsyncEvent event) {
+					}
+				});
+			}
+		} finally {
+			if (!async) {
+				end(trace, root, tracedResponse);
+			}
+			Tracer.clear();
+		}
+	}
+
+	private void end(Trace trace, Span root, ServerTimingResponse tracedResponse) {
+
+		if (tracedResponse != null) {
+			tracedResponse.addServerTiming();
+		}
+		root.finish();
+		trace.close();
+		if (trace.isSampled() && exporter != null) {
+			exporter.export(trace);
+		}
+	}
+
+	/**
+	 * Traced and sampled requests, export counts
+	 * 
+	 * @return Map
+	 */
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("enabled", enabled);
+		stats.put("serverTiming", serverTiming);
+		stats.put("sampleRate", sampleRate);
+		stats.put("traced", traced.get());
+		stats.put("sampled", sampled.get());
+		if (exporter != null) {
+			stats.putAll(exporter.getStats());
+		}
+		return stats;
+	}
+}
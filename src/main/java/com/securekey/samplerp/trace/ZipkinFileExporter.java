@@ -0,0 +1,216 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Appends sampled traces to a file in the Zipkin v2 JSON format, one trace
+ * per line as a JSON array of spans, so each line can be posted as is to a
+ * Zipkin collector's /api/v2/spans. Traces are written by a background
+ * thread; when it falls behind, traces are dropped rather than slowing
+ * requests down. Once the file exceeds maxBytes it is renamed to
+ * <i>file</i>.1, replacing the previous one.
+ */
+public class ZipkinFileExporter {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+	private final File file;
+
+	private final long maxBytes;
+
+	private final Map<String, Object> localEndpoint;
+
+	private final BlockingQueue<Trace> queue;
+
+	private final AtomicLong exported = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread writer;
+
+	private OutputStream out;
+
+	private long written;
+
+	public ZipkinFileExporter(File file, long maxBytes, String serviceName, int queueCapacity) {
+
+		this.file = file;
+		this.maxBytes = maxBytes;
+		this.localEndpoint = new LinkedHashMap<String, Object>();
+		this.localEndpoint.put("serviceName", serviceName);
+		this.queue = new ArrayBlockingQueue<Trace>(queueCapacity);
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeTraces();
+			}
+		}, "trace-export");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Queues a closed trace for export
+	 */
+	public void export(Trace trace) {
+
+		if (!queue.offer(trace)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes the traces already queued, then stops
+	 */
+	public void close() {
+
+		writer.interrupt();
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public Map<String, Object> getStats() {
+
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("file", file.getPath());
+		stats.put("exported", exported.get());
+		stats.put("dropped", dropped.get());
+		stats.put("queued", queue.size());
+		return stats;
+	}
+
+	private void writeTraces() {
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				write(queue.take());
+				Trace next;
+				while ((next = queue.poll()) != null) {
+					write(next);
+				}
+				if (out != null) {
+					out.flush();
+				}
+			}
+		} catch (InterruptedException e) {
+			Trace next;
+			while ((next = queue.poll()) != null) {
+				write(next);
+			}
+		} catch (IOException e) {
+			log.warn("Trace export to " + file + " failed: " + e.getMessage());
+		} finally {
+			closeFile();
+		}
+	}
+
+	private void write(Trace trace) {
+
+		try {
+			byte[] line = MAPPER.writeValueAsBytes(toZipkin(trace));
+			if (out == null || written + line.length + 1 > maxBytes) {
+				rotate();
+			}
+			out.write(line);
+			out.write('\n');
+			written += line.length + 1;
+			exported.incrementAndGet();
+		} catch (IOException e) {
+			dropped.incrementAndGet();
+			log.warn("Trace export to " + file + " failed: " + e.getMessage());
+			closeFile();
+		}
+	}
+
+	private void rotate() throws IOException {
+
+		if (out != null) {
+			closeFile();
+			File previous = new File(file.getPath() + ".1");
+			if (previous.exists() && !previous.delete() || !file.renameTo(previous)) {
+				throw new IOException("Can't rotate " + file);
+			}
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can't create directory " + dir);
+		}
+		written = file.length();
+		out = new FileOutputStream(file, true);
+	}
+
+	private void closeFile() {
+
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				log.warn("Failed to close " + file + ": " + e.getMessage());
+			}
+			out = null;
+		}
+	}
+
+	private List<Map<String, Object>> toZipkin(Trace trace) {
+
+		String traceId = trace.getTraceId();
+		List<Map<String, Object>> spans = new ArrayList<Map<String, Object>>();
+		for (Span span : trace.getSpans()) {
+			Map<String, Object> zipkinSpan = new LinkedHashMap<String, Object>();
+			zipkinSpan.put("traceId", traceId);
+			if (span.parentId != 0) {
+				zipkinSpan.put("parentId", Trace.toHex(span.parentId));
+			}
+			zipkinSpan.put("id", Trace.toHex(span.id));
+			if (span.getKind() != null) {
+				zipkinSpan.put("kind", span.getKind());
+			}
+			zipkinSpan.put("name", span.name);
+			zipkinSpan.put("timestamp", trace.toEpochMicros(span.startNanos));
+			zipkinSpan.put("duration", Math.max(1, TimeUnit.NANOSECONDS.toMicros(span.getDurationNanos())));
+			zipkinSpan.put("localEndpoint", localEndpoint);
+			Map<String, String> tags = span.getTags();
+			if (tags != null) {
+				zipkinSpan.put("tags", tags);
+			}
+			spans.add(zipkinSpan);
+		}
+		return spans;
+	}
+}
@@ -0,0 +1,189 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.web;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.securekey.connect.beans.JsonObject;
+import com.securekey.samplerp.tenant.TenantContext;
+import com.securekey.samplerp.trace.Tracer;
+
+/**
+ * Servlet 3 async variants of the mobile to RP server calls. Blocking
+ * briidge.Net Connect calls run on the bounded connectExecutor, so container
+ * threads are released as soon as the request is accepted.
+ * 
+ * @see BriidgeController
+ */
+@Controller @RequestMapping("async")
+public class AsyncBriidgeController {
+
+	@Autowired private BriidgeController briidgeController;
+
+	@Autowired @Qualifier("connectExecutor") private TaskExecutor connectExecutor;
+
+	@Value("#{system['connectExecutor.asyncTimeoutMillis'] ?: 30000}")
+	private long asyncTimeoutMillis;
+
+	@RequestMapping(value = "getProvisioningAuthorizationCodeSimple", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<String> getProvisioningAuthorizationCodeSimple () {
+
+		return submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return briidgeController.getProvisioningAuthorizationCodeSimple();
+			}
+		});
+	}
+
+	@RequestMapping(value = "getProvisioningAuthorizationCode.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<JsonObject> getProvisioningAuthorizationCode () {
+
+		return submit(new Callable<JsonObject>() {
+			@Override
+			public JsonObject call() throws Exception {
+				return briidgeController.getProvisioningAuthorizationCode();
+			}
+		});
+	}
+
+	@RequestMapping(value = "getDeviceId.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<JsonObject> getDeviceId (@RequestParam("txnId") final String txnId) {
+
+		return submit(new Callable<JsonObject>() {
+			@Override
+			public JsonObject call() throws Exception {
+				return briidgeController.getDeviceId(txnId);
+			}
+		});
+	}
+
+	@RequestMapping(value = "getCardReadData.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<JsonObject> getCardReadData (@RequestParam("txnId") final String txnId) {
+
+		return submit(new Callable<JsonObject>() {
+			@Override
+			public JsonObject call() throws Exception {
+				return briidgeController.getCardReadData(txnId);
+			}
+		});
+	}
+
+	@RequestMapping(value = "getDeviceInitiatedCardReadData.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<JsonObject> getDeviceInitiatedCardReadData (@RequestParam("txnId") final String txnId) {
+
+		return submit(new Callable<JsonObject>() {
+			@Override
+			public JsonObject call() throws Exception {
+				return briidgeController.getDeviceInitiatedCardReadData(txnId);
+			}
+		});
+	}
+
+	@RequestMapping(value = "initMobileQuickcode.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<JsonObject> initMobileQuickcode (@RequestParam("txnId") final String txnId,
+			@RequestParam("userId") final String userId) {
+
+		return submit(new Callable<JsonObject>() {
+			@Override
+			public JsonObject call() throws Exception {
+				return briidgeController.initMobileQuickcode(txnId, userId);
+			}
+		});
+	}
+
+	@RequestMapping(value = "verifyQuickcode.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<JsonObject> verifyQuickcode (@RequestParam("txnId") final String txnId) {
+
+		return submit(new Callable<JsonObject>() {
+			@Override
+			public JsonObject call() throws Exception {
+				return briidgeController.verifyQuickcode(txnId);
+			}
+		});
+	}
+
+	@RequestMapping(value = "getPairingCode.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<String> getPairingCode (@RequestParam("userId") final String userId) {
+
+		return submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return briidgeController.getPairingCode(userId);
+			}
+		});
+	}
+
+	@RequestMapping(value = "verifyJWT.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<String> verifyJWT (@RequestParam("jwt") final String jwt) {
+
+		return submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return briidgeController.verifyJWT(jwt);
+			}
+		});
+	}
+
+	@ExceptionHandler(TaskRejectedException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public @ResponseBody Map<String, String> rejected (TaskRejectedException e) {
+
+		return Collections.singletonMap("status", "server_busy");
+	}
+
+	/**
+	 * Runs the call on connectExecutor. Submission happens before async
+	 * processing starts, so a full executor is reported synchronously through
+	 * {@link #rejected(TaskRejectedException)}. Timed out requests are
+	 * answered with 503 by Spring MVC.
+	 */
+	private <T> DeferredResult<T> submit(final Callable<T> call) {
+
+		final DeferredResult<T> result = new DeferredResult<T>(asyncTimeoutMillis);
+		connectExecutor.execute(TenantContext.wrap(Tracer.wrap(new Runnable() {
+			@Override
+			public void run() {
+				if (result.isSetOrExpired()) {
+					return;
+				}
+				try {
+					result.setResult(call.call());
+				} catch (Exception e) {
+					result.setErrorResult(e);
+				}
+			}
+		})));
+		return result;
+	}
+}
@@ -0,0 +1,211 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.securekey.samplerp.batch.BatchJobs;
+import com.securekey.samplerp.batch.Checkpoint;
+import com.securekey.samplerp.batch.JobRunningException;
+import com.securekey.samplerp.batch.LineRecordReader;
+import com.securekey.samplerp.batch.PairingCampaign;
+import com.securekey.samplerp.service.DeviceOperationsService;
+import com.securekey.samplerp.service.PairingCampaignService;
+import com.securekey.samplerp.service.UserProvisioningService;
+
+/**
+ * Bulk operations for back office tooling. Input is streamed from the
+ * request body, per record results are streamed back as NDJSON.
+ * <br/>
+ * Jobs only start for requests carrying the batch.adminToken shared secret
+ * in the X-Admin-Token header; while batch.adminToken is unset they are
+ * refused.
+ * 
+ */
+@Controller @RequestMapping("batch")
+public class BatchController {
+
+	public static final String NDJSON = "application/x-ndjson";
+
+	public static final String JOB_ID_HEADER = "X-Batch-Job-Id";
+
+	public static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+	@Value("#{system['batch.adminToken'] ?: ''}")
+	private String adminToken;
+
+	@Autowired private UserProvisioningService userProvisioningService;
+
+	@Autowired private DeviceOperationsService deviceOperationsService;
+
+	@Autowired private PairingCampaignService pairingCampaignService;
+
+	@Autowired private BatchJobs batchJobs;
+
+	/**
+	 * Provisions users, see {@link com.securekey.samplerp.batch.UserRecordReader}
+	 * for the input formats. Post the same input with the jobId returned in
+	 * the X-Batch-Job-Id header to resume an interrupted job.
+	 */
+	@RequestMapping(value = "users", method = RequestMethod.POST)
+	public void provisionUsers (HttpServletRequest request, HttpServletResponse response,
+			@RequestParam(value = "jobId", required = false) String jobId,
+			@RequestParam(value = "format", required = false) String format)
+					throws IOException, InterruptedException {
+
+		run(request, response, "users", jobId, format, new Job() {
+			@Override
+			public void run(InputStream in, String format, String jobId, OutputStream out)
+					throws IOException, InterruptedException {
+				userProvisioningService.provision(in, format, jobId, out);
+			}
+		});
+	}
+
+	/**
+	 * Verifies, deverifies or removes devices, see
+	 * {@link com.securekey.samplerp.batch.DeviceRecordReader} for the input
+	 * formats. Resumed like {@link #provisionUsers}.
+	 */
+	@RequestMapping(value = "devices", method = RequestMethod.POST)
+	public void applyDeviceOperations (HttpServletRequest request, HttpServletResponse response,
+			@RequestParam(value = "jobId", required = false) String jobId,
+			@RequestParam(value = "format", required = false) String format)
+					throws IOException, InterruptedException {
+
+		run(request, response, "devices", jobId, format, new Job() {
+			@Override
+			public void run(InputStream in, String format, String jobId, OutputStream out)
+					throws IOException, InterruptedException {
+				deviceOperationsService.apply(in, format, jobId, out);
+			}
+		});
+	}
+
+	/**
+	 * Runs a pairing code campaign for the posted user list, see
+	 * {@link com.securekey.samplerp.batch.UserIdRecordReader} for the input
+	 * formats and {@link PairingCampaign} for the settings, bound from
+	 * request parameters. Codes are written to the campaign directory as
+	 * &lt;X-Batch-Job-Id&gt;.codes.csv. Posting the list again only issues
+	 * codes to users whose code expired or failed.
+	 */
+	@RequestMapping(value = "campaigns/{campaignId:.+}", method = RequestMethod.POST)
+	public void runCampaign (HttpServletRequest request, HttpServletResponse response,
+			@PathVariable("campaignId") String campaignId, final PairingCampaign campaign,
+			@RequestParam(value = "format", required = false) String format)
+					throws IOException, InterruptedException {
+
+		if (!Checkpoint.isValidJobId(campaignId)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "invalid campaignId");
+			return;
+		}
+		campaign.setCampaignId(campaignId);
+		run(request, response, campaignId, null, format, new Job() {
+			@Override
+			public void run(InputStream in, String format, String jobId, OutputStream out)
+					throws IOException, InterruptedException {
+				pairingCampaignService.run(campaign, jobId, in, format, out);
+			}
+		});
+	}
+
+	/**
+	 * Number of users per pairing code state of a campaign
+	 */
+	@RequestMapping(value = "campaigns/{campaignId}.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> campaign (@PathVariable("campaignId") String campaignId,
+			HttpServletResponse response) throws IOException {
+
+		Map<String, Object> stats = this.pairingCampaignService.getLedgerStats(campaignId);
+		if (stats == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "unknown campaign");
+		}
+		return stats;
+	}
+
+	/**
+	 * Live progress of running and recently finished batch jobs
+	 */
+	@RequestMapping(value = "jobs.json", method = RequestMethod.GET)
+	public @ResponseBody List<Map<String, Object>> jobs () {
+
+		return this.batchJobs.getProgress();
+	}
+
+	private void run(HttpServletRequest request, HttpServletResponse response, String type, String jobId,
+			String format, Job job) throws IOException, InterruptedException {
+
+		if (!isAdmin(request)) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN, adminToken.isEmpty()
+					? "bulk operations disabled, batch.adminToken is not set" : "invalid " + ADMIN_TOKEN_HEADER);
+			return;
+		}
+		if (jobId == null) {
+			jobId = type + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+		}
+		if (format == null) {
+			format = request.getContentType() != null && request.getContentType().startsWith("text/csv")
+					? LineRecordReader.FORMAT_CSV : LineRecordReader.FORMAT_NDJSON;
+		}
+		if (!Checkpoint.isValidJobId(jobId)
+				|| !(LineRecordReader.FORMAT_CSV.equals(format) || LineRecordReader.FORMAT_NDJSON.equals(format))) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "invalid jobId or format");
+			return;
+		}
+
+		response.setContentType(NDJSON);
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader(JOB_ID_HEADER, jobId);
+		try {
+			job.run(request.getInputStream(), format, jobId, response.getOutputStream());
+		} catch (JobRunningException e) {
+			// thrown before anything is written, later failures must not become a 409
+			response.sendError(HttpServletResponse.SC_CONFLICT, e.getMessage());
+		}
+	}
+
+	private boolean isAdmin(HttpServletRequest request) throws IOException {
+
+		String token = request.getHeader(ADMIN_TOKEN_HEADER);
+		return !adminToken.isEmpty() && token != null
+				&& MessageDigest.isEqual(token.getBytes("UTF-8"), adminToken.getBytes("UTF-8"));
+	}
+
+	private interface Job {
+
+		void run(InputStream in, String format, String jobId, OutputStream out) throws IOException, InterruptedException;
+	}
+}
@@ -16,26 +16,15 @@
 package com.securekey.samplerp.web;
 
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.StringReader;
-import java.security.PublicKey;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
-import java.security.interfaces.RSAPublicKey;
+import java.security.InvalidKeyException;
+import java.security.cert.CertificateException;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.bouncycastle.util.io.pem.PemReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -48,12 +37,20 @@ import org.springframework.web.bind.annotation.ResponseBody;
 
 import com.nimbusds.jose.JWSObject;
 import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
 import com.securekey.connect.beans.JsonObject;
-import com.securekey.connect.beans.client.GetDeviceIdResponse;
 import com.securekey.connect.beans.client.GetProvisioningAuthorizationCodeResponse;
 import com.securekey.connect.beans.client.PairInitiationResponse;
+import com.securekey.samplerp.jfr.FlightEvents;
 import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.CertificateService;
+import com.securekey.samplerp.service.EnrollmentService;
+import com.securekey.samplerp.service.KnownEntityRegistry;
+import com.securekey.samplerp.service.TransactionState;
+import com.securekey.samplerp.service.TransactionStateService;
+import com.securekey.samplerp.service.interceptor.MetricsInterceptor;
+import com.securekey.samplerp.tenant.TenantContext;
+import com.securekey.samplerp.trace.Span;
+import com.securekey.samplerp.trace.Tracer;
 
 /**
  * Implements mobile to RP server calls 
@@ -72,6 +69,14 @@ public class BriidgeController {
 
 	@Autowired private BriidgeService briidgeService;
 
+	@Autowired private CertificateService certificateService;
+
+	@Autowired private EnrollmentService enrollmentService;
+
+	@Autowired private KnownEntityRegistry knownEntityRegistry;
+
+	@Autowired private TransactionStateService transactionStateService;
+
 	@RequestMapping(value = "getProvisioningAuthorizationCodeSimple", method = {RequestMethod.GET, RequestMethod.POST})
 	public @ResponseBody String getProvisioningAuthorizationCodeSimple () throws Exception {
 		
@@ -106,14 +111,7 @@ public class BriidgeController {
 	public @ResponseBody JsonObject initMobileQuickcode (@RequestParam("txnId") String txnId,
 			@RequestParam("userId") String userId) throws Exception {
 
-		final GetDeviceIdResponse digc = this.briidgeService.deviceInitiatedGetDevice(txnId, null);
-		if (digc.getError() !=null) {
-			return digc;
-		} else {
-			this.briidgeService.addUser(userId, null);
-			this.briidgeService.addDevice(userId, digc.getDeviceInfo().getDeviceId(), true);
-			return this.briidgeService.initSetQuickCode(userId, null);
-		}
+		return this.enrollmentService.initMobileQuickcode(txnId, userId);
 	}
 
 	@RequestMapping(value = "verifyLogin.json", method = {RequestMethod.GET, RequestMethod.POST})
@@ -132,15 +130,23 @@ public class BriidgeController {
 	@RequestMapping(value = "getPairingCode.json", method = {RequestMethod.GET, RequestMethod.POST})
 	public @ResponseBody String getPairingCode (@RequestParam("userId") String userId) throws Exception {
 
-		this.briidgeService.addUser(userId, null);
+		if (!TenantContext.resolve(this.knownEntityRegistry, KnownEntityRegistry.class).skipAddUser(userId)) {
+			this.briidgeService.addUser(userId, null);
+		}
 
 		// we won't set language or other parameters except mandatory expiry data (30 min)
 		Calendar calendar = Calendar.getInstance();
 		calendar.add(Calendar.MINUTE, 30);
 		Date expiryDate = calendar.getTime();
 
-		final PairInitiationResponse pd = this.briidgeService.pairDevice(userId, "", "", null, expiryDate, Boolean.TRUE, "", "");
+		// completion is notified to notificationController when a callback URL is configured
+		String notificationUrl = this.transactionStateService.getNotificationUrl();
+		final PairInitiationResponse pd = this.briidgeService.pairDevice(userId, "", "", null, expiryDate, Boolean.TRUE,
+				notificationUrl == null ? "" : "httpPost", notificationUrl == null ? "" : notificationUrl);
 
+		if (pd.getError() == null && notificationUrl != null) {
+			this.transactionStateService.pending(pd.getTxnId(), "pairDevice");
+		}
 		if (pd.getError() != null) {
 			return "ERROR: " + pd.getError() + " " + pd.getErrorDescription();
 		} else {
@@ -148,50 +154,62 @@ public class BriidgeController {
 		}
 	}
 
+	@RequestMapping(value = "getPairingStatus.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody Map<String, Object> getPairingStatus (@RequestParam("txnId") String txnId) {
+
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("txnId", txnId);
+		TransactionState state = this.transactionStateService.get(txnId);
+		if (state == null) {
+			status.put("state", "unknown");
+		} else {
+			status.put("state", state.getState());
+			status.put("notifiedStatus", state.getNotifiedStatus());
+			status.put("result", state.getResult());
+		}
+		return status;
+	}
+
 	@RequestMapping(value = "verifyJWT.json", method = {RequestMethod.GET,RequestMethod.POST})
 	public @ResponseBody String verifyJWT (@RequestParam("jwt") String jwt) throws Exception {
 
-		JWSObject jws = JWSObject.parse(jwt);
-		HttpClient client = new DefaultHttpClient();
-		HttpGet request = new HttpGet(jws.getHeader().getX509CertURL().toString());
-		request.addHeader("Accept", "text/plain");
+		Span span = Tracer.start("jwt.parse");
+		Object event = FlightEvents.beginJwtStage();
+		String outcome = MetricsInterceptor.EXCEPTION;
+		JWSObject jws;
+		try {
+			jws = JWSObject.parse(jwt);
+			outcome = MetricsInterceptor.OK;
+		} finally {
+			span.finish();
+			FlightEvents.endJwtStage(event, FlightEvents.JWT_DECODE, outcome);
+		}
 
+		// fetch and parse events come from the certificate service, on cache misses only
+		JWSVerifier verifier;
+		span = Tracer.start("jwt.certificate");
 		try {
-			HttpResponse response = client.execute(request);
-			HttpEntity entity = response.getEntity();
-
-			if(entity != null) {	
-
-				String pemFileContent = entity == null ? null : EntityUtils.toString(entity);	
-				PemReader pemReader = new PemReader(new StringReader(pemFileContent));
-				byte[] pubK = pemReader.readPemObject().getContent();
-				pemReader.close();		
-				Certificate serverCert = CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(pubK));
-				pemReader.close();
-
-				if (serverCert instanceof X509Certificate) {
-
-					X509Certificate cert = (X509Certificate) serverCert;
-					PublicKey publicKey = cert.getPublicKey();
-					if (publicKey instanceof RSAPublicKey) {
-						JWSVerifier verifier = new RSASSAVerifier((RSAPublicKey) publicKey);
-						if (jws.verify(verifier)) {
-							return "{\"status\":\"jwt_verified\"}";
-						} else {
-							return "{\"status\":\"jwt_verify_fail\"}";
-						}
-					} else {
-						return "{\"status\":\"jwt_pub_key_not_rsa\"}";
-					}
-
-				} else {
-					return "{\"status\":\"jwt_pem_not_cert\"}";
-				}
-			} else {
-				return "{\"status\":\"jwt_pem_download_fail\"}";
-			}
+			verifier = this.certificateService.getVerifier(jws.getHeader().getX509CertURL());
 		} catch (IOException e) {
 			return "{\"status\":\"jwt_pem_download_fail\"}";
+		} catch (CertificateException e) {
+			return "{\"status\":\"jwt_pem_not_cert\"}";
+		} catch (InvalidKeyException e) {
+			return "{\"status\":\"jwt_pub_key_not_rsa\"}";
+		} finally {
+			span.finish();
 		}
+
+		span = Tracer.start("jwt.verify");
+		event = FlightEvents.beginJwtStage();
+		outcome = MetricsInterceptor.EXCEPTION;
+		try {
+			outcome = jws.verify(verifier) ? "jwt_verified" : "jwt_verify_fail";
+		} finally {
+			span.finish();
+			FlightEvents.endJwtStage(event, FlightEvents.JWT_VERIFY, outcome);
+		}
+
+		return "{\"status\":\"" + outcome + "\"}";
 	}
 }
@@ -0,0 +1,55 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.web;
+
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.securekey.samplerp.service.WarmupService;
+import com.securekey.samplerp.tenant.TenantRegistry;
+
+/**
+ * Readiness check for load balancers: answers 503 Service Unavailable until
+ * the warm-up finished and the tenants configured at startup are loaded
+ * 
+ */
+@Controller @RequestMapping("health")
+public class HealthController {
+
+	@Autowired private WarmupService warmupService;
+
+	@Autowired private TenantRegistry tenantRegistry;
+
+	@RequestMapping(value = "ready.json", method = {RequestMethod.GET, RequestMethod.HEAD})
+	public @ResponseBody Map<String, Object> ready (HttpServletResponse response) {
+
+		if (!this.warmupService.isReady() || !this.tenantRegistry.isInitialized()) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+		Map<String, Object> status = this.warmupService.getStatus();
+		if (this.tenantRegistry.isEnabled()) {
+			status.put("tenants", this.tenantRegistry.getStatus());
+		}
+		return status;
+	}
+}
@@ -0,0 +1,165 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.web;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.securekey.samplerp.metrics.CallMetrics;
+import com.securekey.samplerp.metrics.PrometheusWriter;
+import com.securekey.samplerp.service.interceptor.CircuitBreaker;
+import com.securekey.samplerp.service.interceptor.MetricsInterceptor;
+import com.securekey.samplerp.service.interceptor.ResilienceInterceptor;
+import com.securekey.samplerp.tenant.Tenant;
+import com.securekey.samplerp.tenant.TenantRegistry;
+
+/**
+ * Exposes briidge.Net call and request metrics in the Prometheus text
+ * format, for scraping
+ * 
+ */
+@Controller @RequestMapping("metrics")
+public class MetricsController {
+
+	private static final String DEFAULT_TENANT = "default";
+
+	@Autowired private MetricsInterceptor metricsInterceptor;
+
+	@Autowired private ResilienceInterceptor resilienceInterceptor;
+
+	@Autowired private RequestMetricsInterceptor requestMetricsInterceptor;
+
+	@Autowired private TenantRegistry tenantRegistry;
+
+	private double[] bucketsSeconds;
+
+	/**
+	 * Spring has no default String to double[] conversion, the comma
+	 * separated list is split as String[] and parsed here
+	 */
+	@Value("#{system['metrics.bucketsSeconds'] ?: '0.005,0.01,0.025,0.05,0.1,0.25,0.5,1,2.5,5,10'}")
+	public void setBucketsSeconds(String[] bucketsSeconds) {
+
+		this.bucketsSeconds = new double[bucketsSeconds.length];
+		for (int i = 0; i < bucketsSeconds.length; i++) {
+			this.bucketsSeconds[i] = Double.parseDouble(bucketsSeconds[i].trim());
+		}
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public void metrics (HttpServletResponse response) throws IOException {
+
+		response.setContentType(PrometheusWriter.CONTENT_TYPE);
+		PrometheusWriter out = new PrometheusWriter(response.getWriter());
+
+		// with tenants configured every tenant has its own interceptor chain, the
+		// briidge families then carry a tenant label, "default" for the root chain
+		Map<String, Map<String, CallMetrics>> chains = new LinkedHashMap<String, Map<String, CallMetrics>>();
+		Map<String, Map<String, CircuitBreaker>> circuits = new LinkedHashMap<String, Map<String, CircuitBreaker>>();
+		String root = this.tenantRegistry.isEnabled() ? DEFAULT_TENANT : null;
+		chains.put(root, this.metricsInterceptor.getMetrics());
+		circuits.put(root, this.resilienceInterceptor.getCircuitBreakers());
+		for (Tenant tenant : this.tenantRegistry.getTenants()) {
+			chains.put(tenant.getId(), tenant.getBean(MetricsInterceptor.class).getMetrics());
+			circuits.put(tenant.getId(), tenant.getBean(ResilienceInterceptor.class).getCircuitBreakers());
+		}
+
+		out.family("briidge_calls_in_flight", "gauge", "briidge.Net calls in progress");
+		for (Map.Entry<String, Map<String, CallMetrics>> chain : chains.entrySet()) {
+			for (Map.Entry<String, CallMetrics> operation : chain.getValue().entrySet()) {
+				out.sample("briidge_calls_in_flight", operation.getValue().getInFlight(),
+						labels(chain.getKey(), "operation", operation.getKey()));
+			}
+		}
+		out.family("briidge_calls_total", "counter", "Completed briidge.Net calls by outcome, ok or error code");
+		for (Map.Entry<String, Map<String, CallMetrics>> chain : chains.entrySet()) {
+			for (Map.Entry<String, CallMetrics> operation : chain.getValue().entrySet()) {
+				for (Map.Entry<String, Long> outcome : operation.getValue().getOutcomes().entrySet()) {
+					out.sample("briidge_calls_total", outcome.getValue(),
+							labels(chain.getKey(), "operation", operation.getKey(), "outcome", outcome.getKey()));
+				}
+			}
+		}
+		out.family("briidge_call_duration_seconds", "histogram", "briidge.Net call latency");
+		for (Map.Entry<String, Map<String, CallMetrics>> chain : chains.entrySet()) {
+			for (Map.Entry<String, CallMetrics> operation : chain.getValue().entrySet()) {
+				out.histogram("briidge_call_duration_seconds", operation.getValue().getLatency().snapshot(), bucketsSeconds,
+						labels(chain.getKey(), "operation", operation.getKey()));
+			}
+		}
+		// one sample per state, 1 for the current one, so alerts can match on state="OPEN"
+		out.family("briidge_circuit_state", "gauge", "briidge.Net circuit breaker state, 1 for the current state");
+		for (Map.Entry<String, Map<String, CircuitBreaker>> chain : circuits.entrySet()) {
+			for (Map.Entry<String, CircuitBreaker> operation : chain.getValue().entrySet()) {
+				CircuitBreaker.State current = operation.getValue().getState();
+				for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+					out.sample("briidge_circuit_state", state == current ? 1 : 0,
+							labels(chain.getKey(), "operation", operation.getKey(), "state", state.name()));
+				}
+			}
+		}
+		out.family("briidge_circuit_transitions_total", "counter", "briidge.Net circuit breaker transitions by new state");
+		for (Map.Entry<String, Map<String, CircuitBreaker>> chain : circuits.entrySet()) {
+			for (Map.Entry<String, CircuitBreaker> operation : chain.getValue().entrySet()) {
+				for (Map.Entry<String, Long> transition : operation.getValue().getTransitions().entrySet()) {
+					out.sample("briidge_circuit_transitions_total", transition.getValue(),
+							labels(chain.getKey(), "operation", operation.getKey(), "to", transition.getKey()));
+				}
+			}
+		}
+
+		Iterable<RequestMetricsInterceptor.Mapping> mappings = this.requestMetricsInterceptor.getMappings();
+		out.family("http_server_requests_in_flight", "gauge", "Requests in progress");
+		for (RequestMetricsInterceptor.Mapping mapping : mappings) {
+			out.sample("http_server_requests_in_flight", mapping.getCalls().getInFlight(),
+					"handler", mapping.getHandler(), "mapping", mapping.getPattern());
+		}
+		out.family("http_server_requests_total", "counter", "Completed requests by response status");
+		for (RequestMetricsInterceptor.Mapping mapping : mappings) {
+			for (Map.Entry<String, Long> status : mapping.getCalls().getOutcomes().entrySet()) {
+				out.sample("http_server_requests_total", status.getValue(),
+						"handler", mapping.getHandler(), "mapping", mapping.getPattern(), "status", status.getKey());
+			}
+		}
+		out.family("http_server_request_duration_seconds", "histogram", "Request latency");
+		for (RequestMetricsInterceptor.Mapping mapping : mappings) {
+			out.histogram("http_server_request_duration_seconds", mapping.getCalls().getLatency().snapshot(),
+					bucketsSeconds, "handler", mapping.getHandler(), "mapping", mapping.getPattern());
+		}
+		response.getWriter().flush();
+	}
+
+	private static String[] labels(String tenant, String... labels) {
+
+		if (tenant == null) {
+			return labels;
+		}
+		String[] tenantLabels = new String[labels.length + 2];
+		tenantLabels[0] = "tenant";
+		tenantLabels[1] = tenant;
+		System.arraycopy(labels, 0, tenantLabels, 2, labels.length);
+		return tenantLabels;
+	}
+}
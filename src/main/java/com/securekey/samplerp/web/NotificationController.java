@@ -0,0 +1,118 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.web;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import com.securekey.samplerp.service.TransactionStateService;
+import com.securekey.samplerp.service.TransactionStateService.Notification;
+
+/**
+ * Receives briidge.Net completion notifications (notificationType httpPost)
+ * carrying the transaction id and a status, as JSON or form parameters.
+ * Set notification.callbackUrl to this endpoint's public URL, with the
+ * notification.secret shared secret in its key parameter: notifications
+ * without it get 403, and while notification.secret is unset every
+ * notification is refused. Notifications for transactions not initiated by
+ * this RP are answered with 404, a status other than success or failure
+ * with 400.
+ * 
+ */
+@Controller @RequestMapping("notifications")
+public class NotificationController {
+
+	/** notified statuses, see BriidgeService.pairDevice */
+	static final String SUCCESS = "success";
+
+	static final String FAILURE = "failure";
+
+	@Autowired private TransactionStateService transactionStateService;
+
+	@Value("#{system['notification.secret'] ?: ''}")
+	private String secret;
+
+	@RequestMapping(value = "completion", method = RequestMethod.POST, consumes = "application/json")
+	public @ResponseBody Map<String, String> completion (@RequestBody Map<String, Object> notification,
+			@RequestParam(value = "key", required = false) String key, HttpServletResponse response)
+			throws UnsupportedEncodingException {
+
+		Object txnId = notification.get("txnId");
+		Object status = notification.get("status");
+		return completion(txnId == null ? null : txnId.toString(), status == null ? null : status.toString(), key, response);
+	}
+
+	@RequestMapping(value = "completion", method = RequestMethod.POST)
+	public @ResponseBody Map<String, String> completion (@RequestParam(value = "txnId", required = false) String txnId,
+			@RequestParam(value = "status", required = false) String status,
+			@RequestParam(value = "key", required = false) String key, HttpServletResponse response)
+			throws UnsupportedEncodingException {
+
+		if (secret.isEmpty()) {
+			response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+			return Collections.singletonMap("status", "notifications_disabled");
+		}
+		if (!isSecret(key)) {
+			response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+			return Collections.singletonMap("status", "invalid_key");
+		}
+		if (isBlank(txnId)) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return Collections.singletonMap("status", "missing_txnId");
+		}
+		if (!SUCCESS.equalsIgnoreCase(status) && !FAILURE.equalsIgnoreCase(status)) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return Collections.singletonMap("status", "invalid_status");
+		}
+		Notification outcome = this.transactionStateService.notified(txnId, status.toLowerCase());
+		if (outcome == Notification.UNKNOWN) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return Collections.singletonMap("status", "unknown_txnId");
+		}
+		return Collections.singletonMap("status", outcome == Notification.ACCEPTED ? "accepted" : "duplicate");
+	}
+
+	private boolean isSecret(String key) throws UnsupportedEncodingException {
+
+		return key != null && MessageDigest.isEqual(key.getBytes("UTF-8"), secret.getBytes("UTF-8"));
+	}
+
+	@ExceptionHandler(TaskRejectedException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public @ResponseBody Map<String, String> rejected (TaskRejectedException e) {
+
+		return Collections.singletonMap("status", "server_busy");
+	}
+}
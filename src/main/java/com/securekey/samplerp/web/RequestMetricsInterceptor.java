@@ -0,0 +1,155 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.web;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import com.securekey.samplerp.metrics.CallMetrics;
+
+/**
+ * Records latency, requests in flight and response status per controller
+ * request mapping. Asynchronous requests are recorded when the response is
+ * completed, not when the request thread is released.
+ */
+public class RequestMetricsInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String START = RequestMetricsInterceptor.class.getName() + ".start";
+
+	private static final String MAPPING = RequestMetricsInterceptor.class.getName() + ".mapping";
+
+	private final ConcurrentMap<String, Mapping> mappings = new ConcurrentHashMap<String, Mapping>();
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+
+		if (!(handler instanceof HandlerMethod) || request.getAttribute(START) != null) {
+			return true;
+		}
+		Mapping mapping = getMapping(((HandlerMethod) handler).getBeanType().getSimpleName(),
+				String.valueOf(request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE)));
+		request.setAttribute(MAPPING, mapping);
+		request.setAttribute(START, mapping.calls.begin());
+		return true;
+	}
+
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, final HttpServletResponse response,
+			Object handler) {
+
+		final Mapping mapping = (Mapping) request.getAttribute(MAPPING);
+		if (mapping == null) {
+			return;
+		}
+		final long start = (Long) request.getAttribute(START);
+		request.removeAttribute(MAPPING);
+		request.getAsyncContext().addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				mapping.calls.end(start, Integer.toString(response.getStatus()));
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+			Exception ex) {
+
+		Mapping mapping = (Mapping) request.getAttribute(MAPPING);
+		if (mapping == null) {
+			return;
+		}
+		request.removeAttribute(MAPPING);
+		int status = ex != null && response.getStatus() < 400 ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+				: response.getStatus();
+		mapping.calls.end((Long) request.getAttribute(START), Integer.toString(status));
+	}
+
+	/**
+	 * @return request mappings sorted by handler and pattern
+	 */
+	public Iterable<Mapping> getMappings() {
+
+		Map<String, Mapping> sorted = new TreeMap<String, Mapping>(mappings);
+		return sorted.values();
+	}
+
+	private Mapping getMapping(String handler, String pattern) {
+
+		String key = handler + " " + pattern;
+		Mapping mapping = mappings.get(key);
+		if (mapping == null) {
+			Mapping created = new Mapping(handler, pattern);
+			mapping = mappings.putIfAbsent(key, created);
+			if (mapping == null) {
+				mapping = created;
+			}
+		}
+		return mapping;
+	}
+
+	/**
+	 * Metrics of one request mapping, outcomes are response status codes
+	 */
+	public static final class Mapping {
+
+		private final String handler;
+
+		private final String pattern;
+
+		private final CallMetrics calls = new CallMetrics();
+
+		private Mapping(String handler, String pattern) {
+			this.handler = handler;
+			this.pattern = pattern;
+		}
+
+		public String getHandler() {
+			return handler;
+		}
+
+		public String getPattern() {
+			return pattern;
+		}
+
+		public CallMetrics getCalls() {
+			return calls;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.web;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.securekey.samplerp.http.OutboundHttpClient;
+import com.securekey.samplerp.service.EnrollmentService;
+import com.securekey.samplerp.service.KnownEntityRegistry;
+import com.securekey.samplerp.service.TransactionStateService;
+import com.securekey.samplerp.service.TransactionWatchService;
+import com.securekey.samplerp.service.impl.ConnectClientPool;
+import com.securekey.samplerp.service.impl.ConnectConfigWatcher;
+import com.securekey.samplerp.service.interceptor.BulkheadInterceptor;
+import com.securekey.samplerp.service.interceptor.CachingInterceptor;
+import com.securekey.samplerp.service.interceptor.MetricsInterceptor;
+import com.securekey.samplerp.service.interceptor.ResilienceInterceptor;
+import com.securekey.samplerp.service.interceptor.TxnCoalescingInterceptor;
+import com.securekey.samplerp.tenant.Tenant;
+import com.securekey.samplerp.tenant.TenantFilter;
+import com.securekey.samplerp.tenant.TenantRegistry;
+import com.securekey.samplerp.trace.TracingFilter;
+
+/**
+ * Exposes runtime statistics of the RP server
+ * 
+ */
+@Controller @RequestMapping("stats")
+public class StatsController {
+
+	@Autowired private OutboundHttpClient outboundHttpClient;
+
+	@Autowired private ResilienceInterceptor resilienceInterceptor;
+
+	@Autowired private BulkheadInterceptor bulkheadInterceptor;
+
+	@Autowired private EnrollmentService enrollmentService;
+
+	@Autowired private KnownEntityRegistry knownEntityRegistry;
+
+	@Autowired private CachingInterceptor cachingInterceptor;
+
+	@Autowired private TxnCoalescingInterceptor txnCoalescingInterceptor;
+
+	@Autowired private TransactionStateService transactionStateService;
+
+	@Autowired private TransactionWatchService transactionWatchService;
+
+	@Autowired private MetricsInterceptor metricsInterceptor;
+
+	@Autowired private TracingFilter tracingFilter;
+
+	@Autowired private ConnectClientPool connectClientPool;
+
+	@Autowired private ConnectConfigWatcher connectConfigWatcher;
+
+	@Autowired private TenantRegistry tenantRegistry;
+
+	@Autowired private TenantFilter tenantFilter;
+
+	@RequestMapping(value = "outboundHttp.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> outboundHttp () {
+
+		return this.outboundHttpClient.getPoolStats();
+	}
+
+	@RequestMapping(value = "circuitBreakers.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> circuitBreakers () {
+
+		return this.resilienceInterceptor.getStats();
+	}
+
+	@RequestMapping(value = "bulkheads.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> bulkheads () {
+
+		return this.bulkheadInterceptor.getStats();
+	}
+
+	@RequestMapping(value = "initMobileQuickcode.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> initMobileQuickcode () {
+
+		return this.enrollmentService.getInitMobileQuickcodeStats();
+	}
+
+	@RequestMapping(value = "knownEntities.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> knownEntities () {
+
+		return this.knownEntityRegistry.getStats();
+	}
+
+	@RequestMapping(value = "lookupCache.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> lookupCache () {
+
+		return this.cachingInterceptor.getStats();
+	}
+
+	@RequestMapping(value = "txnResults.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> txnResults () {
+
+		return this.txnCoalescingInterceptor.getStats();
+	}
+
+	@RequestMapping(value = "transactions.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> transactions () {
+
+		return this.transactionStateService.getStats();
+	}
+
+	@RequestMapping(value = "watchers.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> watchers () {
+
+		return this.transactionWatchService.getStats();
+	}
+
+	@RequestMapping(value = "briidgeCalls.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> briidgeCalls () {
+
+		return this.metricsInterceptor.getStats();
+	}
+
+	@RequestMapping(value = "traces.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> traces () {
+
+		return this.tracingFilter.getStats();
+	}
+
+	@RequestMapping(value = "connectClients.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> connectClients () {
+
+		return this.connectClientPool.getStats();
+	}
+
+	@RequestMapping(value = "connectConfig.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> connectConfig () {
+		return this.connectConfigWatcher.getStatus();
+	}
+
+	@RequestMapping(value = "tenants.json", method = RequestMethod.GET)
+	public @ResponseBody Map<String, Object> tenants () {
+
+		// status and statistics of the same tenants, a tenant replaced in between would be missing from one
+		Collection<Tenant> active = this.tenantRegistry.getTenants();
+		Map<String, Map<String, Object>> tenants = this.tenantRegistry.getStatus(active);
+		for (Tenant tenant : active) {
+			Map<String, Object> stats = tenants.get(tenant.getId());
+			stats.put("ready", tenant.isReady());
+			stats.put("briidgeCalls", tenant.getBean(MetricsInterceptor.class).getStats());
+			stats.put("connectClients", tenant.getBean(ConnectClientPool.class).getStats());
+			stats.put("connectConfig", tenant.getBean(ConnectConfigWatcher.class).getStatus());
+			stats.put("circuitBreakers", tenant.getBean(ResilienceInterceptor.class).getStats());
+			stats.put("bulkheads", tenant.getBean(BulkheadInterceptor.class).getStats());
+			stats.put("lookupCache", tenant.getBean(CachingInterceptor.class).getStats());
+			stats.put("knownEntities", tenant.getBean(KnownEntityRegistry.class).getStats());
+		}
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("tenants", tenants);
+		stats.put("unavailable", this.tenantFilter.getUnavailable());
+		return stats;
+	}
+}
@@ -0,0 +1,91 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.web;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.service.TransactionWatchService;
+
+/**
+ * Long poll variants of the transaction polling calls. Requests are held
+ * asynchronously, without a thread, until the transaction completes or
+ * timeoutMillis passes; then {"status":"pending"} is returned and the client
+ * polls again. Concurrent clients of the same transaction share one
+ * watcher, see {@link TransactionWatchService}.
+ * 
+ */
+@Controller @RequestMapping("watch")
+public class WatchController {
+
+	@Autowired private TransactionWatchService transactionWatchService;
+
+	@Value("#{system['watch.clientTimeoutMillis'] ?: 25000}")
+	private long clientTimeoutMillis;
+
+	@RequestMapping(value = "verifyQuickcode.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<Object> verifyQuickCode (@RequestParam("txnId") String txnId,
+			@RequestParam(value = "timeoutMillis", required = false) Long timeoutMillis) {
+
+		return watch(TransactionWatchService.VERIFY_QUICK_CODE, txnId, timeoutMillis);
+	}
+
+	@RequestMapping(value = "pairingStatus.json", method = {RequestMethod.GET, RequestMethod.POST})
+	public @ResponseBody DeferredResult<Object> pairingStatus (@RequestParam("txnId") String txnId,
+			@RequestParam(value = "timeoutMillis", required = false) Long timeoutMillis) {
+
+		return watch(TransactionWatchService.PAIR_DEVICE_DATA, txnId, timeoutMillis);
+	}
+
+	private DeferredResult<Object> watch(String operation, final String txnId, Long timeoutMillis) {
+
+		long timeout = timeoutMillis == null ? clientTimeoutMillis : Math.min(timeoutMillis, clientTimeoutMillis);
+		final DeferredResult<Object> result = new DeferredResult<Object>(timeout, pending(txnId));
+
+		final TransactionWatchService.Subscription subscription = this.transactionWatchService.watch(operation, txnId,
+				new TransactionWatchService.Waiter() {
+					@Override
+					public void completed(Response response) {
+						result.setResult(response != null ? response : pending(txnId));
+					}
+				});
+		result.onCompletion(new Runnable() {
+			@Override
+			public void run() {
+				subscription.cancel();
+			}
+		});
+		return result;
+	}
+
+	private static Map<String, Object> pending(String txnId) {
+
+		Map<String, Object> pending = new LinkedHashMap<String, Object>();
+		pending.put("txnId", txnId);
+		pending.put("status", "pending");
+		return pending;
+	}
+}
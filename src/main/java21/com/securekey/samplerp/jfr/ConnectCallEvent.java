@@ -0,0 +1,45 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One call made through the Connect client
+ */
+@Name("com.securekey.samplerp.ConnectCall")
+@Label("briidge.Net Connect Call")
+@Category({ "SecureKey RP", "briidge.Net" })
+@Description("Call made to the briidge.Net Connect server through the Connect client")
+@StackTrace(false)
+class ConnectCallEvent extends Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Transaction Id Hash")
+	@Description("Hash code of the transaction id, 0 if the call has none")
+	int txnIdHash;
+
+	@Label("Outcome")
+	@Description("ok, the briidge.Net error code or exception")
+	String outcome;
+}
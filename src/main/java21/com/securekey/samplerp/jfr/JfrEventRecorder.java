@@ -0,0 +1,78 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * {@link FlightEventRecorder} on the jdk.jfr API. Event objects are only
+ * created while a recording enables them, checked on the cached event
+ * types; duration thresholds set in the recording are honoured by
+ * shouldCommit.
+ */
+public class JfrEventRecorder implements FlightEventRecorder {
+
+	private static final EventType CONNECT_CALL = EventType.getEventType(ConnectCallEvent.class);
+
+	private static final EventType JWT_STAGE = EventType.getEventType(JwtStageEvent.class);
+
+	@Override
+	public Object beginConnectCall() {
+
+		if (!CONNECT_CALL.isEnabled()) {
+			return null;
+		}
+		ConnectCallEvent event = new ConnectCallEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endConnectCall(Object event, String operation, int txnIdHash, String outcome) {
+
+		ConnectCallEvent connectCall = (ConnectCallEvent) event;
+		connectCall.end();
+		if (connectCall.shouldCommit()) {
+			connectCall.operation = operation;
+			connectCall.txnIdHash = txnIdHash;
+			connectCall.outcome = outcome;
+			connectCall.commit();
+		}
+	}
+
+	@Override
+	public Object beginJwtStage() {
+
+		if (!JWT_STAGE.isEnabled()) {
+			return null;
+		}
+		JwtStageEvent event = new JwtStageEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endJwtStage(Object event, String stage, String outcome) {
+
+		JwtStageEvent jwtStage = (JwtStageEvent) event;
+		jwtStage.end();
+		if (jwtStage.shouldCommit()) {
+			jwtStage.stage = stage;
+			jwtStage.outcome = outcome;
+			jwtStage.commit();
+		}
+	}
+}
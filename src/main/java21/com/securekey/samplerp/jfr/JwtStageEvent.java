@@ -0,0 +1,42 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One stage of verifyJWT: JWS parsing, x5u certificate download and
+ * parsing (cache misses only) or signature verification
+ */
+@Name("com.securekey.samplerp.JwtStage")
+@Label("JWT Verification Stage")
+@Category({ "SecureKey RP", "JWT" })
+@Description("Stage of a verifyJWT request")
+@StackTrace(false)
+class JwtStageEvent extends Event {
+
+	@Label("Stage")
+	@Description("decode, fetch, parse or verify")
+	String stage;
+
+	@Label("Outcome")
+	String outcome;
+}
@@ -0,0 +1,86 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PairingLedgerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void tornLastLineIsDropped() throws IOException {
+
+		PairingLedger ledger = new PairingLedger(folder.getRoot(), "c1");
+		ledger.record("u1", "t1", Long.MAX_VALUE, PairingLedger.OUTSTANDING);
+		ledger.close();
+		File file = new File(folder.getRoot(), "c1.ledger");
+		long complete = file.length();
+		append(file, "{\"userId\":\"u2\",\"txn");
+
+		ledger = new PairingLedger(folder.getRoot(), "c1");
+		assertEquals(complete, file.length());
+		assertEquals(PairingLedger.OUTSTANDING, ledger.state("u1"));
+		assertNull(ledger.state("u2"));
+
+		// appends start on a line of their own
+		ledger.record("u2", "t2", Long.MAX_VALUE, PairingLedger.OUTSTANDING);
+		ledger.close();
+		assertEquals(PairingLedger.OUTSTANDING, new PairingLedger(folder.getRoot(), "c1").state("u2"));
+	}
+
+	@Test
+	public void lineWithoutLineFeedIsDropped() throws IOException {
+
+		File file = new File(folder.getRoot(), "c1.ledger");
+		append(file, "{\"userId\":\"u1\",\"txnId\":\"t1\",\"expiresAt\":0,\"state\":\"failed\"}\n"
+				+ "{\"userId\":\"u2\",\"txnId\":\"t2\",\"expiresAt\":0,\"state\":\"failed\"}");
+
+		PairingLedger ledger = new PairingLedger(folder.getRoot(), "c1");
+		assertEquals(PairingLedger.FAILED, ledger.state("u1"));
+		assertNull(ledger.state("u2"));
+	}
+
+	@Test(expected = IOException.class)
+	public void unreadableLineBeforeTheLastFails() throws IOException {
+
+		File file = new File(folder.getRoot(), "c1.ledger");
+		append(file, "{\"userId\n{\"userId\":\"u1\",\"txnId\":\"t1\",\"expiresAt\":0,\"state\":\"failed\"}\n");
+		new PairingLedger(folder.getRoot(), "c1");
+	}
+
+	private static void append(File file, String content) throws IOException {
+
+		OutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.securekey.connect.core.ConnectClient;
+import com.securekey.samplerp.service.ConnectClientBuilder;
+
+/**
+ * Retries, ejection and generation drain of the Connect client pool
+ */
+public class ConnectClientPoolTest {
+
+	private final Map<String, FakeClient> clients = new HashMap<String, FakeClient>();
+
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private final ConnectClientBuilder builder = new ConnectClientBuilder() {
+		@Override
+		public ConnectClient build(String configFile) {
+			FakeClient client = new FakeClient();
+			clients.put(configFile + generation.get(), client);
+			return (ConnectClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { ConnectClient.class, Closeable.class }, client);
+		}
+	};
+
+	private ConnectClientPool pool;
+
+	@Before
+	public void setUp() {
+
+		pool = new ConnectClientPool();
+		pool.setConfigFiles(Arrays.asList("a", "b"));
+		pool.setFailureThreshold(2);
+	}
+
+	@Test
+	public void failedReadIsRetriedOnOtherEndpoint() throws Exception {
+
+		ConnectClient client = pool.build(builder);
+		clients.get("a0").failure = new IOException("down");
+		for (int i = 0; i < 4; i++) {
+			client.getDevices(null);
+		}
+		assertEquals(4, clients.get("b0").calls.get());
+	}
+
+	@Test
+	public void provisioningCodeIsNotRetried() throws Exception {
+
+		ConnectClient client = pool.build(builder);
+		clients.get("a0").failure = new IOException("down");
+		clients.get("b0").failure = new IOException("down");
+		try {
+			client.getProvisioningAuthorizationCode();
+			fail();
+		} catch (IOException expected) {
+		}
+		assertEquals(1, clients.get("a0").calls.get() + clients.get("b0").calls.get());
+	}
+
+	@Test
+	public void interruptedCallIsNotRetriedNorCounted() throws Exception {
+
+		ConnectClient client = pool.build(builder);
+		clients.get("a0").failure = new InterruptedIOException("timeout");
+		clients.get("b0").failure = new InterruptedIOException("timeout");
+		try {
+			client.getDevices(null);
+			fail();
+		} catch (InterruptedIOException expected) {
+		}
+		assertEquals(1, clients.get("a0").calls.get() + clients.get("b0").calls.get());
+		assertEquals(0L, stats("a").get("failures"));
+		assertEquals(0L, stats("b").get("failures"));
+	}
+
+	@Test
+	public void failingEndpointIsEjected() throws Exception {
+
+		pool.setRetryReads(false);
+		ConnectClient client = pool.build(builder);
+		clients.get("a0").failure = new IOException("down");
+		for (int i = 0; i < 10; i++) {
+			try {
+				client.getDevices(null);
+			} catch (IOException e) {
+				// a until ejected
+			}
+		}
+		assertEquals(2, clients.get("a0").calls.get());
+		assertEquals(8, clients.get("b0").calls.get());
+		assertEquals(1L, stats("a").get("ejections"));
+		assertEquals(false, stats("a").get("healthy"));
+	}
+
+	@Test
+	public void replacedGenerationDrains() throws Exception {
+
+		pool.setConfigFiles(Arrays.asList("a"));
+		final ConnectClient client = pool.build(builder);
+		FakeClient old = clients.get("a0");
+		old.release = new CountDownLatch(1);
+		Thread running = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					client.getDevices(null);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		running.start();
+		old.entered.await();
+
+		generation.incrementAndGet();
+		pool.reload(builder, new ConnectClientPool.Validator() {
+			@Override
+			public void validate(ConnectClient client) {
+			}
+		});
+		assertEquals(2, pool.getGeneration());
+		assertEquals(1, pool.getDrainingCalls());
+		client.getDevices(null);
+		assertEquals(1, clients.get("a1").calls.get());
+		assertEquals(1, old.calls.get());
+		assertEquals(false, old.closed);
+
+		old.release.countDown();
+		running.join(5000);
+		for (int i = 0; i < 100 && !old.closed; i++) {
+			Thread.sleep(50);
+		}
+		assertTrue(old.closed);
+		assertEquals(0, pool.getDrainingCalls());
+		assertEquals(false, clients.get("a1").closed);
+	}
+
+	@Test
+	public void failedValidationKeepsTheCurrentClients() throws Exception {
+
+		ConnectClient client = pool.build(builder);
+		generation.incrementAndGet();
+		try {
+			pool.reload(builder, new ConnectClientPool.Validator() {
+				@Override
+				public void validate(ConnectClient client) {
+					throw new IllegalStateException("invalid_credentials");
+				}
+			});
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(1, pool.getGeneration());
+		assertTrue(clients.get("a1").closed);
+		client.getDevices(null);
+		assertEquals(1, clients.get("a0").calls.get() + clients.get("b0").calls.get());
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> stats(String endpoint) {
+		return (Map<String, Object>) pool.getStats().get(endpoint);
+	}
+
+	private static final class FakeClient implements InvocationHandler {
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+		private volatile Exception failure;
+
+		private volatile CountDownLatch release;
+
+		private volatile boolean closed;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+
+			if (method.getName().equals("close")) {
+				closed = true;
+				return null;
+			}
+			calls.incrementAndGet();
+			entered.countDown();
+			if (release != null) {
+				release.await();
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.securekey.connect.beans.client.GetDeviceIdResponse;
+import com.securekey.connect.core.ConnectClient;
+import com.securekey.samplerp.service.ConnectClientBuilder;
+
+/**
+ * A reloaded Connect client only takes calls if it answers the validating
+ * call with an expected error
+ */
+public class ConnectClientReloadTest {
+
+	private static volatile String error;
+
+	private BriidgeServiceImpl service;
+
+	private ConnectClientPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+
+		error = "unknown_txn";
+		pool = new ConnectClientPool();
+		service = new BriidgeServiceImpl();
+		service.setConnectClientPool(pool);
+		set("connectClientBuilder", AnsweringBuilder.class.getName());
+		set("validateTxnId", "warmup");
+		set("validateErrors", "unknown_txn, unknown_user");
+		service.ensureConnectClient();
+	}
+
+	@Test
+	public void unknownTransactionValidates() throws Exception {
+
+		service.reloadConnectClient();
+		assertEquals(2, pool.getGeneration());
+	}
+
+	@Test
+	public void credentialsErrorFailsTheReload() throws Exception {
+
+		for (String answer : new String[] { "invalid_credentials", null }) {
+			error = answer;
+			try {
+				service.reloadConnectClient();
+				fail(answer);
+			} catch (IllegalStateException expected) {
+			}
+		}
+		assertEquals(1, pool.getGeneration());
+	}
+
+	private void set(String name, Object value) throws Exception {
+
+		Field field = BriidgeServiceImpl.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(service, value);
+	}
+
+	/**
+	 * Clients answering getDeviceData with the current error
+	 */
+	public static class AnsweringBuilder implements ConnectClientBuilder {
+
+		@Override
+		public ConnectClient build(String configFile) {
+
+			return (ConnectClient) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { ConnectClient.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							GetDeviceIdResponse response = new GetDeviceIdResponse();
+							response.setError(error);
+							return response;
+						}
+					});
+		}
+	}
+}
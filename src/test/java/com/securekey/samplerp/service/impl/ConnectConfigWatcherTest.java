@@ -0,0 +1,112 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A changed Connect configuration is reloaded until a reload goes through
+ */
+public class ConnectConfigWatcherTest {
+
+	private File configFile;
+
+	private int reloads;
+
+	private int failingReloads;
+
+	private ConnectConfigWatcher watcher;
+
+	@Before
+	public void setUp() throws Exception {
+
+		configFile = File.createTempFile("connect", ".properties");
+		write("connectServer=https://connect-1.example.com/\n");
+		ConnectClientPool pool = new ConnectClientPool();
+		pool.setConfigFiles(Arrays.asList(configFile.getAbsolutePath()));
+		watcher = new ConnectConfigWatcher();
+		watcher.setConnectClientPool(pool);
+		watcher.setConnectService(new BriidgeServiceImpl() {
+			@Override
+			public void reloadConnectClient() {
+				reloads++;
+				if (failingReloads-- > 0) {
+					throw new IllegalStateException("invalid_credentials");
+				}
+			}
+		});
+		watcher.setReloadSeconds(3600);
+		Field keyStoreFile = ConnectConfigWatcher.class.getDeclaredField("keyStoreFile");
+		keyStoreFile.setAccessible(true);
+		keyStoreFile.set(watcher, "");
+		invoke("initConnectConfigWatcher");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		invoke("destroyConnectConfigWatcher");
+		configFile.delete();
+	}
+
+	@Test
+	public void failedReloadIsRetried() throws Exception {
+
+		failingReloads = 2;
+		write("connectServer=https://connect-2.example.com/\n# rotated\n");
+		invoke("check");
+		assertEquals(0, reloads);
+
+		invoke("check");
+		invoke("check");
+		assertEquals(2, reloads);
+		assertEquals(2, watcher.getStatus().get("failures"));
+
+		invoke("check");
+		invoke("check");
+		assertEquals(3, reloads);
+		assertEquals(1, watcher.getStatus().get("reloads"));
+	}
+
+	private void write(String content) throws Exception {
+
+		OutputStream out = new FileOutputStream(configFile);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		// a change the watcher sees even within the file system's time resolution
+		configFile.setLastModified(configFile.lastModified() + 2000);
+	}
+
+	private void invoke(String name) throws Exception {
+
+		Method method = ConnectConfigWatcher.class.getDeclaredMethod(name);
+		method.setAccessible(true);
+		method.invoke(watcher);
+	}
+}
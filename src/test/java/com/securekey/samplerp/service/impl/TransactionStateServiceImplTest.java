@@ -0,0 +1,112 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.TransactionState;
+import com.securekey.samplerp.service.TransactionStateService.Notification;
+
+/**
+ * Only transactions registered as pending are retrieved on notification,
+ * and only final answers complete them
+ */
+public class TransactionStateServiceImplTest {
+
+	private final AtomicInteger retrievals = new AtomicInteger();
+
+	private volatile String error;
+
+	private TransactionStateServiceImpl service;
+
+	@Before
+	public void setUp() throws Exception {
+
+		BriidgeService briidgeService = (BriidgeService) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { BriidgeService.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						retrievals.incrementAndGet();
+						Response response = new Response();
+						response.setError(error);
+						return response;
+					}
+				});
+		service = new TransactionStateServiceImpl();
+		set("briidgeService", briidgeService);
+		set("connectExecutor", new SyncTaskExecutor());
+		set("maxEntries", 100);
+		set("retentionMinutes", 60);
+		set("terminalErrors", new String[] { "unknown_txn" });
+		service.init();
+	}
+
+	@Test
+	public void unknownTxnIdIsIgnored() {
+
+		assertEquals(Notification.UNKNOWN, service.notified("forged", "success"));
+		assertEquals(0, retrievals.get());
+		assertEquals(null, service.get("forged"));
+		assertEquals(1L, service.getStats().get("unknown"));
+	}
+
+	@Test
+	public void pendingTxnIdIsRetrievedOnce() {
+
+		service.pending("t1", "pairDevice");
+		assertEquals(Notification.ACCEPTED, service.notified("t1", "success"));
+		assertEquals(Notification.DUPLICATE, service.notified("t1", "success"));
+		assertEquals(1, retrievals.get());
+		assertEquals(TransactionState.COMPLETED, service.get("t1").getState());
+		assertEquals("pairDevice", service.get("t1").getOperation());
+	}
+
+	@Test
+	public void answerNotFinalLeavesTheTransactionPending() {
+
+		service.pending("t1", "pairDevice");
+		for (String answer : new String[] { "system_error", "request_pending" }) {
+			error = answer;
+			assertEquals(Notification.ACCEPTED, service.notified("t1", "success"));
+			assertEquals(TransactionState.PENDING, service.get("t1").getState());
+		}
+		error = "unknown_txn";
+		assertEquals(Notification.ACCEPTED, service.notified("t1", "failure"));
+		assertEquals(TransactionState.COMPLETED, service.get("t1").getState());
+		assertEquals("failure", service.get("t1").getNotifiedStatus());
+		assertEquals(Notification.DUPLICATE, service.notified("t1", "success"));
+		assertEquals(3, retrievals.get());
+	}
+
+	private void set(String name, Object value) throws Exception {
+
+		Field field = TransactionStateServiceImpl.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(service, value);
+	}
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.securekey.samplerp.batch.BatchRecord;
+import com.securekey.samplerp.batch.LineRecordReader;
+import com.securekey.samplerp.batch.UserRecord;
+import com.securekey.samplerp.batch.UserRecordReader;
+
+/**
+ * Phones read by the bulk provisioning end up as one Connect Phone each
+ */
+public class UserRecordPhonesTest {
+
+	@Test
+	public void csvPhones() throws Exception {
+
+		UserRecord record = read("u1,update,true,Mobile=5551234|Home=5554321\n", LineRecordReader.FORMAT_CSV);
+		assertEquals(2, record.getPhones().size());
+		assertEquals(Collections.singletonMap("Mobile", "5551234"), record.getPhones().get(0));
+		assertEquals(Collections.singletonMap("Home", "5554321"), record.getPhones().get(1));
+		assertEquals(2, BriidgeServiceImpl.toPhones(record.getPhones()).length);
+	}
+
+	@Test
+	public void ndjsonPhones() throws Exception {
+
+		UserRecord record = read("{\"userId\":\"u1\",\"phones\":[{\"Mobile\":\"5551234\"},{\"Home\":\"5554321\"}]}\n",
+				LineRecordReader.FORMAT_NDJSON);
+		assertEquals(Collections.singletonMap("Mobile", "5551234"), record.getPhones().get(0));
+		assertEquals(2, BriidgeServiceImpl.toPhones(record.getPhones()).length);
+	}
+
+	@Test
+	public void ndjsonNameNumberPhones() throws Exception {
+
+		UserRecord record = read("{\"userId\":\"u1\",\"phones\":[{\"name\":\"Mobile\",\"number\":\"5551234\"}]}\n",
+				LineRecordReader.FORMAT_NDJSON);
+		Map<String, String> phone = record.getPhones().get(0);
+		assertEquals(Collections.singletonMap("Mobile", "5551234"), phone);
+		assertEquals(1, BriidgeServiceImpl.toPhones(record.getPhones()).length);
+	}
+
+	private static UserRecord read(String input, String format) throws Exception {
+
+		BatchRecord<UserRecord> record = new UserRecordReader(new ByteArrayInputStream(input.getBytes("UTF-8")), format).next();
+		assertEquals(null, record.getInvalidReason());
+		return record.getValue();
+	}
+}
@@ -0,0 +1,123 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.connect.beans.client.VerifyQuickCodeResponse;
+import com.securekey.samplerp.service.BriidgeService;
+
+public class BulkheadInterceptorTest {
+
+	private BulkheadInterceptor interceptor;
+
+	private final AtomicInteger backendCalls = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+
+		List<String> operations = new ArrayList<String>();
+		for (Method method : BriidgeService.class.getMethods()) {
+			operations.add(method.getName());
+		}
+		interceptor = new BulkheadInterceptor();
+		interceptor.setBulkheads(Arrays.asList(bulkhead("interactive", operations, 1)));
+		interceptor.setBatchBulkhead(bulkhead("batch", null, 1));
+		interceptor.afterPropertiesSet();
+	}
+
+	@Test
+	public void batchCallsUseTheirOwnBulkhead() throws Throwable {
+
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicReference<Object> batchResult = new AtomicReference<Object>();
+		Thread batch = new Thread(BulkheadInterceptor.batch(new Runnable() {
+			@Override
+			public void run() {
+				batchResult.set(verify(new TestInvocation.Answer() {
+					@Override
+					public Object answer(Object[] args) throws Throwable {
+						entered.countDown();
+						release.await();
+						return new VerifyQuickCodeResponse();
+					}
+				}));
+			}
+		}));
+		batch.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		// the batch bulkhead is full, the interactive one is not
+		final AtomicReference<Object> secondBatch = new AtomicReference<Object>();
+		BulkheadInterceptor.batch(new Runnable() {
+			@Override
+			public void run() {
+				secondBatch.set(verify(null));
+			}
+		}).run();
+		assertEquals(ErrorResponses.BUSY, ((Response) secondBatch.get()).getError());
+		assertNull(((Response) verify(null)).getError());
+
+		release.countDown();
+		batch.join(5000);
+		assertNull(((Response) batchResult.get()).getError());
+		assertEquals(2, backendCalls.get());
+	}
+
+	private Object verify(final TestInvocation.Answer answer) {
+
+		try {
+			return interceptor.invoke(new TestInvocation("verifyQuickCode", new TestInvocation.Answer() {
+				@Override
+				public Object answer(Object[] args) throws Throwable {
+					return answer == null ? new VerifyQuickCodeResponse() : answer.answer(args);
+				}
+			}, backendCalls, "t1"));
+		} catch (Throwable t) {
+			throw new IllegalStateException(t);
+		}
+	}
+
+	private static Bulkhead bulkhead(String name, List<String> operations, int maxConcurrent) {
+
+		Bulkhead bulkhead = new Bulkhead();
+		bulkhead.setName(name);
+		if (operations != null) {
+			bulkhead.setOperations(operations.toArray(new String[operations.size()]));
+		}
+		bulkhead.setMaxConcurrent(maxConcurrent);
+		bulkhead.setMaxQueue(0);
+		bulkhead.setMaxWaitMillis(0);
+		bulkhead.afterPropertiesSet();
+		return bulkhead;
+	}
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.connect.beans.client.PairInitiationResponse;
+import com.securekey.connect.beans.client.TxnResponse;
+import com.securekey.samplerp.service.KnownEntityRegistry;
+
+/**
+ * Responses confirming users to the known entity registry
+ */
+public class RegistryInterceptorTest {
+
+	private final AtomicInteger backendCalls = new AtomicInteger();
+
+	private KnownEntityRegistry registry;
+
+	private RegistryInterceptor interceptor;
+
+	@Before
+	public void setUp() {
+
+		registry = new KnownEntityRegistry(100, 8, 3600);
+		interceptor = new RegistryInterceptor();
+		interceptor.setRegistry(registry);
+	}
+
+	@Test
+	public void returningUserIsConfirmedByAddUser() throws Throwable {
+
+		call("addUser", error(new TxnResponse(), "invalid_credentials"), "u1", null);
+		assertFalse(registry.isKnownUser("u1"));
+		call("addUser", error(new TxnResponse(), "user_exists"), "u1", null);
+		assertTrue(registry.isKnownUser("u1"));
+	}
+
+	@Test
+	public void pairingConfirmsUser() throws Throwable {
+
+		PairInitiationResponse initiated = new PairInitiationResponse() {
+			@Override
+			public String getTxnId() {
+				return "t1";
+			}
+		};
+		call("pairDevice", initiated, "u1", null, null, null, null, null, null, null);
+		assertTrue(registry.isKnownUser("u1"));
+
+		registry.userRemoved("u1");
+		call("pairDeviceData", new Response(), "t1");
+		assertTrue(registry.isKnownUser("u1"));
+	}
+
+	@Test
+	public void confirmationExpires() throws Throwable {
+
+		registry = new KnownEntityRegistry(100, 8, 1);
+		registry.deviceConfirmed("u1", "d1");
+		assertTrue(registry.skipAddDevice("u1", "d1"));
+		Thread.sleep(1100);
+		assertFalse(registry.skipAddUser("u1"));
+		assertFalse(registry.skipAddDevice("u1", "d1"));
+	}
+
+	private void call(String operation, final Object answer, Object... args) throws Throwable {
+
+		interceptor.invoke(new TestInvocation(operation, new TestInvocation.Answer() {
+			@Override
+			public Object answer(Object[] args) {
+				return answer;
+			}
+		}, backendCalls, args));
+	}
+
+	private static Response error(Response response, String error) {
+		response.setError(error);
+		return response;
+	}
+}
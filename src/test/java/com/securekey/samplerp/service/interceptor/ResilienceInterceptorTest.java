@@ -0,0 +1,88 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import com.securekey.connect.beans.Response;
+import com.securekey.connect.beans.client.GetDeviceIdResponse;
+import com.securekey.connect.beans.client.TxnResponse;
+
+public class ResilienceInterceptorTest {
+
+	private ResilienceInterceptor interceptor;
+
+	private final AtomicInteger backendCalls = new AtomicInteger();
+
+	@Before
+	public void setUp() {
+		interceptor = new ResilienceInterceptor();
+		interceptor.setCallExecutor(new SimpleAsyncTaskExecutor());
+		interceptor.setMinimumCalls(3);
+		interceptor.setMinTimeoutMillis(50);
+		interceptor.setMutations(new String[] { "addUser" });
+		interceptor.setMutationTimeoutMillis(5000);
+	}
+
+	@Test
+	public void slowQueryTimesOut() throws Throwable {
+
+		for (int i = 0; i < 3; i++) {
+			call("getDeviceData", 0, "t1");
+		}
+		Response response = call("getDeviceData", 300, "t1");
+		assertEquals(ErrorResponses.TIMEOUT, response.getError());
+		assertEquals(50L, timeoutMillis("getDeviceData"));
+	}
+
+	@Test
+	public void slowMutationIsWaitedFor() throws Throwable {
+
+		// a mutation timed out by its usual latency may still go through
+		for (int i = 0; i < 3; i++) {
+			call("addUser", 0, "u1", null);
+		}
+		Response response = call("addUser", 300, "u1", null);
+		assertNull(response.getError());
+		assertEquals(5000L, timeoutMillis("addUser"));
+		assertEquals(4, backendCalls.get());
+	}
+
+	private Response call(String operation, final long sleepMillis, Object... args) throws Throwable {
+
+		final Class<?> responseType = TestInvocation.method(operation, args.length).getReturnType();
+		return (Response) interceptor.invoke(new TestInvocation(operation, new TestInvocation.Answer() {
+			@Override
+			public Object answer(Object[] args) throws Throwable {
+				Thread.sleep(sleepMillis);
+				return responseType == TxnResponse.class ? new TxnResponse() : new GetDeviceIdResponse();
+			}
+		}, backendCalls, args));
+	}
+
+	@SuppressWarnings("unchecked")
+	private long timeoutMillis(String operation) {
+		return (Long) ((Map<String, Object>) interceptor.getStats().get(operation)).get("timeoutMillis");
+	}
+}
@@ -0,0 +1,86 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+import com.securekey.samplerp.service.BriidgeService;
+
+/**
+ * BriidgeService call reaching the end of an interceptor chain, answered by
+ * the test
+ */
+class TestInvocation implements MethodInvocation {
+
+	interface Answer {
+		Object answer(Object[] args) throws Throwable;
+	}
+
+	private final Method method;
+
+	private final Object[] args;
+
+	private final Answer answer;
+
+	private final AtomicInteger proceeded;
+
+	TestInvocation(String methodName, Answer answer, AtomicInteger proceeded, Object... args) {
+		this.method = method(methodName, args.length);
+		this.args = args;
+		this.answer = answer;
+		this.proceeded = proceeded;
+	}
+
+	static Method method(String name, int arguments) {
+
+		for (Method method : BriidgeService.class.getMethods()) {
+			if (method.getName().equals(name) && method.getParameterTypes().length == arguments) {
+				return method;
+			}
+		}
+		throw new IllegalArgumentException("No BriidgeService." + name + " with " + arguments + " arguments");
+	}
+
+	@Override
+	public Method getMethod() {
+		return method;
+	}
+
+	@Override
+	public Object[] getArguments() {
+		return args;
+	}
+
+	@Override
+	public Object proceed() throws Throwable {
+		proceeded.incrementAndGet();
+		return answer.answer(args);
+	}
+
+	@Override
+	public Object getThis() {
+		return null;
+	}
+
+	@Override
+	public AccessibleObject getStaticPart() {
+		return method;
+	}
+}
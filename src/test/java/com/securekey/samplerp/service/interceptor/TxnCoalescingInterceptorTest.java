@@ -0,0 +1,174 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.service.interceptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.securekey.connect.beans.client.VerifyQuickCodeResponse;
+
+public class TxnCoalescingInterceptorTest {
+
+	private TxnCoalescingInterceptor interceptor;
+
+	private final AtomicInteger backendCalls = new AtomicInteger();
+
+	private ExecutorService callers;
+
+	@Before
+	public void setUp() {
+		interceptor = new TxnCoalescingInterceptor();
+		interceptor.afterPropertiesSet();
+		callers = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		callers.shutdownNow();
+	}
+
+	@Test
+	public void inProgressAnswerIsNotKept() throws Throwable {
+
+		// the code of a transaction in progress is not documented, any unlisted error is asked again
+		VerifyQuickCodeResponse pending = response("request_pending");
+		VerifyQuickCodeResponse completed = response(null);
+
+		assertSame(pending, verify("t1", pending));
+		assertSame(completed, verify("t1", completed));
+		assertEquals(2, backendCalls.get());
+	}
+
+	@Test
+	public void finalAnswerIsKept() throws Throwable {
+
+		VerifyQuickCodeResponse completed = response(null);
+		VerifyQuickCodeResponse unknown = response("unknown_txn");
+
+		assertSame(completed, verify("t1", completed));
+		assertSame(completed, verify("t1", response(null)));
+		assertSame(unknown, verify("t2", unknown));
+		assertSame(unknown, verify("t2", response(null)));
+		assertEquals(2, backendCalls.get());
+	}
+
+	@Test
+	public void localErrorIsNotKept() throws Throwable {
+
+		verify("t1", response(ErrorResponses.TIMEOUT));
+		VerifyQuickCodeResponse completed = response(null);
+		assertSame(completed, verify("t1", completed));
+		assertEquals(2, backendCalls.get());
+	}
+
+	@Test
+	public void systemErrorIsNotKept() throws Throwable {
+
+		verify("t1", response("system_error"));
+		VerifyQuickCodeResponse completed = response(null);
+		assertSame(completed, verify("t1", completed));
+		assertEquals(2, backendCalls.get());
+	}
+
+	@Test
+	public void configuredTerminalErrors() throws Throwable {
+
+		interceptor.setTerminalErrors(new String[] {" txn_expired "});
+		VerifyQuickCodeResponse expired = response("txn_expired");
+		assertSame(expired, verify("t1", expired));
+		assertSame(expired, verify("t1", response(null)));
+		verify("t2", response("unknown_txn"));
+		VerifyQuickCodeResponse completed = response(null);
+		assertSame(completed, verify("t2", completed));
+	}
+
+	@Test
+	public void concurrentCallsShareOneBackendCall() throws Throwable {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final VerifyQuickCodeResponse pending = response("txn_pending");
+		List<Future<Object>> calls = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 5; i++) {
+			calls.add(callers.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					try {
+						return interceptor.invoke(new TestInvocation("verifyQuickCode", new TestInvocation.Answer() {
+							@Override
+							public Object answer(Object[] args) throws Throwable {
+								release.await();
+								return pending;
+							}
+						}, backendCalls, "t1"));
+					} catch (Throwable t) {
+						throw new Exception(t);
+					}
+				}
+			}));
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (coalesced() < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		for (Future<Object> call : calls) {
+			assertSame(pending, call.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, backendCalls.get());
+
+		// shared while in flight, but not kept
+		assertNull(verify("t1", response(null)).getError());
+		assertEquals(2, backendCalls.get());
+	}
+
+	@SuppressWarnings("unchecked")
+	private long coalesced() {
+		return (Long) ((Map<String, Object>) interceptor.getStats().get("verifyQuickCode")).get("coalesced");
+	}
+
+	private VerifyQuickCodeResponse verify(String txnId, final VerifyQuickCodeResponse answer) throws Throwable {
+
+		return (VerifyQuickCodeResponse) interceptor.invoke(new TestInvocation("verifyQuickCode",
+				new TestInvocation.Answer() {
+					@Override
+					public Object answer(Object[] args) {
+						return answer;
+					}
+				}, backendCalls, txnId));
+	}
+
+	private static VerifyQuickCodeResponse response(String error) {
+		VerifyQuickCodeResponse response = new VerifyQuickCodeResponse();
+		response.setError(error);
+		return response;
+	}
+}
@@ -0,0 +1,93 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.tenant;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.GenericApplicationContext;
+
+import com.securekey.samplerp.service.BriidgeService;
+
+/**
+ * Tenant file changes limited to Connect client settings are left to the
+ * tenant's ConnectConfigWatcher
+ */
+public class TenantRegistryTest {
+
+	private Tenant loaded;
+
+	private Properties next;
+
+	@Before
+	public void setUp() {
+
+		Properties properties = new Properties();
+		properties.setProperty("connectServer", "https://connect-1.example.com/");
+		properties.setProperty("keyStorePassword", "password");
+		properties.setProperty("bulkhead.maxConcurrent", "64");
+		loaded = tenant(properties);
+		next = new Properties();
+		next.putAll(properties);
+	}
+
+	@Test
+	public void connectSettingsAreLeftToTheWatcher() {
+
+		next.setProperty("connectServer", "https://connect-2.example.com/");
+		next.setProperty("keyStorePassword", "rotated");
+		assertTrue(TenantRegistry.isConnectChange(loaded, next));
+	}
+
+	@Test
+	public void otherSettingsRebuildTheTenant() {
+
+		next.setProperty("connectServer", "https://connect-2.example.com/");
+		next.setProperty("bulkhead.maxConcurrent", "32");
+		assertFalse(TenantRegistry.isConnectChange(loaded, next));
+	}
+
+	@Test
+	public void connectSettingsRebuildTheTenantWithoutWatcher() {
+
+		next.setProperty("connectServer", "https://connect-2.example.com/");
+		next.setProperty(TenantRegistry.RELOAD_SECONDS, "0");
+		assertFalse(TenantRegistry.isConnectChange(loaded, next));
+	}
+
+	private static Tenant tenant(Properties properties) {
+
+		BriidgeService briidgeService = (BriidgeService) Proxy.newProxyInstance(TenantRegistryTest.class.getClassLoader(),
+				new Class<?>[] { BriidgeService.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						return null;
+					}
+				});
+		GenericApplicationContext context = new GenericApplicationContext();
+		context.getBeanFactory().registerSingleton("briidgeService", briidgeService);
+		context.refresh();
+		return new Tenant("brand-a", new File("brand-a.properties"), 0, properties, context);
+	}
+}
@@ -0,0 +1,286 @@
+/* Copyright (c) 2014, 2015 SecureKey Technologies Inc.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package com.securekey.samplerp.tenant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.context.support.GenericApplicationContext;
+
+import com.securekey.samplerp.service.BriidgeService;
+import com.securekey.samplerp.service.interceptor.TenantRoutingInterceptor;
+
+/**
+ * Requests reach their tenant through TenantFilter, calls reach the
+ * tenant's briidgeService through TenantRoutingInterceptor
+ */
+public class TenantRoutingTest {
+
+	private final AtomicInteger rootCalls = new AtomicInteger();
+
+	private final AtomicInteger brandACalls = new AtomicInteger();
+
+	private TenantFilter filter;
+
+	private Tenant brandA;
+
+	@Before
+	public void setUp() throws Exception {
+
+		brandA = tenant("brand-a", brandACalls);
+		TenantRegistry registry = new TenantRegistry();
+		set(registry, "dir", "tenants");
+		set(registry, "hosts", Collections.singletonMap("brand-a.example.com", "brand-a"));
+		Map<String, String> paths = new HashMap<String, String>();
+		paths.put("brand-a", "brand-a");
+		paths.put("brand-b", "brand-b");
+		set(registry, "paths", paths);
+		set(registry, "active", Collections.singletonMap("brand-a", brandA));
+		filter = new TenantFilter();
+		set(filter, "tenantRegistry", registry);
+	}
+
+	@Test
+	public void hostIsServedByItsTenant() throws Exception {
+
+		Exchange exchange = new Exchange("brand-a.example.com", "/samplerp/forms/getDevices.json");
+		filter.doFilter(exchange.request(), exchange.response(), exchange);
+		assertSame(brandA, exchange.chainTenant);
+		assertNull(exchange.forwardedTo);
+		assertNull(TenantContext.current());
+	}
+
+	@Test
+	public void pathIsForwardedToItsTenant() throws Exception {
+
+		Exchange exchange = new Exchange("rp.example.com", "/samplerp/brand-a/forms/getDevices.json");
+		filter.doFilter(exchange.request(), exchange.response(), exchange);
+		assertEquals("/forms/getDevices.json", exchange.forwardedTo);
+		assertSame(brandA, exchange.forwardTenant);
+		assertEquals(0, exchange.chainCalls);
+		assertNull(TenantContext.current());
+	}
+
+	@Test
+	public void otherRequestsAreServedByTheRpServer() throws Exception {
+
+		Exchange exchange = new Exchange("rp.example.com", "/samplerp/forms/getDevices.json");
+		filter.doFilter(exchange.request(), exchange.response(), exchange);
+		assertEquals(1, exchange.chainCalls);
+		assertNull(exchange.chainTenant);
+	}
+
+	@Test
+	public void tenantNotLoadedIsUnavailable() throws Exception {
+
+		Exchange exchange = new Exchange("rp.example.com", "/samplerp/brand-b/forms/getDevices.json");
+		filter.doFilter(exchange.request(), exchange.response(), exchange);
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exchange.status);
+		assertEquals("{\"status\":\"tenant_unavailable\"}", exchange.body.toString());
+		assertEquals(0, exchange.chainCalls);
+		assertNull(exchange.forwardedTo);
+		assertEquals(1, filter.getUnavailable());
+	}
+
+	@Test
+	public void callsAreHandedToTheTenantsBriidgeService() throws Exception {
+
+		BriidgeService root = routed("", counting(rootCalls));
+		root.pairDeviceData("t1");
+		assertEquals(1, rootCalls.get());
+
+		Tenant previous = TenantContext.enter(brandA);
+		try {
+			root.pairDeviceData("t2");
+			// the tenant's own chain proceeds
+			routed("brand-a", counting(brandACalls)).pairDeviceData("t3");
+		} finally {
+			TenantContext.restore(previous);
+		}
+		assertEquals(1, rootCalls.get());
+		assertEquals(2, brandACalls.get());
+	}
+
+	@Test
+	public void callbackUrlIsRoutedToTheTenant() {
+
+		String root = "https://rp.example.com/samplerp/forms/notifications/completion?key=s3cret";
+		Properties own = new Properties();
+		assertNull(TenantRegistry.callbackUrl(root, own));
+
+		own.setProperty(TenantRegistry.HOSTS, "brand-a.example.com, a.example.com");
+		assertEquals("https://brand-a.example.com/samplerp/forms/notifications/completion?key=s3cret",
+				TenantRegistry.callbackUrl(root, own));
+
+		own.setProperty(TenantRegistry.PATH, "brand-a");
+		assertEquals("https://rp.example.com/samplerp/brand-a/forms/notifications/completion?key=s3cret",
+				TenantRegistry.callbackUrl(root, own));
+	}
+
+	private static BriidgeService routed(String tenantId, BriidgeService target) {
+
+		TenantRoutingInterceptor routing = new TenantRoutingInterceptor();
+		routing.setTenantId(tenantId);
+		ProxyFactory factory = new ProxyFactory(target);
+		factory.addInterface(BriidgeService.class);
+		factory.addAdvice(routing);
+		return (BriidgeService) factory.getProxy();
+	}
+
+	private static BriidgeService counting(final AtomicInteger calls) {
+
+		return (BriidgeService) Proxy.newProxyInstance(TenantRoutingTest.class.getClassLoader(),
+				new Class<?>[] { BriidgeService.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						calls.incrementAndGet();
+						return null;
+					}
+				});
+	}
+
+	private static Tenant tenant(String id, AtomicInteger calls) {
+
+		GenericApplicationContext context = new GenericApplicationContext();
+		context.getBeanFactory().registerSingleton("briidgeService", counting(calls));
+		context.refresh();
+		return new Tenant(id, new File(id + ".properties"), 0, new Properties(), context);
+	}
+
+	private static void set(Object target, String name, Object value) throws Exception {
+
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	/**
+	 * Request, response and filter chain of one request
+	 */
+	private static final class Exchange implements FilterChain {
+
+		private final String host;
+
+		private final String uri;
+
+		private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+		private final StringWriter body = new StringWriter();
+
+		private int status = HttpServletResponse.SC_OK;
+
+		private int chainCalls;
+
+		private Tenant chainTenant;
+
+		private String forwardedTo;
+
+		private Tenant forwardTenant;
+
+		private Exchange(String host, String uri) {
+			this.host = host;
+			this.uri = uri;
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response) {
+			chainCalls++;
+			chainTenant = TenantContext.current();
+		}
+
+		private HttpServletRequest request() {
+
+			return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							String name = method.getName();
+							if (name.equals("getServerName")) {
+								return host;
+							} else if (name.equals("getRequestURI")) {
+								return uri;
+							} else if (name.equals("getContextPath")) {
+								return "/samplerp";
+							} else if (name.equals("getAttribute")) {
+								return attributes.get(args[0]);
+							} else if (name.equals("setAttribute")) {
+								attributes.put((String) args[0], args[1]);
+							} else if (name.equals("removeAttribute")) {
+								attributes.remove(args[0]);
+							} else if (name.equals("getRequestDispatcher")) {
+								return dispatcher((String) args[0]);
+							} else if (method.getReturnType() == boolean.class) {
+								return false;
+							}
+							return null;
+						}
+					});
+		}
+
+		private RequestDispatcher dispatcher(final String path) {
+
+			return (RequestDispatcher) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { RequestDispatcher.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							forwardedTo = path;
+							forwardTenant = TenantContext.current();
+							return null;
+						}
+					});
+		}
+
+		private HttpServletResponse response() {
+
+			return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("setStatus")) {
+								status = (Integer) args[0];
+							} else if (method.getName().equals("getWriter")) {
+								return new PrintWriter(body, true);
+							}
+							return null;
+						}
+					});
+		}
+	}
+}